@@ -0,0 +1,132 @@
+package fr.upem.net.bench.chatos;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fr.upem.net.chatos.frame.ConnectionRequest;
+import fr.upem.net.chatos.frame.ErrorCode;
+import fr.upem.net.chatos.frame.MessageAll;
+import fr.upem.net.chatos.frame.PrivateMessage;
+import fr.upem.net.chatos.frame.TCPAbort;
+import fr.upem.net.chatos.frame.TCPAccept;
+import fr.upem.net.chatos.frame.TCPAsk;
+import fr.upem.net.chatos.frame.TCPConnect;
+
+/**
+ * 
+ * Throughput of the frame encoders : toByteBuffer for every frame type and encodeInto a reused buffer.
+ * Run with -prof gc, gc.alloc.rate.norm is the number of bytes allocated per encoded frame.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FrameEncodingBenchmark {
+	private static final Logger logger = Logger.getLogger(FrameEncodingBenchmark.class.getName());
+	
+	@Param({"ASCII", "UTF8"})
+	public FrameStreams.Content content;
+	
+	@Param({"16", "200", "1000"})
+	public int messageLength;
+	
+	private final ByteBuffer bbout = ByteBuffer.allocate(FrameStreams.BUFFER_SIZE);
+	
+	private ConnectionRequest connectionRequest;
+	private PrivateMessage    privateMessage;
+	private MessageAll        messageAll;
+	private TCPAsk            tcpAsk;
+	private TCPAccept         tcpAccept;
+	private TCPAbort          tcpAbort;
+	private TCPConnect        tcpConnect;
+	private ErrorCode         errorCode;
+	
+	@Setup
+	public void setup() {
+		var sender    = content.text(8, 0);
+		var recipient = content.text(10, 1);
+		var message   = content.text(messageLength / 3, 2); // up to 3 bytes per character with UTF8
+		connectionRequest = new ConnectionRequest(sender);
+		privateMessage    = new PrivateMessage(sender, recipient, message);
+		messageAll        = new MessageAll(sender, message);
+		tcpAsk            = new TCPAsk(sender, recipient, (short) 1);
+		tcpAccept         = new TCPAccept(sender, recipient, (short) 1);
+		tcpAbort          = new TCPAbort(sender, recipient, (short) 1);
+		tcpConnect        = new TCPConnect(sender, recipient, (short) 1);
+		errorCode         = ErrorCode.of(ErrorCode.OK);
+	}
+	
+	@Benchmark
+	public ByteBuffer connectionRequest() {
+		return connectionRequest.toByteBuffer(logger).get();
+	}
+	
+	@Benchmark
+	public ByteBuffer privateMessage() {
+		return privateMessage.toByteBuffer(logger).get();
+	}
+	
+	@Benchmark
+	public ByteBuffer messageAll() {
+		return messageAll.toByteBuffer(logger).get();
+	}
+	
+	@Benchmark
+	public ByteBuffer tcpAsk() {
+		return tcpAsk.toByteBuffer(logger).get();
+	}
+	
+	@Benchmark
+	public ByteBuffer tcpAccept() {
+		return tcpAccept.toByteBuffer(logger).get();
+	}
+	
+	@Benchmark
+	public ByteBuffer tcpAbort() {
+		return tcpAbort.toByteBuffer(logger).get();
+	}
+	
+	@Benchmark
+	public ByteBuffer tcpConnect() {
+		return tcpConnect.toByteBuffer(logger).get();
+	}
+	
+	@Benchmark
+	public ByteBuffer errorCode() {
+		return errorCode.toByteBuffer(logger).get();
+	}
+	
+	@Benchmark
+	public ByteBuffer privateMessageEncodeInto() {
+		privateMessage.encodeInto(bbout.clear());
+		return bbout;
+	}
+	
+	@Benchmark
+	public ByteBuffer messageAllEncodeInto() {
+		messageAll.encodeInto(bbout.clear());
+		return bbout;
+	}
+	
+	@Benchmark
+	public PrivateMessage privateMessageCreateAndEncodeInto() {
+		var frame = new PrivateMessage(privateMessage.getSender(), privateMessage.getRecipient(), privateMessage.getMessage());
+		frame.encodeInto(bbout.clear());
+		return frame;
+	}
+}
@@ -0,0 +1,79 @@
+package fr.upem.net.bench.chatos;
+
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import fr.upem.net.chatos.reader.ConnectionRequestReader;
+import fr.upem.net.chatos.reader.ErrorCodeReader;
+import fr.upem.net.chatos.reader.FrameVisitor;
+import fr.upem.net.chatos.reader.OpaqueMessageReader;
+import fr.upem.net.chatos.reader.SendMessageAllReader;
+import fr.upem.net.chatos.reader.SendPrivateMessageReader;
+import fr.upem.net.chatos.reader.TCPAbortReader;
+import fr.upem.net.chatos.reader.TCPAcceptReader;
+import fr.upem.net.chatos.reader.TCPAskReader;
+import fr.upem.net.chatos.reader.TCPConnectReader;
+
+/**
+ * 
+ * Context of the benchmarks visitor : every frame read is built then given to a consumer (the JMH blackhole)
+ */
+final class FrameSink {
+	static final FrameVisitor<FrameSink> VISITOR = new FrameVisitor<FrameSink>() {
+		@Override
+		public void visit(ConnectionRequestReader reader, FrameSink sink) {
+			sink.consumer.accept(reader.get());
+		}
+
+		@Override
+		public void visit(SendPrivateMessageReader reader, FrameSink sink) {
+			sink.consumer.accept(reader.get());
+		}
+
+		@Override
+		public void visit(SendMessageAllReader reader, FrameSink sink) {
+			sink.consumer.accept(reader.get());
+		}
+
+		@Override
+		public void visit(ErrorCodeReader reader, FrameSink sink) {
+			sink.consumer.accept(reader.get());
+		}
+
+		@Override
+		public void visit(TCPAskReader reader, FrameSink sink) {
+			sink.consumer.accept(reader.get());
+		}
+
+		@Override
+		public void visit(TCPAbortReader reader, FrameSink sink) {
+			sink.consumer.accept(reader.get());
+		}
+
+		@Override
+		public void visit(TCPConnectReader reader, FrameSink sink) {
+			sink.consumer.accept(reader.get());
+		}
+
+		@Override
+		public void visit(TCPAcceptReader reader, FrameSink sink) {
+			sink.consumer.accept(reader.get());
+		}
+
+		@Override
+		public void visit(OpaqueMessageReader reader, FrameSink sink) {
+			sink.consumer.accept(reader.get());
+		}
+	};
+	
+	private final Consumer<Object> consumer;
+	
+	/**
+	 * FrameSink constructor
+	 * @param consumer receives every frame read
+	 */
+	FrameSink(Consumer<Object> consumer) {
+		Objects.requireNonNull(consumer);
+		this.consumer = consumer;
+	}
+}
@@ -0,0 +1,305 @@
+package fr.upem.net.bench.chatos;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.logging.Logger;
+
+import fr.upem.net.chatos.frame.ConnectionRequest;
+import fr.upem.net.chatos.frame.ErrorCode;
+import fr.upem.net.chatos.frame.Frame;
+import fr.upem.net.chatos.frame.MessageAll;
+import fr.upem.net.chatos.frame.PrivateMessage;
+import fr.upem.net.chatos.frame.TCPAbort;
+import fr.upem.net.chatos.frame.TCPAccept;
+import fr.upem.net.chatos.frame.TCPAsk;
+import fr.upem.net.chatos.frame.TCPConnect;
+import fr.upem.net.chatos.reader.OpCodeReader;
+import fr.upem.net.chatos.reader.Reader;
+import fr.upem.net.chatos.reader.Reader.ProcessStatus;
+
+/**
+ * 
+ * Byte streams fed to the readers by the benchmarks, cut in chunks as they would come out of sc.read
+ */
+final class FrameStreams {
+	/**
+	 * Number of frames (or strings, lines...) of every stream, a benchmark operation reads a whole stream
+	 */
+	static final int FRAMES = 1_000;
+	
+	/**
+	 * Size of the input buffer the chunks are put in, as bbin
+	 */
+	static final int BUFFER_SIZE = 16 * 1_024;
+	
+	private static final Logger logger = Logger.getLogger(FrameStreams.class.getName());
+	
+	/**
+	 * Characters used in the strings of the frames
+	 */
+	enum Content {
+		ASCII("Bonjour a tous, ceci est un message de test du serveur ChatOs ! "),
+		UTF8("Bonjour à tous, ça marche très bien ✓ été € 😀 ");
+		
+		private final String sample;
+		
+		Content(String sample) {
+			this.sample = sample;
+		}
+		
+		/**
+		 * @brief get a string of the given number of characters
+		 * @param length the number of characters
+		 * @param seed changes the beginning of the string
+		 * @return the string
+		 */
+		String text(int length, int seed) {
+			var sb = new StringBuilder(length + sample.length());
+			var start = seed % sample.length();
+			if (Character.isLowSurrogate(sample.charAt(start))) {
+				start--;
+			}
+			sb.append(sample, start, sample.length());
+			while (sb.length() < length) {
+				sb.append(sample);
+			}
+			var end = length;
+			if (Character.isHighSurrogate(sb.charAt(end - 1))) {
+				end--;
+			}
+			return sb.substring(0, end);
+		}
+	}
+	
+	/**
+	 * How the stream is cut before being given to the reader
+	 */
+	enum Fragmentation {
+		ONE_BYTE, // one byte per read
+		RANDOM,   // reads of 1 to 64 bytes
+		WHOLE     // reads filling the input buffer, many frames per read
+	}
+	
+	/**
+	 * 
+	 * Encoded stream and the size of its chunks
+	 */
+	static final class Stream {
+		private final byte[] bytes;
+		private final int[]  chunks;
+		
+		private Stream(byte[] bytes, int[] chunks) {
+			this.bytes  = bytes;
+			this.chunks = chunks;
+		}
+		
+		/**
+		 * @return the number of bytes of the stream
+		 */
+		int size() {
+			return bytes.length;
+		}
+	}
+	
+	private FrameStreams() {
+		throw new AssertionError();
+	}
+	
+	/**
+	 * @brief cut a stream in chunks
+	 * @param bytes the whole stream
+	 * @param fragmentation how to cut it
+	 * @return the stream
+	 */
+	static Stream cut(byte[] bytes, Fragmentation fragmentation) {
+		var random = new Random(0);
+		var chunks = new int[bytes.length];
+		var count  = 0;
+		for (var position = 0; position < bytes.length; count++) {
+			int chunk;
+			switch (fragmentation) {
+			case ONE_BYTE:
+				chunk = 1;
+				break;
+			case RANDOM:
+				chunk = 1 + random.nextInt(64);
+				break;
+			default:
+				chunk = BUFFER_SIZE / 2;
+			}
+			chunk = Math.min(chunk, bytes.length - position);
+			chunks[count] = chunk;
+			position += chunk;
+		}
+		return new Stream(bytes, Arrays.copyOf(chunks, count));
+	}
+	
+	/**
+	 * @brief encode the frames of a chat session : every frame type of the protocol
+	 * @param content the characters of the strings
+	 * @return the encoded frames with their OpCode
+	 */
+	static byte[] chatFrames(Content content) {
+		var frames = new Frame[FRAMES];
+		for (var i = 0; i < FRAMES; i++) {
+			var sender    = content.text(8, i);
+			var recipient = content.text(10, i + 1);
+			var password  = (short) i;
+			switch (i % 8) {
+			case 0:
+				frames[i] = new ConnectionRequest(sender);
+				break;
+			case 1:
+			case 2:
+				frames[i] = new PrivateMessage(sender, recipient, content.text(20 + i % 200, i));
+				break;
+			case 3:
+			case 4:
+				frames[i] = new MessageAll(sender, content.text(20 + i % 200, i));
+				break;
+			case 5:
+				frames[i] = (i & 8) == 0 ? new TCPAsk(sender, recipient, password) : new TCPAccept(sender, recipient, password);
+				break;
+			case 6:
+				frames[i] = (i & 8) == 0 ? new TCPConnect(sender, recipient, password) : new TCPAbort(sender, recipient, password);
+				break;
+			default:
+				frames[i] = ErrorCode.of(ErrorCode.OK);
+			}
+		}
+		return encode(frames, 0);
+	}
+	
+	/**
+	 * @brief encode TCPAsk frames without their OpCode, as read by a TCPAskReader
+	 * @param content the characters of the strings
+	 * @return the encoded frames
+	 */
+	static byte[] tcpAskFrames(Content content) {
+		var frames = new Frame[FRAMES];
+		for (var i = 0; i < FRAMES; i++) {
+			frames[i] = new TCPAsk(content.text(8, i), content.text(10, i + 1), (short) i);
+		}
+		return encode(frames, 1);
+	}
+	
+	/**
+	 * @brief encode strings as read by a StringReader : size on a short then the UTF-8 bytes
+	 * @param content the characters of the strings
+	 * @return the encoded strings
+	 */
+	static byte[] strings(Content content) {
+		var bb = ByteBuffer.allocate(FRAMES * (Short.BYTES + Frame.MAX_STRING_SIZE));
+		for (var i = 0; i < FRAMES; i++) {
+			var string = StandardCharsets.UTF_8.encode(content.text(10 + i % 250, i));
+			bb.putShort((short) string.remaining()).put(string);
+		}
+		return Arrays.copyOf(bb.array(), bb.position());
+	}
+	
+	/**
+	 * @brief encode HTTP answers as sent by the TCPHTTPContext of the client
+	 * @param content the characters of the files
+	 * @return the encoded answers
+	 */
+	static byte[] httpAnswers(Content content) {
+		var sb = new StringBuilder();
+		for (var i = 0; i < FRAMES; i++) {
+			var file = content.text(50 + i % 200, i);
+			var length = file.getBytes(StandardCharsets.UTF_8).length;
+			sb.append("HTTP/1.0 200 OK\r\nContent-Type: text\r\nContent-Length: ").append(length).append("\r\n").append(file);
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * @brief encode lines ended by CRLF
+	 * @param content the characters of the lines
+	 * @return the encoded lines
+	 */
+	static byte[] lines(Content content) {
+		var sb = new StringBuilder();
+		for (var i = 0; i < FRAMES; i++) {
+			sb.append(content.text(10 + i % 100, i)).append("\r\n");
+		}
+		return sb.toString().getBytes(StandardCharsets.UTF_8);
+	}
+	
+	/**
+	 * @brief concatenate encoded frames
+	 * @param frames the frames to encode
+	 * @param skip the number of bytes to remove at the beginning of each frame (1 to remove the OpCode)
+	 * @return the encoded frames
+	 */
+	private static byte[] encode(Frame[] frames, int skip) {
+		var size = 0;
+		for (var frame : frames) {
+			size += frame.encodedSize() - skip;
+		}
+		var bb = ByteBuffer.allocate(size);
+		for (var frame : frames) {
+			bb.put(frame.toByteBuffer(logger).get().position(skip));
+		}
+		return bb.array();
+	}
+	
+	/**
+	 * @brief feed a stream to a reader the way the contexts do : put a chunk in bbin,
+	 * read every complete value from the read-mode buffer then compact once
+	 * @param stream the stream to read
+	 * @param bbin the input buffer (write-mode)
+	 * @param reader the reader
+	 * @param sink receives every value read
+	 * @return the number of values read
+	 */
+	static <T> int read(Stream stream, ByteBuffer bbin, Reader<T> reader, Consumer<? super T> sink) {
+		var count = 0;
+		var position = 0;
+		for (var chunk : stream.chunks) {
+			bbin.put(stream.bytes, position, chunk);
+			position += chunk;
+			bbin.flip();
+			for (var ps = reader.consume(bbin); ps != ProcessStatus.REFILL; ps = reader.consume(bbin)) {
+				if (ps == ProcessStatus.ERROR) {
+					throw new IllegalStateException("Unexpected reader error");
+				}
+				sink.accept(reader.get());
+				reader.reset();
+				count++;
+			}
+			bbin.compact();
+		}
+		return count;
+	}
+	
+	/**
+	 * @brief feed a stream to an OpCodeReader, as the ChatContexts do
+	 * @param stream the stream to read
+	 * @param bbin the input buffer (write-mode)
+	 * @param reader the reader
+	 * @param sink the context given to the visitor
+	 * @return the number of frames read
+	 */
+	static int read(Stream stream, ByteBuffer bbin, OpCodeReader reader, FrameSink sink) {
+		var count = 0;
+		var position = 0;
+		for (var chunk : stream.chunks) {
+			bbin.put(stream.bytes, position, chunk);
+			position += chunk;
+			bbin.flip();
+			for (var ps = reader.consume(bbin); ps != ProcessStatus.REFILL; ps = reader.consume(bbin)) {
+				if (ps == ProcessStatus.ERROR) {
+					throw new IllegalStateException("Unexpected reader error");
+				}
+				reader.accept(FrameSink.VISITOR, sink);
+				reader.reset();
+				count++;
+			}
+			bbin.compact();
+		}
+		return count;
+	}
+}
@@ -0,0 +1,107 @@
+package fr.upem.net.bench.chatos;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import fr.upem.net.chatos.reader.CRLFReader;
+import fr.upem.net.chatos.reader.HTTPReader;
+import fr.upem.net.chatos.reader.OpCodeReader;
+import fr.upem.net.chatos.reader.StringReader;
+import fr.upem.net.chatos.reader.TCPAskReader;
+
+/**
+ * 
+ * Throughput of the readers on streams of frames cut as they would come from the network.
+ * An operation is one frame (or string, line, HTTP answer) : run with -prof gc,
+ * gc.alloc.rate.norm is then the number of bytes allocated per frame.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ReaderBenchmark {
+	@Param({"ONE_BYTE", "RANDOM", "WHOLE"})
+	public FrameStreams.Fragmentation fragmentation;
+	
+	@Param({"ASCII", "UTF8"})
+	public FrameStreams.Content content;
+	
+	private final ByteBuffer bbin = ByteBuffer.allocate(FrameStreams.BUFFER_SIZE);
+	
+	private FrameStreams.Stream chatStream;
+	private FrameStreams.Stream tcpAskStream;
+	private FrameStreams.Stream stringStream;
+	private FrameStreams.Stream httpStream;
+	private FrameStreams.Stream lineStream;
+	
+	private final OpCodeReader opCodeReader           = new OpCodeReader();
+	private final OpCodeReader forwardingOpCodeReader = new OpCodeReader(true);
+	private final TCPAskReader tcpAskReader           = new TCPAskReader();
+	private final StringReader stringReader           = new StringReader();
+	private final HTTPReader   httpReader             = new HTTPReader();
+	private final CRLFReader   crlfReader             = new CRLFReader();
+	
+	private FrameSink sink;
+	
+	@Setup
+	public void setup(Blackhole blackhole) {
+		chatStream   = FrameStreams.cut(FrameStreams.chatFrames(content), fragmentation);
+		tcpAskStream = FrameStreams.cut(FrameStreams.tcpAskFrames(content), fragmentation);
+		stringStream = FrameStreams.cut(FrameStreams.strings(content), fragmentation);
+		httpStream   = FrameStreams.cut(FrameStreams.httpAnswers(content), fragmentation);
+		lineStream   = FrameStreams.cut(FrameStreams.lines(content), fragmentation);
+		sink = new FrameSink(blackhole::consume);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(FrameStreams.FRAMES)
+	public int opCodeReader() {
+		return FrameStreams.read(chatStream, bbin.clear(), opCodeReader, sink);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(FrameStreams.FRAMES)
+	public int opCodeReaderForwarding() {
+		return FrameStreams.read(chatStream, bbin.clear(), forwardingOpCodeReader, sink);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(FrameStreams.FRAMES)
+	public int tcpAskReader(Blackhole blackhole) {
+		return FrameStreams.read(tcpAskStream, bbin.clear(), tcpAskReader, blackhole::consume);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(FrameStreams.FRAMES)
+	public int stringReader(Blackhole blackhole) {
+		return FrameStreams.read(stringStream, bbin.clear(), stringReader, blackhole::consume);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(FrameStreams.FRAMES)
+	public int httpReader(Blackhole blackhole) {
+		return FrameStreams.read(httpStream, bbin.clear(), httpReader, blackhole::consume);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(FrameStreams.FRAMES)
+	public int crlfReader(Blackhole blackhole) {
+		return FrameStreams.read(lineStream, bbin.clear(), crlfReader, blackhole::consume);
+	}
+}
@@ -16,6 +16,7 @@ import fr.upem.net.chatos.frame.TCPAccept;
 import fr.upem.net.chatos.frame.TCPAsk;
 import fr.upem.net.chatos.reader.ConnectionRequestReader;
 import fr.upem.net.chatos.reader.FrameVisitor;
+import fr.upem.net.chatos.reader.OpaqueMessageReader;
 import fr.upem.net.chatos.reader.ErrorCodeReader;
 import fr.upem.net.chatos.reader.OpCodeReader;
 import fr.upem.net.chatos.reader.SendMessageAllReader;
@@ -63,6 +64,10 @@ class ChatContext implements Context {
 
 		@Override
 		public void visit(ErrorCodeReader reader, ChatContext context) {
+			if (reader.get().getErrorCode() == ErrorCode.KEEPALIVE) {
+				context.queueCommand(ErrorCode.of(ErrorCode.KEEPALIVE));
+				return;
+			}
 			System.out.println("Received an Error from the server : ");
 			switch (reader.get().getErrorCode()) {
 			case ErrorCode.ALREADY_CONNECTED:
@@ -115,6 +120,12 @@ class ChatContext implements Context {
 		public void visit(TCPAcceptReader reader, ChatContext context) {
 			context.treatTCPAccept(reader.get());
 		}
+
+		@Override
+		public void visit(OpaqueMessageReader reader, ChatContext context) {
+			// On ne devrait jamais arriver ici, les messages du client sont decodes
+			// Do nothing
+		}
 	};
 
 	private boolean closed = false;
@@ -131,10 +142,11 @@ class ChatContext implements Context {
 	}
 
 	/**
-	 * @brief process the content of bbin
+	 * @brief process the content of bbin, every complete frame is read before bbin is compacted once
 	 */
 	private void processIn() {
-		for (var ps = reader.process(bbin); ps != ProcessStatus.REFILL; ps = reader.process(bbin)) {
+		bbin.flip();
+		for (var ps = reader.consume(bbin); ps != ProcessStatus.REFILL; ps = reader.consume(bbin)) {
 			if (ps == ProcessStatus.ERROR) {
 				silentlyClose();
 				return;
@@ -143,35 +155,47 @@ class ChatContext implements Context {
 				reader.reset();
 			}
 		}
+		bbin.compact();
 	}
 
 	/**
-	 * @brief add a command to the commands queue
+	 * @brief add a command to the commands queue, it is written at once if nothing was waiting
+	 * to be written (OP_WRITE is only registered if bytes are left over)
 	 * @param frame the command to add
 	 */
 	public void queueCommand(Frame frame) {
+		var idle = bbout.position() == 0;
 		queue.add(frame);
 		processOut();
+		if (idle) {
+			try {
+				write();
+			} catch (IOException ioe) {
+				logger.info("Connection closed with the server due to IOException");
+				silentlyClose();
+				return;
+			}
+		}
 		updateInterestOps();
 	}
 
 	/**
-	 * @brief process the content of bbout
+	 * @brief encode the queued frames straight into bbout while they fit
 	 */
 	private void processOut() {
 		while (!queue.isEmpty()) {
 			var frame = queue.peek();
-			var optBB = frame.toByteBuffer(logger);
-			if (optBB.isEmpty()) {
+			var size = frame.encodedSize();
+			if (size < 0) {
+				logger.info("A string exceeds the limit (1024), ignoring command");
 				queue.remove();
+				continue;
 			}
-			var bb = optBB.get();
-			if (bb.remaining() <= bbout.remaining()) {
-				queue.remove();
-				bbout.put(bb);
-			} else {
+			if (size > bbout.remaining()) {
 				break;
 			}
+			frame.encodeInto(bbout);
+			queue.remove();
 		}
 	}
 
@@ -215,11 +239,19 @@ class ChatContext implements Context {
 
 	@Override
 	public void doWrite() throws IOException {
+		write();
+		updateInterestOps();
+	}
+
+	/**
+	 * @brief write bbout then encode the waiting commands into it
+	 * @throws IOException when write throws it
+	 */
+	private void write() throws IOException {
 		bbout.flip();
 		sc.write(bbout);
 		bbout.compact();
 		processOut();
-		updateInterestOps();
 	}
 
 	@Override
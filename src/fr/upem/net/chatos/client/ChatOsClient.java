@@ -134,6 +134,7 @@ public class ChatOsClient {
 	/* ----------------------------------------------------------------- */
 	static private Logger    logger          = Logger.getLogger(ChatOsClient.class.getName());
 	static private final int maxLoginLength  = 32;
+	static private final long defaultCacheBytes = 64L * 1024 * 1024;
 	
 	private final Thread                     console;
 	private final ArrayBlockingQueue<String> commandQueue; 
@@ -149,6 +150,8 @@ public class ChatOsClient {
 	private final SocketChannel     sc;
 	private final Selector          selector;
 	private final InetSocketAddress serverAddress;
+	private final FileCache         fileCache;
+	private final CompressionStats  compressionStats = new CompressionStats();
 	
 	private ChatContext chatContext;
 	
@@ -164,7 +167,19 @@ public class ChatOsClient {
 	 * @throws IOException when open(s) methods throws it
 	 */
 	public ChatOsClient(String login, InetSocketAddress serverAddress) throws IOException {
+		this(login, serverAddress, defaultCacheBytes);
+	}
+
+	/**
+	 * Client ChatOs contructor
+	 * @param login the client login
+	 * @param serverAddress the server address
+	 * @param cacheBytes the budget of the cache of the files sent on the TCP private connexions, 0 to disable it
+	 * @throws IOException when open(s) methods throws it
+	 */
+	public ChatOsClient(String login, InetSocketAddress serverAddress, long cacheBytes) throws IOException {
 		this.serverAddress = serverAddress;
+		this.fileCache     = new FileCache(cacheBytes);
 		this.login         = login;
 		this.sc            = SocketChannel.open();
 		this.selector      = Selector.open();
@@ -183,6 +198,20 @@ public class ChatOsClient {
 		TCPContextMap.put(recipient, context);
 	}
 	
+	/**
+	 * @return the cache of the files sent on the TCP private connexions
+	 */
+	FileCache getFileCache() {
+		return fileCache;
+	}
+
+	/**
+	 * @return the statistics of the answers deflated on the TCP private connexions
+	 */
+	CompressionStats getCompressionStats() {
+		return compressionStats;
+	}
+
 	public void removeContextFromContextMap(String recipient) {
 		Objects.requireNonNull(recipient);
 		if (TCPContextMap.remove(recipient) == null) {
@@ -405,12 +434,12 @@ public class ChatOsClient {
 	
 	/**
 	 * @brief main method starting a ChatOs client
-	 * @param args usage : login hostname port
+	 * @param args usage : login hostname port [cacheBytes]
 	 * @throws NumberFormatException when the port arg is not a number
 	 * @throws IOException when ClientChatOs throw an IOException
 	 */
 	public static void main(String[] args) throws NumberFormatException, IOException {
-		if (args.length != 3) {
+		if (args.length != 3 && args.length != 4) {
 			usage();
 			return;
 		}
@@ -419,7 +448,8 @@ public class ChatOsClient {
 			return;
 		}
 		var isa = new InetSocketAddress(args[1], Integer.parseInt(args[2]));
-		new ChatOsClient(args[0], isa).launch();
+		var cacheBytes = args.length == 4 ? Long.parseLong(args[3]) : defaultCacheBytes;
+		new ChatOsClient(args[0], isa, cacheBytes).launch();
 	}
 	
 	/**
@@ -427,7 +457,7 @@ public class ChatOsClient {
 	 * @brief print the usage of the client
 	 */
 	private static void usage() {
-		System.out.println("Usage : ClientChatOs login hostname port");
+		System.out.println("Usage : ClientChatOs login hostname port [cacheBytes (default 64 MiB, 0 : no file cache)]");
 	}
 	
 //	/**
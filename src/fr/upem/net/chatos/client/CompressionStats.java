@@ -0,0 +1,45 @@
+package fr.upem.net.chatos.client;
+
+/**
+ *
+ * Statistics of the answers deflated by a client on its TCP private connexions : the bytes read from the files
+ * and the bytes of the deflate streams sent in their place.
+ * Not thread safe, only used by the selector thread of the client.
+ */
+class CompressionStats {
+	private long answers;
+	private long fileBytes;
+	private long sentBytes;
+
+	/**
+	 *
+	 * @brief count a deflated answer
+	 * @param fileBytes the number of bytes of the file sent
+	 * @param sentBytes the number of bytes of the deflate stream
+	 */
+	void record(long fileBytes, long sentBytes) {
+		if (fileBytes < 0 || sentBytes < 0) {
+			throw new IllegalArgumentException("byte counts cannot be negative");
+		}
+		answers++;
+		this.fileBytes += fileBytes;
+		this.sentBytes += sentBytes;
+	}
+
+	/**
+	 *
+	 * @brief get the ratio of the bytes sent to the bytes of the files
+	 * @param fileBytes the number of bytes of the files
+	 * @param sentBytes the number of bytes sent
+	 * @return the ratio in percent, 100 if nothing was sent
+	 */
+	static double ratio(long fileBytes, long sentBytes) {
+		return fileBytes == 0 ? 100 : sentBytes * 100.0 / fileBytes;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("CompressionStats [answers : %d, bytes : %d -> %d, ratio : %.1f%%]",
+				answers, fileBytes, sentBytes, ratio(fileBytes, sentBytes));
+	}
+}
@@ -0,0 +1,315 @@
+package fr.upem.net.chatos.client;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ *
+ * LRU cache of the files sent on the TCP private connexions : the files are memory-mapped (read-only) with their
+ * size and content type, so a file asked again is written from the mapping without reading the disk again.
+ * The mapped bytes never exceed the budget of the cache. The directories of the cached files are watched
+ * (WatchService) and a file is dropped from the cache as soon as it is created, modified or deleted. As the events
+ * may come late, the size and the modification time of a file are checked again before a cached file is returned.
+ * Not thread safe, the cache is only used by the selector thread of the client which polls the events.
+ */
+class FileCache {
+	static private Logger logger = Logger.getLogger(FileCache.class.getName());
+
+	/**
+	 *
+	 * Mapped file and its metadata
+	 */
+	static final class Entry {
+		private final Path             path;
+		private final MappedByteBuffer mapping;
+		private final String           contentType;
+		private final FileTime         lastModified;
+
+		private Entry(Path path, MappedByteBuffer mapping, String contentType, FileTime lastModified) {
+			this.path         = path;
+			this.mapping      = mapping;
+			this.contentType  = contentType;
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 *
+		 * @return a new view of the content of the file in read-mode
+		 */
+		ByteBuffer body() {
+			return mapping.duplicate();
+		}
+
+		/**
+		 *
+		 * @return the size of the file
+		 */
+		long size() {
+			return mapping.capacity();
+		}
+
+		/**
+		 *
+		 * @return the content type of the file
+		 */
+		String contentType() {
+			return contentType;
+		}
+
+		/**
+		 *
+		 * @return the modification time of the file when it was mapped
+		 */
+		FileTime lastModified() {
+			return lastModified;
+		}
+	}
+
+	/**
+	 *
+	 * Watched directory and the number of cached files it holds
+	 */
+	static private final class Directory {
+		private final WatchKey key;
+		private int            entries;
+
+		private Directory(WatchKey key) {
+			this.key = key;
+		}
+	}
+
+	private final long                        budget;
+	private final WatchService                watcher;
+	private final LinkedHashMap<Path, Entry>  entries     = new LinkedHashMap<>(16, 0.75f, true); // access order
+	private final HashMap<Path, Directory>    directories = new HashMap<>();
+	private long                              bytes;
+	private long                              hits;
+	private long                              misses;
+
+	/**
+	 * FileCache constructor
+	 * @param budget the maximum number of bytes mapped by the cache, 0 disables the cache
+	 * @throws IOException when the WatchService cannot be opened
+	 */
+	FileCache(long budget) throws IOException {
+		if (budget < 0) {
+			throw new IllegalArgumentException("budget cannot be negative");
+		}
+		this.budget  = budget;
+		this.watcher = FileSystems.getDefault().newWatchService();
+	}
+
+	/**
+	 *
+	 * @brief get the guessed media type of a file
+	 * @param path the file
+	 * @return the media type of the file, application/octet-stream if it is not known
+	 */
+	static String contentType(Path path) {
+		try {
+			var type = Files.probeContentType(path);
+			if (type != null && !type.contains(" ") && !type.contains(";")) {
+				return type;
+			}
+		} catch (IOException e) {
+			// unknown type
+		}
+		return "application/octet-stream";
+	}
+
+	/**
+	 *
+	 * @brief get a cached file, the pending changes of the watched directories are applied first. A file whose size
+	 * or modification time changed since it was mapped is dropped (reading its mapping past its new end would crash)
+	 * @param path the file
+	 * @return the entry of the file or null if it is not cached
+	 */
+	Entry get(Path path) {
+		Objects.requireNonNull(path);
+		processEvents();
+		var absolute = path.toAbsolutePath().normalize();
+		var entry = entries.get(absolute);
+		if (entry != null && !unchanged(entry)) {
+			invalidate(absolute);
+			entry = null;
+		}
+		if (entry == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return entry;
+	}
+
+	/**
+	 *
+	 * @brief drop a file from the cache, for instance when its mapping cannot be read anymore
+	 * @param path the file
+	 */
+	void remove(Path path) {
+		Objects.requireNonNull(path);
+		invalidate(path.toAbsolutePath().normalize());
+	}
+
+	/**
+	 *
+	 * @brief tell whether a cached file still has the size and the modification time it had when it was mapped
+	 * @param entry the cached file
+	 * @return false if the file changed or cannot be read
+	 */
+	private static boolean unchanged(Entry entry) {
+		try {
+			return Files.size(entry.path) == entry.size() && Files.getLastModifiedTime(entry.path).equals(entry.lastModified);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 *
+	 * @brief map a file opened by the caller and add it to the cache, the least recently used files are evicted
+	 * to stay under the budget. Nothing is done if the file alone exceeds the budget or cannot be mapped or watched,
+	 * nor if it is reported empty (its content, generated like the files of /proc, may not be mapped)
+	 * @param path the file
+	 * @param file the file opened for reading, it may be closed as soon as this method returns
+	 * @param contentType the content type of the file
+	 * @return the new entry or null if the file is not cached
+	 */
+	Entry put(Path path, FileChannel file, String contentType) {
+		Objects.requireNonNull(path);
+		Objects.requireNonNull(file);
+		Objects.requireNonNull(contentType);
+		var absolute = path.toAbsolutePath().normalize();
+		var parent = absolute.getParent();
+		if (budget == 0 || parent == null) {
+			return null;
+		}
+		invalidate(absolute);
+		MappedByteBuffer mapping;
+		FileTime lastModified;
+		var directory = directories.get(parent);
+		try {
+			lastModified = Files.getLastModifiedTime(absolute); // before mapping, a later change is seen by get
+			var size = file.size();
+			if (size == 0 || size > budget || size > Integer.MAX_VALUE) {
+				return null;
+			}
+			mapping = file.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			if (directory == null) {
+				directory = new Directory(parent.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY));
+				directories.put(parent, directory);
+			}
+		} catch (IOException ioe) {
+			logger.log(Level.WARNING, absolute + " cannot be cached", ioe);
+			return null;
+		}
+		var entry = new Entry(absolute, mapping, contentType, lastModified);
+		var size = entry.size();
+		entries.put(absolute, entry);
+		directory.entries++;
+		bytes += size;
+		evict();
+		return entries.get(absolute);
+	}
+
+	/**
+	 *
+	 * @brief drop the least recently used files until the cache is under its budget
+	 */
+	private void evict() {
+		var iterator = entries.values().iterator();
+		while (bytes > budget && iterator.hasNext()) {
+			var entry = iterator.next();
+			iterator.remove();
+			removed(entry);
+		}
+	}
+
+	/**
+	 *
+	 * @brief drop a file from the cache, nothing is done if it is not cached
+	 * @param path the absolute and normalized path of the file
+	 */
+	private void invalidate(Path path) {
+		var entry = entries.remove(path);
+		if (entry != null) {
+			logger.info(path + " changed, removed from the file cache");
+			removed(entry);
+		}
+	}
+
+	/**
+	 *
+	 * @brief update the counters once an entry is removed, its directory stops being watched when it holds no more cached files.
+	 * The mapping is released by the garbage collector once the answers using it are sent
+	 * @param entry the removed entry
+	 */
+	private void removed(Entry entry) {
+		bytes -= entry.size();
+		var parent = entry.path.getParent();
+		var directory = directories.get(parent);
+		if (directory != null && --directory.entries == 0) {
+			directory.key.cancel();
+			directories.remove(parent);
+		}
+	}
+
+	/**
+	 *
+	 * @brief apply the changes reported by the WatchService without waiting
+	 */
+	private void processEvents() {
+		for (var key = watcher.poll(); key != null; key = watcher.poll()) {
+			var parent = (Path) key.watchable();
+			for (var event : key.pollEvents()) {
+				if (event.kind() == OVERFLOW) {
+					invalidateDirectory(parent);
+					continue;
+				}
+				invalidate(parent.resolve((Path) event.context()));
+			}
+			if (!key.reset()) {
+				invalidateDirectory(parent);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @brief drop every cached file of a directory (events lost or directory no longer watchable)
+	 * @param parent the directory
+	 */
+	private void invalidateDirectory(Path parent) {
+		var iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			var entry = iterator.next();
+			if (entry.path.getParent().equals(parent)) {
+				iterator.remove();
+				removed(entry);
+			}
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "FileCache [files : " + entries.size() + ", bytes : " + bytes + " / " + budget + ", hits : " + hits + ", misses : " + misses + "]";
+	}
+}
@@ -73,7 +73,7 @@ class TCPContextWaiter implements TCPContext{
 			if (bbin.get() != OpCodeReader.ERROR_PACKET_CODE) {
 				System.out.println("Didn't receive ErrorCode");
 			}
-			var err = new ErrorCode(bbin.get());
+			var err = ErrorCode.of(bbin.get());
 			if (err.getErrorCode() != ErrorCode.OK) {
 				closed = true;
 			} else {
@@ -1,15 +1,20 @@
 package fr.upem.net.chatos.client;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
@@ -17,48 +22,112 @@ import java.util.Objects;
 import java.util.Queue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
+import java.util.zip.Deflater;
 
+import fr.upem.net.chatos.frame.HTTPHeader;
 import fr.upem.net.chatos.reader.HTTPReader;
+import fr.upem.net.chatos.reader.Reader.ProcessStatus;
 import fr.upem.net.chatos.reader.StringReader;
 
 /**
- * 
+ *
  * Context of a TCP connection
+ * Both clients may ask files (GET requests : the path as a string) and answer the requests of the other one
+ * (HTTP/1.0 answers) on the same connection. The requests are pipelined : up to PIPELINE_DEPTH requests are sent
+ * without waiting for their answers, which come back in the same order and are matched with sentQueue.
+ * The connection is kept alive once the queues are empty, it is closed by the client or when the other side leaves.
+ * A file is received in target.part, renamed target once complete : if a connection dies during a transfer,
+ * the next request for the same target asks only the missing bytes and the other side answers 206 PartialContent.
+ * The answers carry the validator of the file (ETag : its size and modification time), kept with the path asked in
+ * target.part.info : a range is asked with this validator (If-Range) and the other side answers 200 OK with the whole
+ * file if the file changed since. A partial download started for another path, or without validator, is dropped.
+ * The fields of a request (range, accepted codings) follow the path, each one after a NUL character which cannot be
+ * part of a path. A file whose size is not known before reading it (reported empty, like the files of /proc) is sent
+ * in chunks (Transfer-Encoding: chunked) until the end of the file is read. The requests accept deflate : a file of
+ * at least COMPRESSION_THRESHOLD bytes whose type is not already compressed is deflated as it is sent, in chunks.
  */
 class TCPHTTPContext implements TCPContext{
-	private enum Status {
-		WQ, //WAIT_QUESTION, // mode : read
-		WA, //WAIT_ANSWER,   // mode : read 
-		AN, //ANSWERING,     // mode : write
-		SQ, //SEND_QUESTION, // mode : write
-		RQ, //READ_QUESTION, // mode : read
+	private enum InStatus {
+		IDLE,    // between two messages, the first byte tells which one comes next
+		REQUEST, // reading a request of the other side
+		ANSWER,  // reading the answer to one of our requests
 	};
-	
-	private final static int BUFFER_SIZE = 1_024;
+
+	/**
+	 *
+	 * Request sent and not answered yet
+	 */
+	private static final class Request {
+		private final String path;
+		private final String target;
+		private final long   offset; // start of the range asked, the size of target.part
+
+		private Request(String path, String target, long offset) {
+			this.path   = path;
+			this.target = target;
+			this.offset = offset;
+		}
+	}
+
+	private enum OutStatus {
+		IDLE,      // between two messages
+		ANSWERING, // writing an answer, no request may be sent before its end
+	};
+
+	private final static int BUFFER_SIZE          = 1_024;
+	private final static int PIPELINE_DEPTH       = 8;  // requests sent and not answered yet
+	private final static int MAX_PENDING_REQUESTS = 32; // requests of the other side read and not answered yet
+	private final static int MAX_REQUEST_SIZE     = 1_024;
+	private final static byte ANSWER_FIRST_BYTE   = 'H'; // a request starts with its size (at most 1024)
+	private final static char FIELD_SEPARATOR     = '\0';
+	private final static String RANGE_UNIT        = "bytes=";
+	private final static String ACCEPT_ENCODING   = "Accept-Encoding: ";
+	private final static String IF_RANGE          = "If-Range: ";
+	private final static String INFO_SUFFIX       = ".info";
+	private final static long COMPRESSION_THRESHOLD = 4_096; // smaller files are sent as they are
+	private final static String PART_SUFFIX       = ".part";
+	private final static int CHUNK_SIZE           = 8_192;
+	private final static int CHUNK_PREFIX         = 10;  // room for the size line of a chunk (hexadecimal int + CRLF)
+	private final static long PROGRESS_STEP       = 10 * 1_024 * 1_024; // progress of a chunked body, in bytes
 	static private Logger    logger          = Logger.getLogger(TCPHTTPContext.class.getName());
 	private final Charset    ASCII       = StandardCharsets.US_ASCII;
-	
+	private final Charset    UTF_8       = StandardCharsets.UTF_8;
+
 	private final SelectionKey key;
 	private final SocketChannel sc;
 	private final ChatOsClient client;
 	private final String recipient;
-	
+
 	private final ByteBuffer bbin  = ByteBuffer.allocate(BUFFER_SIZE);
 	private final ByteBuffer bbout = ByteBuffer.allocate(BUFFER_SIZE);
-	
-	private final Queue<String> commandQueue = new LinkedList<>();
-	private final Queue<String> targetQueue  = new LinkedList<>();
-	
+
+	private final Queue<String>  commandQueue = new LinkedList<>(); // requests not sent yet
+	private final Queue<String>  targetQueue  = new LinkedList<>(); // targets of the requests not sent yet
+	private final Queue<Request> sentQueue    = new LinkedList<>(); // requests sent and not answered yet, in order
+	private final Queue<String>  requestQueue = new LinkedList<>(); // requests of the other side to answer, in order
+
 	private boolean closed;
-	
-	private Status state = Status.WQ;
-			
-	private String       HTTPanswer  = "";
-	private List<String> fileLines   = List.of();
-	private ByteBuffer   currentLine = ByteBuffer.allocate(0); 
-	
+
+	private InStatus  inState  = InStatus.IDLE;
+	private OutStatus outState = OutStatus.IDLE;
+
+	private String      HTTPanswer  = "";
+	private ByteBuffer  currentLine = ByteBuffer.allocate(0); // header of the answer
+	private FileChannel file;                                 // body of the answer, null if there is none
+	private ByteBuffer  mappedBody;                           // body of the answer from the file cache, null if there is none
+	private long        filePosition;
+	private long        fileSize;
+	private boolean     chunkedBody;                          // the body of the answer is sent in chunks
+	private boolean     lastChunk;                            // the chunk being written ends the body
+	private ByteBuffer  chunk;                                // chunk being written, allocated by the first chunked answer
+	private Deflater    deflater;                             // deflates the body of the answer, created by the first deflated answer
+	private ByteBuffer  deflaterInput;                        // bytes of the file given to the deflater
+	private boolean     deflating;                            // the body of the answer is deflated
+
 	private final HTTPReader   httpreader   = new HTTPReader();
+	private boolean            streaming;    // the body of the answer being read goes to the first target
+	private boolean            partRecorded; // the validator of the answer being read is saved in target.part.info
+	private long               lastProgress; // percentage of the file received, steps of PROGRESS_STEP bytes if the size is unknown
 	private final StringReader stringReader = new StringReader();
 
 	/**
@@ -79,10 +148,12 @@ class TCPHTTPContext implements TCPContext{
 		}
 		this.key = key;
 		this.sc = sc;
-		this.commandQueue.addAll(commandQueue);
-		this.targetQueue.addAll(targetQueue);
 		this.client = client;
 		this.recipient = recipient;
+		var targets = targetQueue.iterator();
+		for (var command : commandQueue) {
+			queueCommand(command, targets.next());
+		}
 		updateInterestOps();
 	}
 
@@ -90,161 +161,657 @@ class TCPHTTPContext implements TCPContext{
 	 * @brief update the interestOps of the key
 	 */
 	private void updateInterestOps() {
+		if (!key.isValid()) {
+			return;
+		}
 		int intOps = 0;
-		if (!closed && bbin.hasRemaining() 
-				&& (state == Status.WQ || state == Status.WA || state == Status.RQ)) {
+		if (!closed && bbin.hasRemaining()) {
 			intOps |= SelectionKey.OP_READ;
 		}
-		if (bbout.position() > 0 || !(commandQueue.isEmpty()) 
-				|| (state == Status.SQ || state == Status.AN)){
+		if (bbout.position() > 0 || outState == OutStatus.ANSWERING || !requestQueue.isEmpty()
+				|| (!commandQueue.isEmpty() && sentQueue.size() < PIPELINE_DEPTH)) {
 			intOps |= SelectionKey.OP_WRITE;
 		}
-		if (intOps == 0 || !key.isValid()) {
+		if (intOps == 0) {
 			System.out.println("TCP connection was interrupted");
 			silentlyClose();
 			return;
 		}
 		key.interestOps(intOps);
-	}		
-	
+	}
+
 	/**
-	 * @throws IOException 
-	 * @brief process the command of bbin
+	 * @throws IOException when the target file of an answer cannot be written
+	 * @brief process every complete message of bbin, the requests of the other side are kept until answered.
+	 * Nothing more is read while MAX_PENDING_REQUESTS requests wait for their answer
 	 */
 	private void processIn() throws IOException {
-		switch (state) {
-		case WQ :
-			state = Status.RQ;
-		case RQ : // HTTP answer (2)
-			processInRequest();
+		bbin.flip();
+		try {
+			while (sc.isOpen()) {
+				if (inState == InStatus.IDLE) {
+					if (!bbin.hasRemaining()) {
+						return;
+					}
+					inState = bbin.get(bbin.position()) == ANSWER_FIRST_BYTE ? InStatus.ANSWER : InStatus.REQUEST;
+				}
+				if (inState == InStatus.REQUEST && requestQueue.size() >= MAX_PENDING_REQUESTS) {
+					return;
+				}
+				var ps = inState == InStatus.REQUEST ? processInRequest() : processInAnswer();
+				switch (ps) {
+				case ERROR :
+					logger.log(Level.SEVERE, "HTTP Reader get ERROR status");
+					silentlyClose();
+					return;
+				case REFILL :
+					return;
+				case DONE :
+					inState = InStatus.IDLE;
+				}
+			}
+		} finally {
+			bbin.compact();
+		}
+	}
+
+	/**
+	 * @brief read a request of the other side, it is answered once the previous ones are
+	 * @return the status of the reader
+	 */
+	private ProcessStatus processInRequest() {
+		var ps = stringReader.consume(bbin);
+		if (ps == ProcessStatus.DONE) {
+			requestQueue.add(stringReader.get());
+			stringReader.reset();
+		}
+		return ps;
+	}
+
+	/**
+	 * @brief read the answer to the oldest request sent, its body is streamed to target.part
+	 * which is renamed target once complete
+	 * @return the status of the reader
+	 * @throws IOException when the target file cannot be written
+	 */
+	private ProcessStatus processInAnswer() throws IOException {
+		var request = sentQueue.peek();
+		if (request == null) {
+			logger.log(Level.SEVERE, "Received an answer without request");
+			return ProcessStatus.ERROR;
+		}
+		if (!streaming) {
+			httpreader.streamTo(partPath(request.target), request.offset, this::progress);
+			streaming = true;
+			partRecorded = false;
+			lastProgress = 0;
+		}
+		ProcessStatus ps;
+		try {
+			ps = httpreader.consume(bbin);
+		} catch (UncheckedIOException uioe) {
+			throw uioe.getCause();
+		}
+		if (!partRecorded && httpreader.getHeader() != null) {
+			recordPart(request, httpreader.getHeader());
+			partRecorded = true;
+		}
+		if (ps != ProcessStatus.DONE) {
+			return ps;
+		}
+		var header = httpreader.get().getHeader();
+		sentQueue.poll();
+		httpreader.reset();
+		streaming = false;
+		if (request.offset > 0 && header.getResponce_code().equals("200 OK")) {
+			System.out.println(request.target + " changed since the partial download, it was downloaded again");
+		}
+		if (header.getResponce_code().equals("206 PartialContent")) {
+			System.out.println("Resumed " + request.target + " from byte " + request.offset);
+		}
+		switch (header.getResponce_code()) {
+		case "206 PartialContent" :
+		case "200 OK" :
+			Files.move(partPath(request.target), Path.of(request.target), StandardCopyOption.REPLACE_EXISTING);
+			Files.deleteIfExists(infoPath(request.target));
+			var encoding = header.getContent_encoding().equals(HTTPHeader.IDENTITY) ? "" : ", " + header.getContent_encoding();
+			System.out.println("Received HTTP answer for : " + request.target
+					+ (header.isChunked() ? " (chunked" : " (" + header.getContentLength() + " bytes") + encoding + ")");
 			break;
-		case SQ :
-			state = Status.WA;
-		case WA : // HTTP GET result (4)
-			processInAnswer();
+		case "416 RangeNotSatisfiable" :
+			// the file changed since the partial download, it is downloaded again
+			System.out.println("The partial download of " + request.target + " cannot be resumed, downloading it again");
+			Files.deleteIfExists(partPath(request.target));
+			Files.deleteIfExists(infoPath(request.target));
+			commandQueue.add(request.path);
+			targetQueue.add(request.target);
 			break;
-		case AN :
-			state = Status.WQ;
+		default :
+			System.out.println("The requested file cannot be found, get ERROR 404 NotFound");
 		}
+		return ps;
 	}
-	
-	private void processInRequest() throws IOException {
-		var ps = stringReader.process(bbin);
-		switch (ps) {
-		case ERROR : 
-			logger.log(Level.SEVERE, "HTTP Reader get ERROR status");
-			silentlyClose();
+
+	/**
+	 * @brief get the file receiving the content of a target until it is complete
+	 * @param target the target
+	 * @return the path of target.part
+	 */
+	private static Path partPath(String target) {
+		return Path.of(target + PART_SUFFIX);
+	}
+
+	/**
+	 * @brief get the file keeping the path asked and the validator of the partial download of a target
+	 * @param target the target
+	 * @return the path of target.part.info
+	 */
+	private static Path infoPath(String target) {
+		return Path.of(target + PART_SUFFIX + INFO_SUFFIX);
+	}
+
+	/**
+	 * @brief save the validator of an answer with the path asked in target.part.info, once its header is read.
+	 * An answer without validator cannot be resumed, the previous one is deleted
+	 * @param request the request answered
+	 * @param header the header of the answer
+	 * @throws IOException when target.part.info cannot be written
+	 */
+	private void recordPart(Request request, HTTPHeader header) throws IOException {
+		var code = header.getResponce_code();
+		if (!code.equals("200 OK") && !code.equals("206 PartialContent")) {
 			return;
-		case REFILL :
+		}
+		if (header.getETag() == null) {
+			Files.deleteIfExists(infoPath(request.target));
 			return;
-		case DONE :
-			HTTPanswer = stringReader.get();
-			stringReader.reset();
-			
-			try {				
-				fileLines = Files.readAllLines(Path.of(HTTPanswer), ASCII);
-				var content_type = HTTPanswer.endsWith(".txt") ? "text" : "unknown";
-				var length = fileLines.stream().collect(Collectors.summingInt(s -> s.length())) + fileLines.size();
-				currentLine = ASCII.encode(
-						"HTTP/1.0 200 OK\r\n"
-								+ "Content-Type: " + content_type + "\r\n"
-								+ "Content-Length: " + length + "\r\n");
-			} catch (NoSuchFileException nsfe) {
-				currentLine = ASCII.encode(
-						"HTTP/1.0 404 NotFound\r\n"
-								+ "Content-Type: unknown\r\n"
-								+ "Content-Length: 0\r\n");
-			}
-			state = Status.AN;
 		}
+		Files.write(infoPath(request.target), List.of(request.path, header.getETag()), UTF_8);
 	}
-	
-	private void processInAnswer() throws IOException {
-		var ps = httpreader.process(bbin);
-		switch (ps) {
-		case ERROR : 
-			logger.log(Level.SEVERE, "HTTP Reader get ERROR status");
-			silentlyClose();
-			break;
-		case REFILL :
-			break;
-		case DONE :
-			var header = httpreader.get().getHeader();
-			if (header.getResponce_code().equals("200 OK")) {
-				var name = targetQueue.poll();
-				System.out.println("Received HTTP answer for : " + name);
-				if (header.getContent_type().equals("text")) {
-					System.out.println(httpreader.get().getContent());					
-				}
-				try (var bw = Files.newBufferedWriter(Path.of(name), ASCII, StandardOpenOption.WRITE,
-						StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
-					bw.write(httpreader.get().getContent());
+
+	/**
+	 * @brief get the validator of the partial download of a target. The partial download is dropped if it cannot be
+	 * resumed : it has no validator or it was started for another path
+	 * @param path the path asked
+	 * @param target the target
+	 * @return the validator, null if there is no partial download to resume
+	 */
+	private String partValidator(String path, String target) {
+		var part = partPath(target);
+		var info = infoPath(target);
+		try {
+			if (Files.exists(part)) {
+				if (Files.exists(info)) {
+					var lines = Files.readAllLines(info, UTF_8);
+					if (lines.size() == 2 && lines.get(0).equals(path)) {
+						return lines.get(1);
+					}
 				}
-			} else {
-				System.out.println("The requested file cannot be found, get ERROR 404 NotFound");
+				logger.info(part + " was not started for " + path + ", it is dropped");
 			}
-			httpreader.reset();
-			state = Status.WQ;
-			break;
+			Files.deleteIfExists(part);
+			Files.deleteIfExists(info);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "The partial download of " + target + " cannot be checked", e);
 		}
+		return null;
 	}
 
 	/**
-	 * @brief process the  content of bbout
+	 * @brief get the size of the partial download of a target, the start of the range to ask
+	 * @param target the target
+	 * @return the size of target.part, 0 if there is none
 	 */
-	private void processOut() {
-		switch (state) {
-		case WQ :
-			state = Status.SQ;
-		case SQ : // HTTP GET request (1)
-			processOutRequest();
-			break;
-		case RQ :
-			state = Status.AN;
-		case AN : // HTTP result (3)
-			processOutAnswer();
-			break;
-		case WA : //do nothing
-			break;
+	private static long partialSize(String target) {
+		try {
+			return Files.size(partPath(target));
+		} catch (IOException e) {
+			return 0;
 		}
 	}
-	
-	private void processOutRequest() {
-		if (commandQueue.size() != 0) {
-			var command = commandQueue.peek();
-			var bb = ASCII.encode(command);
-			if (bbout.limit() >= bb.limit() + Short.BYTES) {
-				bbout.putShort((short) bb.limit());
-				bbout.put(bb);
-				commandQueue.poll();
-				state = Status.WA;
+
+	/**
+	 * @brief print the progress of the file being received, every 10% (every PROGRESS_STEP bytes if its size is unknown)
+	 * @param received the number of bytes received
+	 * @param total the size of the file, -1 if it is unknown
+	 */
+	private void progress(long received, long total) {
+		if (total < 0) {
+			var step = received / PROGRESS_STEP;
+			if (step > lastProgress) {
+				System.out.println("Receiving " + sentQueue.peek().target + " : " + received / (1_024 * 1_024) + " MiB");
 			}
+			lastProgress = step;
+			return;
+		}
+		var percent = received * 100 / total;
+		if (percent / 10 > lastProgress / 10 && received < total) {
+			System.out.println("Receiving " + sentQueue.peek().target + " : " + percent + "%");
 		}
+		lastProgress = percent;
 	}
-	
-	private void processOutAnswer() {
-		while (currentLine.hasRemaining() && bbout.hasRemaining()) {
-			if (currentLine.remaining() <= bbout.remaining()) {
-				bbout.put(currentLine);
+
+	/**
+	 * @brief fill bbout : between two messages the next requests are sent while the pipeline is not full,
+	 * then the answer to the oldest request of the other side is started
+	 * @throws IOException when the requested file cannot be opened
+	 */
+	private void processOut() throws IOException {
+		if (outState == OutStatus.IDLE) {
+			processOutRequests();
+			var request = requestQueue.poll();
+			if (request == null) {
+				return;
+			}
+			prepareAnswer(request);
+			outState = OutStatus.ANSWERING;
+		}
+		processOutAnswer();
+	}
+
+	/**
+	 * @brief add the requests waiting to bbout, up to PIPELINE_DEPTH requests are waiting for their answer.
+	 * The missing bytes only are asked if a partial download of the target exists, the body may be deflated.
+	 * The fields are dropped if the request would be too long with them
+	 */
+	private void processOutRequests() {
+		while (sentQueue.size() < PIPELINE_DEPTH && !commandQueue.isEmpty()) {
+			var path = commandQueue.peek();
+			var target = targetQueue.peek();
+			var validator = partValidator(path, target);
+			var offset = validator == null ? 0 : partialSize(target);
+			var request = new StringBuilder(path);
+			if (offset > 0) {
+				request.append(FIELD_SEPARATOR).append(RANGE_UNIT).append(offset).append('-');
+				request.append(FIELD_SEPARATOR).append(IF_RANGE).append(validator);
+			}
+			request.append(FIELD_SEPARATOR).append(ACCEPT_ENCODING).append(HTTPHeader.DEFLATE);
+			var bb = UTF_8.encode(request.toString()); // decoded by the StringReader of the other side
+			if (bb.remaining() > MAX_REQUEST_SIZE) {
+				offset = 0;
+				bb = UTF_8.encode(path);
+			}
+			if (bbout.remaining() < bb.remaining() + Short.BYTES) {
+				return;
+			}
+			bbout.putShort((short) bb.remaining());
+			bbout.put(bb);
+			commandQueue.poll();
+			targetQueue.poll();
+			sentQueue.add(new Request(path, target, offset));
+		}
+	}
+
+	/**
+	 * @brief open the file asked by a request, from the file cache if possible, and encode the header of the answer.
+	 * A ranged request is answered with the bytes from the start of the range (206 PartialContent) if the file
+	 * still has the validator of the request, with the whole file (200 OK) otherwise,
+	 * or 416 RangeNotSatisfiable if the range starts after the end of the file.
+	 * A file reported empty is sent in chunks until the end of the file is read, its size is not known before.
+	 * The body is deflated if the request accepts it, unless the file is small or already compressed
+	 * @param request the path of the file, followed by its fields if any
+	 * @throws IOException when the file exists but cannot be opened
+	 */
+	private void prepareAnswer(String request) throws IOException {
+		var fields = request.split(String.valueOf(FIELD_SEPARATOR));
+		HTTPanswer = fields[0];
+		var ranged = false;
+		var start = 0L;
+		var encoding = HTTPHeader.IDENTITY;
+		String ifRange = null;
+		for (var i = 1; i < fields.length; i++) {
+			if (fields[i].startsWith(RANGE_UNIT)) {
+				ranged = true;
+				start = rangeStart(fields[i]);
+			} else if (fields[i].startsWith(ACCEPT_ENCODING)) {
+				encoding = HTTPHeader.negotiateEncoding(fields[i].substring(ACCEPT_ENCODING.length()));
+			} else if (fields[i].startsWith(IF_RANGE)) {
+				ifRange = fields[i].substring(IF_RANGE.length());
+			}
+		}
+		try {
+			var path = Path.of(HTTPanswer);
+			var cache = client.getFileCache();
+			var cached = cache.get(path);
+			String content_type;
+			FileTime lastModified;
+			if (cached == null) {
+				file = FileChannel.open(path, StandardOpenOption.READ);
+				filePosition = 0;
+				fileSize = file.size();
+				lastModified = Files.getLastModifiedTime(path);
+				content_type = FileCache.contentType(path);
+				cached = cache.put(path, file, content_type);
 			} else {
-				var tmp = currentLine.limit();
-				currentLine.limit(bbout.remaining());
-				bbout.put(currentLine);
-				currentLine.limit(tmp);					
+				content_type = cached.contentType();
+				lastModified = cached.lastModified();
 			}
-			if (!currentLine.hasRemaining() && fileLines.isEmpty()) {
-				state = Status.WQ;
+			if (cached != null) {
+				closeFile();
+				mappedBody = cached.body();
+				fileSize = cached.size();
+			}
+			var etag = fileSize == 0 ? null : Long.toHexString(fileSize) + "-" + Long.toHexString(lastModified.toMillis());
+			if (ranged && (etag == null || !etag.equals(ifRange))) { // the file changed, it is sent again
+				ranged = false;
+				start = 0;
+			}
+			var unknownSize = file != null && fileSize == 0 && !ranged;
+			if (!unknownSize && (fileSize - start < COMPRESSION_THRESHOLD || !compressible(content_type))) {
+				encoding = HTTPHeader.IDENTITY;
+			}
+			if (unknownSize) {
+				startChunks(encoding);
+				currentLine = header("200 OK", content_type, encoding, -1, null);
+				return;
+			}
+			if (start < 0 || start > fileSize) {
+				closeFile();
+				mappedBody = null;
+				currentLine = header("416 RangeNotSatisfiable", "unknown", 0);
+				return;
+			}
+			if (mappedBody != null) {
+				mappedBody.position((int) start);
 			} else {
-				var line = fileLines.remove(0);
-				currentLine = ASCII.encode(line + "\n");
+				filePosition = start;
+			}
+			var code = ranged ? "206 PartialContent" : "200 OK";
+			if (encoding.equals(HTTPHeader.DEFLATE)) {
+				startChunks(encoding);
+				currentLine = header(code, content_type, encoding, -1, etag);
+				return;
 			}
+			currentLine = header(code, content_type, HTTPHeader.IDENTITY, fileSize - start, etag);
+		} catch (NoSuchFileException | InvalidPathException e) {
+			currentLine = header("404 NotFound", "unknown", 0);
 		}
 	}
-	
+
+	/**
+	 * @brief parse the range of a request, only the ranges from a byte to the end of the file (bytes=start-) are supported
+	 * @param range the range
+	 * @return the start of the range, -1 if the range is not supported
+	 */
+	private static long rangeStart(String range) {
+		if (!range.startsWith(RANGE_UNIT) || !range.endsWith("-")) {
+			return -1;
+		}
+		try {
+			return Long.parseLong(range.substring(RANGE_UNIT.length(), range.length() - 1));
+		} catch (NumberFormatException nfe) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @brief tell whether a file of the given type is worth deflating, the types which are already compressed are not
+	 * @param contentType the content type of the file
+	 * @return true if the file may be deflated
+	 */
+	private static boolean compressible(String contentType) {
+		return !contentType.startsWith("image/") && !contentType.startsWith("audio/") && !contentType.startsWith("video/")
+				&& !contentType.contains("zip") && !contentType.contains("compressed");
+	}
+
+	/**
+	 * @brief encode the header of an answer whose body is not encoded
+	 * @param code the response code
+	 * @param contentType the content type of the body
+	 * @param length the length of the body, -1 if the body is sent in chunks
+	 * @return the encoded header (read-mode)
+	 */
+	private ByteBuffer header(String code, String contentType, long length) {
+		return header(code, contentType, HTTPHeader.IDENTITY, length, null);
+	}
+
+	/**
+	 * @brief encode the header of an answer
+	 * @param code the response code
+	 * @param contentType the content type of the body
+	 * @param contentEncoding the coding of the body
+	 * @param length the length of the body, -1 if the body is sent in chunks
+	 * @param etag the validator of the file, null if the answer cannot be resumed
+	 * @return the encoded header (read-mode)
+	 */
+	private ByteBuffer header(String code, String contentType, String contentEncoding, long length, String etag) {
+		return ASCII.encode(
+				"HTTP/1.0 " + code + "\r\n"
+						+ "Content-Type: " + contentType + "\r\n"
+						+ (etag == null ? "" : "ETag: " + etag + "\r\n")
+						+ (contentEncoding.equals(HTTPHeader.IDENTITY) ? "" : "Content-Encoding: " + contentEncoding + "\r\n")
+						+ (length < 0 ? "Transfer-Encoding: chunked" : "Content-Length: " + length) + "\r\n");
+	}
+
+	/**
+	 * @brief send the body of the answer in chunks, read from the file or deflated from the file or its mapping
+	 * (which starts at the first byte to send)
+	 * @param encoding the coding of the body
+	 * @throws IOException when the position of the file cannot be set
+	 */
+	private void startChunks(String encoding) throws IOException {
+		chunkedBody = true;
+		lastChunk = false;
+		if (chunk == null) {
+			chunk = ByteBuffer.allocate(CHUNK_PREFIX + CHUNK_SIZE + 2);
+		}
+		chunk.limit(0);
+		deflating = encoding.equals(HTTPHeader.DEFLATE);
+		if (!deflating) {
+			return;
+		}
+		if (deflater == null) {
+			deflater = new Deflater();
+			deflaterInput = ByteBuffer.allocate(CHUNK_SIZE);
+		}
+		if (mappedBody == null) {
+			file.position(filePosition);
+		}
+	}
+
+	/**
+	 * @brief copy the header of the answer into bbout, the body is sent by transferBody once the header is written
+	 */
+	private void processOutAnswer() {
+		if (currentLine.remaining() <= bbout.remaining()) {
+			bbout.put(currentLine);
+		} else {
+			var tmp = currentLine.limit();
+			currentLine.limit(currentLine.position() + bbout.remaining());
+			bbout.put(currentLine);
+			currentLine.limit(tmp);
+		}
+	}
+
+	/**
+	 * @brief send the body of the answer straight from the mapping of the file cache or from the file
+	 * (FileChannel.transferTo, no copy on the heap), or in chunks, as much as the socket accepts.
+	 * The answer is done once the whole file is sent
+	 * @throws IOException when write or transferTo throws it
+	 */
+	private void transferBody() throws IOException {
+		if (chunkedBody) {
+			if (!transferChunks()) {
+				return;
+			}
+			chunkedBody = false;
+		} else if (mappedBody != null) {
+			try {
+				sc.write(mappedBody);
+			} catch (InternalError e) {
+				unmapBody(e);
+				return; // the rest is sent from the file
+			}
+			if (mappedBody.hasRemaining()) {
+				return;
+			}
+			mappedBody = null;
+		} else if (file != null) {
+			var transferred = file.transferTo(filePosition, fileSize - filePosition, sc);
+			filePosition += transferred;
+			if (filePosition < fileSize) {
+				if (transferred == 0 && filePosition >= file.size()) {
+					logger.log(Level.SEVERE, HTTPanswer + " was truncated while being sent");
+					silentlyClose();
+				}
+				return;
+			}
+			closeFile();
+		}
+		outState = OutStatus.IDLE;
+	}
+
+	/**
+	 * @brief write the chunks of the body as much as the socket accepts, the file is closed once the last chunk
+	 * (size 0) is ready
+	 * @return true once the last chunk is written
+	 * @throws IOException when the file cannot be read or the socket written
+	 */
+	private boolean transferChunks() throws IOException {
+		for (;;) {
+			sc.write(chunk);
+			if (chunk.hasRemaining()) {
+				return false;
+			}
+			if (lastChunk) {
+				return true;
+			}
+			nextChunk();
+		}
+	}
+
+	/**
+	 * @brief read (or deflate) the next chunk of the body : its size line is written just before the data and CRLF just after it
+	 * @throws IOException when the file cannot be read
+	 */
+	private void nextChunk() throws IOException {
+		chunk.clear();
+		chunk.position(CHUNK_PREFIX).limit(CHUNK_PREFIX + CHUNK_SIZE);
+		var read = deflating ? deflate() : readBody(chunk);
+		if (read == -1) {
+			closeFile();
+			mappedBody = null;
+			if (deflating) {
+				deflated();
+			}
+			lastChunk = true;
+			chunk.clear();
+			chunk.put(ASCII.encode("0\r\n\r\n")).flip();
+			return;
+		}
+		chunk.limit(chunk.capacity());
+		chunk.put((byte) '\r').put((byte) '\n').flip();
+		var size = ASCII.encode(Integer.toHexString(read) + "\r\n");
+		var start = CHUNK_PREFIX - size.remaining();
+		chunk.position(start);
+		chunk.put(size);
+		chunk.position(start);
+	}
+
+	/**
+	 * @brief read the next bytes of the body from the mapping of the file cache or from the file
+	 * @param dst the buffer to fill
+	 * @return the number of bytes read, -1 at the end of the body
+	 * @throws IOException when the file cannot be read
+	 */
+	private int readBody(ByteBuffer dst) throws IOException {
+		if (mappedBody == null) {
+			return file == null ? -1 : file.read(dst);
+		}
+		if (!mappedBody.hasRemaining()) {
+			return -1;
+		}
+		var count = Math.min(dst.remaining(), mappedBody.remaining());
+		try {
+			dst.put(mappedBody.slice().limit(count));
+		} catch (InternalError e) {
+			unmapBody(e);
+			return file.read(dst);
+		}
+		mappedBody.position(mappedBody.position() + count);
+		return count;
+	}
+
+	/**
+	 * @brief the mapping of the body cannot be read anymore (the file was truncated after it was mapped, which raises
+	 * SIGBUS reported as an InternalError) : the file is dropped from the cache and the rest of the body is read from
+	 * the file, whose truncation is then detected
+	 * @param e the error raised while reading the mapping
+	 * @throws IOException when the file cannot be opened anymore
+	 */
+	private void unmapBody(InternalError e) throws IOException {
+		logger.log(Level.WARNING, HTTPanswer + " changed while being sent from the file cache", e);
+		var path = Path.of(HTTPanswer);
+		client.getFileCache().remove(path);
+		filePosition = mappedBody.position();
+		mappedBody = null;
+		file = FileChannel.open(path, StandardOpenOption.READ);
+		file.position(filePosition);
+	}
+
+	/**
+	 * @brief fill the chunk with the deflated bytes of the body, the file is read as the deflater needs it
+	 * @return the number of bytes written to the chunk, -1 once the whole deflate stream is written
+	 * @throws IOException when the file cannot be read
+	 */
+	private int deflate() throws IOException {
+		while (chunk.hasRemaining() && !deflater.finished()) {
+			if (deflater.needsInput()) {
+				deflaterInput.clear(); // the deflater keeps the buffer, it is given again even if empty
+				if (readBody(deflaterInput) == -1) {
+					closeFile();
+					deflater.finish();
+				}
+				deflater.setInput(deflaterInput.flip());
+			}
+			deflater.deflate(chunk);
+		}
+		var written = chunk.position() - CHUNK_PREFIX;
+		return written == 0 && deflater.finished() ? -1 : written;
+	}
+
+	/**
+	 * @brief count the deflated answer in the statistics of the client, the deflater is reset for the next one
+	 */
+	private void deflated() {
+		var fileBytes = deflater.getBytesRead();
+		var sentBytes = deflater.getBytesWritten();
+		var stats = client.getCompressionStats();
+		stats.record(fileBytes, sentBytes);
+		logger.info(String.format("%s : %d bytes deflated to %d bytes (%.1f%%), %s",
+				HTTPanswer, fileBytes, sentBytes, CompressionStats.ratio(fileBytes, sentBytes), stats));
+		deflater.reset();
+		deflating = false;
+	}
+
+	/**
+	 * @brief close the file being sent, if any
+	 */
+	private void closeFile() {
+		if (file == null) {
+			return;
+		}
+		try {
+			file.close();
+		} catch (IOException e) {
+			// ignore exception
+		}
+		file = null;
+	}
+
 	/**
 	 * @brief silently close the socket channel
 	 */
 	private void silentlyClose() {
+		closeFile();
+		mappedBody = null;
+		chunkedBody = false;
+		deflating = false;
+		if (deflater != null) {
+			deflater.end();
+			deflater = null;
+		}
+		httpreader.reset(); // the bytes already received are kept in target.part
 		client.removeContextFromContextMap(recipient);
         try {
             sc.close();
@@ -252,26 +819,33 @@ class TCPHTTPContext implements TCPContext{
             // ignore exception
         }
     }
-	
+
 	@Override
 	public void doRead() throws IOException {
 		if (sc.read(bbin) == -1) {
     		closed = true;
     	}
 		processIn();
-		updateInterestOps();
+		if (sc.isOpen()) {
+			updateInterestOps();
+		}
 	}
 
 	@Override
 	public void doWrite() throws IOException {
 		processOut();
 		bbout.flip();
-		if (sc.write(bbout) == -1) {
-			closed = true;
-			return;
-		}
+		sc.write(bbout);
 		bbout.compact();
-		updateInterestOps();
+		if (outState == OutStatus.ANSWERING && !currentLine.hasRemaining() && bbout.position() == 0) {
+			transferBody();
+			if (outState == OutStatus.IDLE && sc.isOpen()) {
+				processIn(); // requests may be left in bbin once MAX_PENDING_REQUESTS was reached
+			}
+		}
+		if (sc.isOpen()) {
+			updateInterestOps();
+		}
 	}
 
 	@Override
@@ -283,9 +857,15 @@ class TCPHTTPContext implements TCPContext{
 	public void queueCommand(String command, String target) {
 		Objects.requireNonNull(command);
 		Objects.requireNonNull(target);
+		if (command.isEmpty() || UTF_8.encode(command).remaining() > MAX_REQUEST_SIZE) {
+			System.out.println("The file path must have between 1 and " + MAX_REQUEST_SIZE + " bytes");
+			return;
+		}
 		commandQueue.add(command);
 		targetQueue.add(target);
-		updateInterestOps();
+		if (sc.isOpen()) {
+			updateInterestOps();
+		}
 	}
 
 	@Override
@@ -293,4 +873,4 @@ class TCPHTTPContext implements TCPContext{
 		closed = true;
 		silentlyClose();
 	}
-}
\ No newline at end of file
+}
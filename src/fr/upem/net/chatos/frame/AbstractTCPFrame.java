@@ -1,27 +1,33 @@
 package fr.upem.net.chatos.frame;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.util.Objects;
-import java.util.Optional;
-import java.util.logging.Logger;
 
 abstract class AbstractTCPFrame implements TCPFrame{
+	private final byte   opCode;
 	private final String sender;
 	private final String recipient;
 	private final short  password;
+	private final int    senderLength;
+	private final int    recipientLength;
 	
 	/**
 	 * AbstractTCPFrame Constructor : super class for frames requests
+	 * @param opCode the request operation code
 	 * @param sender pseudo of the sender TCP request
 	 * @param recipient pseudo of the recipient TCP request
 	 * @param password password of this TCP connexion
 	 */
-	AbstractTCPFrame(String sender, String recipient, short password) {
+	AbstractTCPFrame(byte opCode, String sender, String recipient, short password) {
 		Objects.requireNonNull(sender);
 		Objects.requireNonNull(recipient);
+		this.opCode = opCode;
 		this.sender = sender;
 		this.recipient = recipient;
 		this.password = password;
+		this.senderLength = StringEncoder.encodedLength(sender);
+		this.recipientLength = StringEncoder.encodedLength(recipient);
 	}
 	
 	/**
@@ -48,32 +54,26 @@ abstract class AbstractTCPFrame implements TCPFrame{
 		return sender;
 	}
 	
-	/**
-	 * @brief transform a TCP request into a bytebuffer
-	 * @param logger for debuging
-	 * @param opCode the request operation code 
-	 * @return the potential bytebuffer of the request
-	 */
-	Optional<ByteBuffer> toByteBuffer(Logger logger, byte opCode) {
-		var bbSend = UTF8_CHARSET.encode(sender);
-		
-		if (bbSend.limit() > MAX_STRING_SIZE) {
-			logger.info("Login exceed the limit (1024), ignoring command");
-			return Optional.empty();
+	@Override
+	public int encodedSize() {
+		if (senderLength > MAX_STRING_SIZE || recipientLength > MAX_STRING_SIZE) {
+			return -1;
+		}
+		return 1 + 2*Short.BYTES + senderLength + recipientLength + Short.BYTES;
+	}
+	
+	@Override
+	public void encodeInto(ByteBuffer dst) {
+		var size = encodedSize();
+		if (size < 0) {
+			throw new IllegalStateException("A string exceeds the limit (1024)");
 		}
-		var bbRecipient = UTF8_CHARSET.encode(recipient);
-		if (bbRecipient.limit() > MAX_STRING_SIZE) {
-			logger.info("Recipient exceed the limit (1024), ignoring command");
-			return Optional.empty();
+		if (dst.remaining() < size) {
+			throw new BufferOverflowException();
 		}
-		
-		return Optional.of(ByteBuffer.allocate(1+2*Short.BYTES + bbSend.limit() + bbRecipient.limit() + Short.BYTES)
-				.put(opCode)
-				.putShort((short)bbSend.limit())
-				.put(bbSend)
-				.putShort((short)bbRecipient.limit())
-				.put(bbRecipient)
-				.putShort(password)
-				.flip());
+		dst.put(opCode);
+		StringEncoder.putString(dst, sender, senderLength);
+		StringEncoder.putString(dst, recipient, recipientLength);
+		dst.putShort(password);
 	}
 }
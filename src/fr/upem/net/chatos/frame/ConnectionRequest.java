@@ -1,14 +1,14 @@
 package fr.upem.net.chatos.frame;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.util.Objects;
-import java.util.Optional;
-import java.util.logging.Logger;
 
 import fr.upem.net.chatos.reader.OpCodeReader;
 
 public class ConnectionRequest implements Frame {
 	private final String pseudo;
+	private final int    pseudoLength;
 	
 	/**
 	 * ConnectionRequest contructor : TCP private connexion (TCPAsk)
@@ -17,20 +17,28 @@ public class ConnectionRequest implements Frame {
 	public ConnectionRequest(String pseudo) {
 		Objects.requireNonNull(pseudo);
 		this.pseudo = pseudo;
+		this.pseudoLength = StringEncoder.encodedLength(pseudo);
 	}
 	
 	@Override
-	public Optional<ByteBuffer> toByteBuffer(Logger logger) {
-		var bblog = UTF8_CHARSET.encode(pseudo);
-		if (bblog.limit() > 1024) {
-			logger.info("Pseudo is too long");
-			return Optional.empty();
+	public int encodedSize() {
+		if (pseudoLength > MAX_STRING_SIZE) {
+			return -1;
 		}
-		return Optional.of(ByteBuffer.allocate(1 + Short.BYTES + bblog.limit())
-				.put(OpCodeReader.CR_CODE)
-				.putShort((short)bblog.limit())
-				.put(bblog)
-				.flip());
+		return 1 + Short.BYTES + pseudoLength;
+	}
+	
+	@Override
+	public void encodeInto(ByteBuffer dst) {
+		var size = encodedSize();
+		if (size < 0) {
+			throw new IllegalStateException("Pseudo is too long");
+		}
+		if (dst.remaining() < size) {
+			throw new BufferOverflowException();
+		}
+		dst.put(OpCodeReader.CR_CODE);
+		StringEncoder.putString(dst, pseudo, pseudoLength);
 	}
 
 }
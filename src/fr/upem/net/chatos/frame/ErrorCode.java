@@ -15,7 +15,18 @@ public class ErrorCode implements Frame {
 	static public final byte TCP_NOT_IN_PROTOCOLE = 6;
 	static public final byte NOT_CONNECTED		  = 7;
 	static public final byte ALREADY_CONNECTED    = 8;
-	private       final byte errorCode;
+	static public final byte KEEPALIVE            = 9; // ping of the server, echoed by the client
+	
+	// the known codes are encoded once and shared
+	static private final ErrorCode[] KNOWN_CODES = new ErrorCode[KEEPALIVE + 1];
+	static {
+		for (byte code = OK; code <= KEEPALIVE; code++) {
+			KNOWN_CODES[code] = new ErrorCode(code);
+		}
+	}
+	
+	private       final byte       errorCode;
+	private       final ByteBuffer encoded; // read-mode, never modified
 	
 	/**
 	 * ErrorCode constructor : ErrorCode packet
@@ -23,14 +34,40 @@ public class ErrorCode implements Frame {
 	 */
 	public ErrorCode(byte errorCode) {
 		this.errorCode = errorCode;
+		this.encoded = ByteBuffer.allocate(2)
+				.put(OpCodeReader.ERROR_PACKET_CODE)
+				.put(errorCode)
+				.flip();
 	}
 	
+	/**
+	 * @brief get the shared pre-encoded ErrorCode of a known code
+	 * @param errorCode the code
+	 * @return the shared instance, a new one if the code is unknown
+	 */
+	public static ErrorCode of(byte errorCode) {
+		if (errorCode >= OK && errorCode <= KEEPALIVE) {
+			return KNOWN_CODES[errorCode];
+		}
+		return new ErrorCode(errorCode);
+	}
+	
+	/**
+	 * Return a read-only view of the encoded frame, the bytes are not copied
+	 */
 	@Override
 	public Optional<ByteBuffer> toByteBuffer(Logger logger) {
-		return Optional.of(ByteBuffer.allocate(2)
-				.put(OpCodeReader.ERROR_PACKET_CODE)
-				.put(errorCode)
-				.flip());
+		return Optional.of(encoded.asReadOnlyBuffer());
+	}
+	
+	@Override
+	public int encodedSize() {
+		return encoded.remaining();
+	}
+	
+	@Override
+	public void encodeInto(ByteBuffer dst) {
+		dst.put(encoded.duplicate());
 	}
 	
 	/**
@@ -50,7 +87,10 @@ public class ErrorCode implements Frame {
 			case UNREACHABLE_USER 	-> "UNREACHABLE_USER";
 			case TCP_IN_PROTOCOLE 	-> "TCP_IN_PROTOCOLE";
 			case TCP_NOT_IN_PROTOCOLE -> "TCP_NOT_IN_PROTOCOLE";
-			default -> "UNKOWN";
+			case NOT_CONNECTED 		-> "NOT_CONNECTED";
+			case ALREADY_CONNECTED 	-> "ALREADY_CONNECTED";
+			case KEEPALIVE 			-> "KEEPALIVE";
+			default -> "UNKNOWN";
 			};
 	}
 }
@@ -9,5 +9,36 @@ public interface Frame {
 	final int     MAX_STRING_SIZE = 1_024;
 	final Charset UTF8_CHARSET    = Charset.forName("UTF-8");
 	
-	Optional<ByteBuffer> toByteBuffer(Logger logger);
+	/**
+	 * 
+	 * @brief encode the frame in a new buffer of the exact size
+	 * @param logger to log why the frame cannot be encoded
+	 * @return the encoded frame (read-mode) or an empty optional if a string exceeds the limit
+	 */
+	default Optional<ByteBuffer> toByteBuffer(Logger logger) {
+		var size = encodedSize();
+		if (size < 0) {
+			logger.info("A string exceeds the limit (1024), ignoring command");
+			return Optional.empty();
+		}
+		var bb = ByteBuffer.allocate(size);
+		encodeInto(bb);
+		return Optional.of(bb.flip());
+	}
+	
+	/**
+	 * 
+	 * @brief compute the number of bytes written by encodeInto, without encoding the frame
+	 * @return the size of the encoded frame or -1 if a string exceeds the limit (1024) once encoded
+	 */
+	int encodedSize();
+	
+	/**
+	 * 
+	 * @brief encode the frame at the position of dst, without allocating anything
+	 * @param dst the buffer to write to (write-mode), nothing is written if it has less than encodedSize() bytes remaining
+	 * @throws java.nio.BufferOverflowException if dst is too small
+	 * @throws IllegalStateException if a string exceeds the limit (1024)
+	 */
+	void encodeInto(ByteBuffer dst);
 }
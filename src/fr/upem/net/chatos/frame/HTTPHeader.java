@@ -1,37 +1,162 @@
 package fr.upem.net.chatos.frame;
 
+import java.util.regex.Pattern;
+
 public class HTTPHeader {
+	// content codings (Content-Encoding / Accept-Encoding), the body is not encoded by default
+	public static final String IDENTITY = "identity";
+	public static final String DEFLATE  = "deflate";
+
+	// type/subtype (RFC 6838), "text" and "unknown" are kept for the older clients
+	private static final Pattern MEDIA_TYPE = Pattern.compile("[A-Za-z0-9!#$&^_.+-]+/[A-Za-z0-9!#$&^_.+-]+");
+	// visible ASCII characters but the double quote (etagc, RFC 7232)
+	private static final Pattern ETAG = Pattern.compile("[\\x21\\x23-\\x7E]+");
+
 	private final String version;
 	private final String responce_code;
 	private final String content_type;
-	private final int    content_length;
+	private final String content_encoding;
+	private final String etag;           // validator of the file (size and modification time), null if there is none
+	private final long   content_length; // -1 if the body is chunked
+	private final boolean chunked;
+
+	public HTTPHeader(String version, String responce_code, String content_type, long content_length) {
+		this(version, responce_code, content_type, IDENTITY, content_length, false);
+	}
+
+	/**
+	 * HTTPHeader constructor of an answer whose body is sent in chunks (Transfer-Encoding: chunked), its length is not known
+	 * @param version the HTTP version
+	 * @param responce_code the response code
+	 * @param content_type the type of the body
+	 */
+	public HTTPHeader(String version, String responce_code, String content_type) {
+		this(version, responce_code, content_type, IDENTITY, -1, true);
+	}
 
-	public HTTPHeader(String version, String responce_code, String content_type, int content_length) {
+	/**
+	 * HTTPHeader constructor of an answer whose body is encoded (Content-Encoding)
+	 * @param version the HTTP version
+	 * @param responce_code the response code
+	 * @param content_type the type of the body, once decoded
+	 * @param content_encoding the coding of the body, identity or deflate
+	 * @param content_length the length of the encoded body, -1 if it is sent in chunks
+	 * @param chunked true if the body is sent in chunks (Transfer-Encoding: chunked)
+	 */
+	public HTTPHeader(String version, String responce_code, String content_type, String content_encoding, long content_length, boolean chunked) {
+		this(version, responce_code, content_type, content_encoding, content_length, chunked, null);
+	}
+
+	/**
+	 * HTTPHeader constructor of an answer sent with the validator of the file (ETag), a partial download of
+	 * the file may be resumed only if the file still has the same validator (If-Range)
+	 * @param version the HTTP version
+	 * @param responce_code the response code
+	 * @param content_type the type of the body, once decoded
+	 * @param content_encoding the coding of the body, identity or deflate
+	 * @param content_length the length of the encoded body, -1 if it is sent in chunks
+	 * @param chunked true if the body is sent in chunks (Transfer-Encoding: chunked)
+	 * @param etag the validator of the file, null if there is none
+	 */
+	public HTTPHeader(String version, String responce_code, String content_type, String content_encoding, long content_length, boolean chunked, String etag) {
 		if (!version.equals("HTTP/1.0")) {
 			throw new IllegalArgumentException("HTTP version is not supported, " + version + " != HTTP/1.0");
 		}
-		if (!responce_code.equals("200 OK") && !responce_code.equals("404 NotFound")) {
+		if (!responce_code.equals("200 OK") && !responce_code.equals("206 PartialContent")
+				&& !responce_code.equals("404 NotFound") && !responce_code.equals("416 RangeNotSatisfiable")) {
 			throw new IllegalArgumentException("Error not supported");
 		}
-		if (!content_type.equals("text") && !content_type.equals("unknown")) {
+		if (!content_type.equals("text") && !content_type.equals("unknown") && !MEDIA_TYPE.matcher(content_type).matches()) {
 			throw new IllegalArgumentException("Content type not supported");
 		}
-		if (content_length < 0 || content_length > 1_024) {
-			throw new IllegalArgumentException("Content length need to be between 0 and 1024");
+		if (!isSupportedEncoding(content_encoding)) {
+			throw new IllegalArgumentException("Content encoding not supported");
+		}
+		if (content_length < 0 && !chunked) {
+			throw new IllegalArgumentException("Content length cannot be negative");
+		}
+		if (chunked && content_length != -1) {
+			throw new IllegalArgumentException("A chunked body has no content length");
+		}
+		if (etag != null && !isValidETag(etag)) {
+			throw new IllegalArgumentException("ETag not supported");
 		}
 		this.version = version;
 		this.responce_code = responce_code;
 		this.content_type = content_type;
+		this.content_encoding = content_encoding;
+		this.etag = etag;
 		this.content_length = content_length;
+		this.chunked = chunked;
 	}
 
-	public int getContentLength() {
+	/**
+	 * @return the length of the body, -1 if it is chunked
+	 */
+	public long getContentLength() {
 		return content_length;
 	}
+
+	public boolean isChunked() {
+		return chunked;
+	}
 	
 	public String getContent_type() {
 		return content_type;
 	}
+
+	/**
+	 * @return the coding of the body, identity if it is not encoded
+	 */
+	public String getContent_encoding() {
+		return content_encoding;
+	}
+
+	/**
+	 * @return the validator of the file, null if there is none
+	 */
+	public String getETag() {
+		return etag;
+	}
+
+	/**
+	 * @param contentEncoding the value of Content-Encoding
+	 * @return true if the body can be decoded, identity or deflate
+	 */
+	public static boolean isSupportedEncoding(String contentEncoding) {
+		return contentEncoding.equals(IDENTITY) || contentEncoding.equals(DEFLATE);
+	}
+
+	/**
+	 * @param etag the value of ETag
+	 * @return true if the validator can be kept and sent back in If-Range
+	 */
+	public static boolean isValidETag(String etag) {
+		return ETAG.matcher(etag).matches();
+	}
+
+	/**
+	 * @brief choose the coding of an answer from the Accept-Encoding value of the request
+	 * ("deflate", "gzip, deflate;q=0.5", ...), a coding with q=0 is refused
+	 * @param acceptEncoding the codings accepted by the requester
+	 * @return deflate if it is accepted, identity otherwise
+	 */
+	public static String negotiateEncoding(String acceptEncoding) {
+		for (var coding : acceptEncoding.split(",")) {
+			var parameters = coding.split(";");
+			if (!parameters[0].trim().equalsIgnoreCase(DEFLATE)) {
+				continue;
+			}
+			for (var i = 1; i < parameters.length; i++) {
+				var parameter = parameters[i].trim();
+				if (parameter.startsWith("q=") && parameter.substring(2).matches("0(\\.0*)?")) {
+					return IDENTITY;
+				}
+			}
+			return DEFLATE;
+		}
+		return IDENTITY;
+	}
 	
 	public String getResponce_code() {
 		return responce_code;
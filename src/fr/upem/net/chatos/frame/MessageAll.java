@@ -1,15 +1,16 @@
 package fr.upem.net.chatos.frame;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.util.Objects;
-import java.util.Optional;
-import java.util.logging.Logger;
 
 import fr.upem.net.chatos.reader.OpCodeReader;
 
 public class MessageAll implements Frame{
 	private final String sender;
 	private final String message;
+	private final int    senderLength;
+	private final int    messageLength;
 	
 	/**
 	 * MessageAll constructor : public message frame, MessageAll packet
@@ -21,23 +22,30 @@ public class MessageAll implements Frame{
 		Objects.requireNonNull(message);
 		this.sender = sender;
 		this.message = message;
+		this.senderLength = StringEncoder.encodedLength(sender);
+		this.messageLength = StringEncoder.encodedLength(message);
 	}
 	
 	@Override
-	public Optional<ByteBuffer> toByteBuffer(Logger logger) {
-		var bblog = UTF8_CHARSET.encode(sender);
-		var bbmsg = UTF8_CHARSET.encode(message);
-		if (bbmsg.limit() > MAX_STRING_SIZE) {
-			logger.info("Message exceed the limit (1024), ignoring command");
-			return Optional.empty();
+	public int encodedSize() {
+		if (senderLength > MAX_STRING_SIZE || messageLength > MAX_STRING_SIZE) {
+			return -1;
 		}
-		return Optional.of(ByteBuffer.allocate(1+2*Short.BYTES + bblog.limit() + bbmsg.limit())
-				.put(OpCodeReader.SMA_CODE)
-				.putShort((short)bblog.limit())
-				.put(bblog)
-				.putShort((short)bbmsg.limit())
-				.put(bbmsg)
-				.flip());
+		return 1 + 2*Short.BYTES + senderLength + messageLength;
+	}
+	
+	@Override
+	public void encodeInto(ByteBuffer dst) {
+		var size = encodedSize();
+		if (size < 0) {
+			throw new IllegalStateException("A string exceeds the limit (1024)");
+		}
+		if (dst.remaining() < size) {
+			throw new BufferOverflowException();
+		}
+		dst.put(OpCodeReader.SMA_CODE);
+		StringEncoder.putString(dst, sender, senderLength);
+		StringEncoder.putString(dst, message, messageLength);
 	}
 
 	/**
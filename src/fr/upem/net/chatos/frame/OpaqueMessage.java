@@ -0,0 +1,99 @@
+package fr.upem.net.chatos.frame;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+import fr.upem.net.chatos.reader.OpCodeReader;
+
+/**
+ * 
+ * PrivateMessage or MessageAll frame kept as it was received on the wire.
+ * Only the sender and the recipient are looked at, the frame is relayed without being re-encoded.
+ */
+public class OpaqueMessage implements Frame{
+	private final byte[] frame;
+	private final int    senderLength;
+	
+	/**
+	 * OpaqueMessage constructor
+	 * @param frame the whole frame with its OpCode (SPM_CODE or SMA_CODE), it must not be modified afterwards
+	 */
+	public OpaqueMessage(byte[] frame) {
+		Objects.requireNonNull(frame);
+		if (frame.length < 1 + Short.BYTES || (frame[0] != OpCodeReader.SPM_CODE && frame[0] != OpCodeReader.SMA_CODE)) {
+			throw new IllegalArgumentException("Not a PrivateMessage or MessageAll frame");
+		}
+		this.frame = frame;
+		this.senderLength = fieldLength(1);
+	}
+	
+	/**
+	 * @brief get the length of the string starting at the given offset
+	 * @param offset the offset of the size of the string
+	 * @return the length of the string
+	 */
+	private int fieldLength(int offset) {
+		return ((frame[offset] & 0xFF) << 8) | (frame[offset + 1] & 0xFF);
+	}
+
+	/**
+	 * Return a view of the received frame, the bytes are not copied
+	 */
+	@Override
+	public Optional<ByteBuffer> toByteBuffer(Logger logger) {
+		return Optional.of(ByteBuffer.wrap(frame));
+	}
+	
+	@Override
+	public int encodedSize() {
+		return frame.length;
+	}
+	
+	@Override
+	public void encodeInto(ByteBuffer dst) {
+		dst.put(frame);
+	}
+	
+	/**
+	 * @brief get the OpCode of the frame
+	 * @return SPM_CODE or SMA_CODE
+	 */
+	public byte getOpCode() {
+		return frame[0];
+	}
+	
+	/**
+	 * @brief test if the frame is a private message
+	 * @return true if the frame has a recipient
+	 */
+	public boolean hasRecipient() {
+		return getOpCode() == OpCodeReader.SPM_CODE;
+	}
+	
+	/**
+	 * @brief compare the sender of the frame to an encoded pseudonym, without decoding it
+	 * @param pseudo the pseudonym encoded in UTF-8
+	 * @return true if the frame was sent by this pseudonym
+	 */
+	public boolean isSentBy(byte[] pseudo) {
+		Objects.requireNonNull(pseudo);
+		var start = 1 + Short.BYTES;
+		return Arrays.equals(frame, start, start + senderLength, pseudo, 0, pseudo.length);
+	}
+	
+	/**
+	 * @brief get the recipient pseudonym of a private message
+	 * @return the pseudonym
+	 */
+	public String getRecipient() {
+		if (!hasRecipient()) {
+			throw new IllegalStateException("A MessageAll has no recipient");
+		}
+		var offset = 1 + Short.BYTES + senderLength;
+		return new String(frame, offset + Short.BYTES, fieldLength(offset), StandardCharsets.UTF_8);
+	}
+}
@@ -1,9 +1,8 @@
 package fr.upem.net.chatos.frame;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.util.Objects;
-import java.util.Optional;
-import java.util.logging.Logger;
 
 import fr.upem.net.chatos.reader.OpCodeReader;
 
@@ -11,6 +10,9 @@ public class PrivateMessage implements Frame{
 	private final String sender;
 	private final String recipient;
 	private final String message;
+	private final int    senderLength;
+	private final int    recipientLength;
+	private final int    messageLength;
 	
 	/**
 	 * PrivateMessage constructor : private message frame, PrivateMessage packet
@@ -25,31 +27,32 @@ public class PrivateMessage implements Frame{
 		this.sender = sender;
 		this.recipient = recipient;
 		this.message = message;
+		this.senderLength = StringEncoder.encodedLength(sender);
+		this.recipientLength = StringEncoder.encodedLength(recipient);
+		this.messageLength = StringEncoder.encodedLength(message);
 	}
 
 	@Override
-	public Optional<ByteBuffer> toByteBuffer(Logger logger) {
-		var bblog = UTF8_CHARSET.encode(sender);
-		var bbrec = UTF8_CHARSET.encode(recipient);
-		var bbmsg = UTF8_CHARSET.encode(message);
-		
-		if (bbrec.limit() > MAX_STRING_SIZE) {
-			logger.info("Recipient exceed the limit (1024), ignoring command");
-			return Optional.empty();
+	public int encodedSize() {
+		if (senderLength > MAX_STRING_SIZE || recipientLength > MAX_STRING_SIZE || messageLength > MAX_STRING_SIZE) {
+			return -1;
 		}
-		if (bbmsg.limit() > MAX_STRING_SIZE) {
-			logger.info("Message exceed the limit (1024), ignoring command");
-			return Optional.empty();
+		return 1 + 3*Short.BYTES + senderLength + recipientLength + messageLength;
+	}
+
+	@Override
+	public void encodeInto(ByteBuffer dst) {
+		var size = encodedSize();
+		if (size < 0) {
+			throw new IllegalStateException("A string exceeds the limit (1024)");
+		}
+		if (dst.remaining() < size) {
+			throw new BufferOverflowException();
 		}
-		return Optional.of(ByteBuffer.allocate(1+3*Short.BYTES + bblog.limit() + bbrec.limit() + bbmsg.limit())
-				.put(OpCodeReader.SPM_CODE)
-				.putShort((short)bblog.limit())
-				.put(bblog)
-				.putShort((short)bbrec.limit())
-				.put(bbrec)
-				.putShort((short)bbmsg.limit())
-				.put(bbmsg)
-				.flip());
+		dst.put(OpCodeReader.SPM_CODE);
+		StringEncoder.putString(dst, sender, senderLength);
+		StringEncoder.putString(dst, recipient, recipientLength);
+		StringEncoder.putString(dst, message, messageLength);
 	}
 	
 	/**
@@ -0,0 +1,62 @@
+package fr.upem.net.chatos.frame;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * 
+ * Encoding of the strings of the frames : a size on a short followed by the UTF-8 bytes.
+ * The encoders are kept per thread so encoding a frame only writes in the destination buffer.
+ */
+final class StringEncoder {
+	private static final ThreadLocal<CharsetEncoder> ENCODER = ThreadLocal.withInitial(() -> Frame.UTF8_CHARSET.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE)
+			.onUnmappableCharacter(CodingErrorAction.REPLACE));
+	
+	private StringEncoder() {
+		throw new AssertionError();
+	}
+	
+	/**
+	 * @brief compute the number of bytes of a string encoded in UTF-8, without encoding it
+	 * (a lone surrogate is replaced by '?' as Charset.encode does)
+	 * @param s the string to measure
+	 * @return the number of bytes
+	 */
+	static int encodedLength(String s) {
+		var length = 0;
+		for (var i = 0; i < s.length(); i++) {
+			var c = s.charAt(i);
+			if (c < 0x80) {
+				length += 1;
+			} else if (c < 0x800) {
+				length += 2;
+			} else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+				length += 4;
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				length += 1;
+			} else {
+				length += 3;
+			}
+		}
+		return length;
+	}
+	
+	/**
+	 * @brief write the size then the bytes of a string at the position of dst
+	 * @param dst the buffer to write to (write-mode)
+	 * @param s the string to write
+	 * @param length the encoded length of s given by encodedLength
+	 */
+	static void putString(ByteBuffer dst, String s, int length) {
+		dst.putShort((short) length);
+		var encoder = ENCODER.get().reset();
+		if (!encoder.encode(CharBuffer.wrap(s), dst, true).isUnderflow() || !encoder.flush(dst).isUnderflow()) {
+			throw new BufferOverflowException();
+		}
+	}
+}
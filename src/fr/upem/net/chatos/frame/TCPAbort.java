@@ -1,9 +1,5 @@
 package fr.upem.net.chatos.frame;
 
-import java.nio.ByteBuffer;
-import java.util.Optional;
-import java.util.logging.Logger;
-
 import fr.upem.net.chatos.reader.OpCodeReader;
 
 public class TCPAbort extends AbstractTCPFrame{
@@ -15,12 +11,7 @@ public class TCPAbort extends AbstractTCPFrame{
 	 * @param password the TCP private connexion password
 	 */
 	public TCPAbort(String sender, String recipient, short password) {
-		super(sender, recipient, password);
-	}
-
-	@Override
-	public Optional<ByteBuffer> toByteBuffer(Logger logger) {
-		return super.toByteBuffer(logger, OpCodeReader.TCPABORT_CODE);
+		super(OpCodeReader.TCPABORT_CODE, sender, recipient, password);
 	}
 
 }
@@ -1,9 +1,5 @@
 package fr.upem.net.chatos.frame;
 
-import java.nio.ByteBuffer;
-import java.util.Optional;
-import java.util.logging.Logger;
-
 import fr.upem.net.chatos.reader.OpCodeReader;
 
 public class TCPAccept extends AbstractTCPFrame{
@@ -15,11 +11,6 @@ public class TCPAccept extends AbstractTCPFrame{
 	 * @param password the TCP private connexion password
 	 */
 	public TCPAccept(String sender, String recipient, short password) {
-		super(sender, recipient, password);
-	}
-
-	@Override
-	public Optional<ByteBuffer> toByteBuffer(Logger logger) {
-		return super.toByteBuffer(logger, OpCodeReader.TCPACCEPT_CODE);
+		super(OpCodeReader.TCPACCEPT_CODE, sender, recipient, password);
 	}
 }
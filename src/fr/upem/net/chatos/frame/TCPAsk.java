@@ -1,9 +1,5 @@
 package fr.upem.net.chatos.frame;
 
-import java.nio.ByteBuffer;
-import java.util.Optional;
-import java.util.logging.Logger;
-
 import fr.upem.net.chatos.reader.OpCodeReader;
 
 public class TCPAsk extends AbstractTCPFrame{
@@ -15,11 +11,6 @@ public class TCPAsk extends AbstractTCPFrame{
 	 * @param password the TCP private connexion password
 	 */
 	public TCPAsk(String sender, String recipient, short password) {
-		super(sender,recipient,password);
+		super(OpCodeReader.TCPASK_CODE, sender, recipient, password);
 	}
-	
-	@Override
-	public Optional<ByteBuffer> toByteBuffer(Logger logger) {
-		return super.toByteBuffer(logger, OpCodeReader.TCPASK_CODE);
 	}
-}
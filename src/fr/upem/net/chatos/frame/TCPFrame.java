@@ -1,9 +1,5 @@
 package fr.upem.net.chatos.frame;
 
-import java.nio.ByteBuffer;
-import java.util.Optional;
-import java.util.logging.Logger;
-
 public interface TCPFrame extends Frame{
 	
 	/**
@@ -23,6 +19,4 @@ public interface TCPFrame extends Frame{
 	 * @return the pseudonym
 	 */
 	public String getSender();
-	
-	Optional<ByteBuffer> toByteBuffer(Logger logger);
 }
@@ -0,0 +1,573 @@
+package fr.upem.net.chatos.load;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import fr.upem.net.chatos.client.Context;
+import fr.upem.net.chatos.frame.ErrorCode;
+import fr.upem.net.chatos.frame.Frame;
+import fr.upem.net.chatos.frame.TCPFrame;
+
+/**
+ *
+ * Headless load generator : thousands of ChatOs clients simulated by one process on one selector.
+ * Every session logs in with a ConnectionRequest, then the sessions send a mix of MessageAll,
+ * PrivateMessage and TCPAsk (followed by the TCPAccept / TCPConnect handshake on new connections)
+ * at a given rate, each session having at most a given number of requests waiting for their ErrorCode.
+ * At the end the throughput and the latencies (p50, p99, p999) are printed : ack latency
+ * (request to ErrorCode), delivery latency (message sent to message received by its recipients)
+ * and handshake latency (TCPAsk sent to the OK of the private connexion).
+ * The generator may become the bottleneck before the server, its selector thread should stay below 100% cpu.
+ * Several ports may be given to run the same scenario against several servers in turn (for instance the
+ * selector and the threads backends), one report per server.
+ */
+public class ChatOsLoadGenerator {
+	static private Logger logger = Logger.getLogger(ChatOsLoadGenerator.class.getName());
+
+	static private final int  MAX_LOGGED_UNEXPECTED = 10;
+	static private final long REPORT_PERIOD         = 1_000_000_000L;
+	static private final long LOGIN_TIMEOUT         = 10_000_000_000L;
+	static private final long DRAIN_TIMEOUT         = 3_000_000_000L;
+
+	/**
+	 *
+	 * Settings of a run
+	 */
+	static final class Settings {
+		int    clients;
+		int    durationSeconds = 10;
+		int    rate;                 // frames per second for all the sessions, 0 for as fast as the windows allow
+		int    messageAllWeight = 10;
+		int    privateWeight    = 85;
+		int    tcpWeight        = 5;
+		int    messageSize      = 64;  // characters of the messages, timestamp included
+		int    window           = 4;   // requests waiting for their ErrorCode per session
+		int    ramp             = 100; // sessions logging in at the same time
+		String namePrefix       = "load";
+	}
+
+	private final Settings          settings;
+	private final InetSocketAddress serverAddress;
+	private final Selector          selector;
+	private final Random            random  = new Random();
+	private final String            padding;
+
+	private final ArrayList<LoadSession>  loggedIn = new ArrayList<>();
+	private final ArrayDeque<LoadSession> ready    = new ArrayDeque<>(); // sessions able to send
+	private boolean sending;
+
+	private final LatencyHistogram loginLatency     = new LatencyHistogram();
+	private final LatencyHistogram ackLatency       = new LatencyHistogram();
+	private final LatencyHistogram deliveryLatency  = new LatencyHistogram();
+	private final LatencyHistogram handshakeLatency = new LatencyHistogram();
+
+	private int  loginAnswers;
+	private int  loginFailures;
+	private int  openHandshakes;
+	private long inFlight;
+	private long sentMessageAll;
+	private long sentPrivate;
+	private long sentTCPAsk;
+	private long aborted;
+	private long unexpected;
+	private final long[] errorCodes = new long[256];
+
+	/**
+	 * ChatOsLoadGenerator constructor
+	 * @param settings the settings of the run
+	 * @param serverAddress the address of the server
+	 * @throws IOException when the selector cannot be opened
+	 */
+	public ChatOsLoadGenerator(Settings settings, InetSocketAddress serverAddress) throws IOException {
+		Objects.requireNonNull(settings);
+		Objects.requireNonNull(serverAddress);
+		if (settings.clients < 1 || settings.window < 1 || settings.ramp < 1 || settings.rate < 0 || settings.durationSeconds < 1) {
+			throw new IllegalArgumentException("Invalid settings");
+		}
+		if (settings.messageAllWeight < 0 || settings.privateWeight < 0 || settings.tcpWeight < 0
+				|| settings.messageAllWeight + settings.privateWeight + settings.tcpWeight == 0) {
+			throw new IllegalArgumentException("Invalid mix");
+		}
+		if (settings.messageSize < 20 || settings.messageSize > Frame.MAX_STRING_SIZE) {
+			throw new IllegalArgumentException("Message size must be between 20 and " + Frame.MAX_STRING_SIZE);
+		}
+		this.settings      = settings;
+		this.serverAddress = serverAddress;
+		this.selector      = Selector.open();
+		this.padding       = "x".repeat(settings.messageSize);
+	}
+
+	/**
+	 *
+	 * @brief log in every session, send during the configured duration, wait for the answers then print the report
+	 * @throws IOException when select throws it
+	 */
+	public void launch() throws IOException {
+		try {
+			logIn();
+			var start = System.nanoTime();
+			send(start);
+			var duration = System.nanoTime() - start;
+			drain();
+			printReport(duration);
+		} finally {
+			for (var key : selector.keys()) {
+				try {
+					key.channel().close();
+				} catch (IOException ioe) {
+					// ignore exception
+				}
+			}
+			selector.close();
+		}
+	}
+
+	/**
+	 *
+	 * @brief open the sessions, at most settings.ramp of them are waiting for their login at the same time
+	 * @throws IOException when select throws it
+	 */
+	private void logIn() throws IOException {
+		var opened = 0;
+		var lastProgress = System.nanoTime();
+		var answers = 0;
+		while (loginAnswers < settings.clients) {
+			while (opened < settings.clients && opened - loginAnswers < settings.ramp) {
+				openSession(settings.namePrefix + opened);
+				opened++;
+			}
+			selector.select(this::treatKey, 100);
+			var now = System.nanoTime();
+			if (answers != loginAnswers) {
+				answers = loginAnswers;
+				lastProgress = now;
+			} else if (now - lastProgress > LOGIN_TIMEOUT) {
+				logger.warning("No login answer for " + LOGIN_TIMEOUT / 1_000_000_000 + " s, giving up "
+						+ (settings.clients - loginAnswers) + " sessions");
+				break;
+			}
+		}
+		System.out.println(loggedIn.size() + " sessions logged in (" + loginFailures + " failed), login latency "
+				+ latencies(loginLatency));
+		if (loggedIn.isEmpty()) {
+			throw new IllegalStateException("No session could log in");
+		}
+	}
+
+	/**
+	 *
+	 * @brief send requests during the configured duration, printing the throughput every second
+	 * @param start the start of the sending period
+	 * @throws IOException when select throws it
+	 */
+	private void send(long start) throws IOException {
+		var end = start + settings.durationSeconds * 1_000_000_000L;
+		var nextReport = start + REPORT_PERIOD;
+		var lastSent = 0L;
+		var lastAcks = 0L;
+		var lastDeliveries = 0L;
+		sending = true;
+		for (var session : loggedIn) {
+			makeReady(session);
+		}
+		for (var now = start; now < end; now = System.nanoTime()) {
+			var due = settings.rate == 0 ? Long.MAX_VALUE
+					: settings.rate * (now - start) / 1_000_000_000L - totalSent();
+			for (; due > 0 && !ready.isEmpty(); due--) {
+				var session = ready.poll();
+				session.setReady(false);
+				sendOne(session, now);
+				makeReady(session);
+			}
+			if (settings.rate == 0 && !ready.isEmpty()) {
+				selector.selectNow(this::treatKey);
+			} else {
+				selector.select(this::treatKey, 1);
+			}
+			if (now >= nextReport) {
+				var sent = totalSent();
+				var acks = ackLatency.count();
+				var deliveries = deliveryLatency.count();
+				System.out.println(String.format("%3d s : %8d sent/s %8d acks/s %9d deliveries/s %6d in flight",
+						(now - start) / 1_000_000_000L, sent - lastSent, acks - lastAcks, deliveries - lastDeliveries, inFlight));
+				lastSent = sent;
+				lastAcks = acks;
+				lastDeliveries = deliveries;
+				nextReport += REPORT_PERIOD;
+			}
+		}
+		sending = false;
+	}
+
+	/**
+	 *
+	 * @brief wait for the answers of the requests in flight and the end of the handshakes
+	 * @throws IOException when select throws it
+	 */
+	private void drain() throws IOException {
+		var end = System.nanoTime() + DRAIN_TIMEOUT;
+		while ((inFlight > 0 || openHandshakes > 0) && System.nanoTime() < end) {
+			selector.select(this::treatKey, 10);
+		}
+		if (inFlight > 0) {
+			logger.warning(inFlight + " requests still unanswered");
+		}
+	}
+
+	/**
+	 *
+	 * @brief send a request of the mix from a session
+	 * @param session the sender
+	 * @param now the sending time
+	 */
+	private void sendOne(LoadSession session, long now) {
+		var pick = random.nextInt(settings.messageAllWeight + settings.privateWeight + settings.tcpWeight);
+		inFlight++;
+		if (pick < settings.messageAllWeight || loggedIn.size() == 1) {
+			sentMessageAll++;
+			session.sendMessageAll(message(now), now);
+			return;
+		}
+		var recipient = loggedIn.get(random.nextInt(loggedIn.size() - 1));
+		if (recipient == session) {
+			recipient = loggedIn.get(loggedIn.size() - 1);
+		}
+		if (pick < settings.messageAllWeight + settings.privateWeight) {
+			sentPrivate++;
+			session.sendPrivateMessage(recipient.getLogin(), message(now), now);
+			return;
+		}
+		sentTCPAsk++;
+		session.sendTCPAsk(recipient.getLogin(), now);
+	}
+
+	/**
+	 *
+	 * @brief build the text of a message : its sending time then a padding up to the message size
+	 * @param now the sending time
+	 * @return the text
+	 */
+	private String message(long now) {
+		var time = Long.toString(now);
+		return time + ' ' + padding.substring(0, Math.max(0, settings.messageSize - time.length() - 1));
+	}
+
+	/**
+	 *
+	 * @return the number of requests sent
+	 */
+	private long totalSent() {
+		return sentMessageAll + sentPrivate + sentTCPAsk;
+	}
+
+	/**
+	 *
+	 * @brief put a session in the ready queue if it may send a request
+	 * @param session the session
+	 */
+	private void makeReady(LoadSession session) {
+		if (sending && !session.isReady() && session.canSend() && session.pendingCount() < settings.window) {
+			session.setReady(true);
+			ready.add(session);
+		}
+	}
+
+	/**
+	 *
+	 * @brief open the connection of a new session, it sends its ConnectionRequest once connected
+	 * @param login the pseudonym of the session
+	 * @throws IOException when the connection cannot be opened
+	 */
+	private void openSession(String login) throws IOException {
+		var sc = SocketChannel.open();
+		sc.configureBlocking(false);
+		var key = sc.register(selector, SelectionKey.OP_CONNECT);
+		var session = new LoadSession(this, key, login);
+		key.attach(session);
+		if (sc.connect(serverAddress)) {
+			session.doConnect();
+		}
+	}
+
+	/**
+	 *
+	 * @brief open a new connection for a private TCP connexion
+	 * @param frame the TCPAccept or TCPConnect to send on it
+	 * @param askTime sending time of the TCPAsk for the sender side, -1 for the recipient side
+	 */
+	void openHandshake(TCPFrame frame, long askTime) {
+		try {
+			var sc = SocketChannel.open();
+			sc.configureBlocking(false);
+			var key = sc.register(selector, SelectionKey.OP_CONNECT);
+			var context = new TCPHandshakeContext(this, key, frame, askTime);
+			key.attach(context);
+			openHandshakes++;
+			if (sc.connect(serverAddress)) {
+				context.doConnect();
+			}
+		} catch (IOException ioe) {
+			unexpected("Cannot open a private connexion : " + ioe);
+		}
+	}
+
+	/**
+	 *
+	 * @brief a session received the answer to its ConnectionRequest
+	 * @param session the session
+	 * @param code the answer
+	 * @param sendTime the sending time of the ConnectionRequest
+	 */
+	void loggedIn(LoadSession session, byte code, long sendTime) {
+		loginAnswers++;
+		if (code != ErrorCode.OK) {
+			loginFailures++;
+			logger.warning(session.getLogin() + " could not log in : " + ErrorCode.of(code));
+			session.silentlyClose();
+			return;
+		}
+		loginLatency.record(System.nanoTime() - sendTime);
+		loggedIn.add(session);
+	}
+
+	/**
+	 *
+	 * @brief a session could not log in
+	 * @param login the pseudonym of the session
+	 * @param reason what happened
+	 */
+	void loginFailed(String login, String reason) {
+		loginAnswers++;
+		loginFailures++;
+		logger.warning(login + " could not log in : " + reason);
+	}
+
+	/**
+	 *
+	 * @brief a request of a session was answered
+	 * @param session the session
+	 * @param code the answer
+	 * @param sendTime the sending time of the request
+	 */
+	void acknowledged(LoadSession session, byte code, long sendTime) {
+		ackLatency.record(System.nanoTime() - sendTime);
+		errorCodes[code & 0xFF]++;
+		inFlight--;
+		makeReady(session);
+	}
+
+	/**
+	 *
+	 * @brief bbout of a session was written
+	 * @param session the session
+	 */
+	void writable(LoadSession session) {
+		makeReady(session);
+	}
+
+	/**
+	 *
+	 * @brief a message was received by a session
+	 * @param text the text of the message, starting with its sending time
+	 */
+	void delivered(String text) {
+		var now = System.nanoTime();
+		var end = text.indexOf(' ');
+		try {
+			deliveryLatency.record(now - Long.parseLong(text, 0, end < 0 ? text.length() : end, 10));
+		} catch (NumberFormatException nfe) {
+			unexpected("Message without timestamp : " + text);
+		}
+	}
+
+	/**
+	 *
+	 * @brief the private connexion of a TCPAsk is established
+	 * @param askTime the sending time of the TCPAsk
+	 */
+	void handshakeDone(long askTime) {
+		handshakeLatency.record(System.nanoTime() - askTime);
+	}
+
+	/**
+	 *
+	 * @brief a connection opened for a private connexion was closed
+	 * @param context its context
+	 */
+	void handshakeClosed(TCPHandshakeContext context) {
+		openHandshakes--;
+	}
+
+	/**
+	 *
+	 * @brief a private connexion was aborted by the server
+	 */
+	void aborted() {
+		aborted++;
+	}
+
+	/**
+	 *
+	 * @brief count an unexpected event, the first ones are logged
+	 * @param what the event
+	 */
+	void unexpected(String what) {
+		if (unexpected++ < MAX_LOGGED_UNEXPECTED) {
+			logger.warning(what);
+		}
+	}
+
+	/**
+	 *
+	 * @brief treat a key of the selector
+	 * @param key the key
+	 */
+	private void treatKey(SelectionKey key) {
+		var context = (Context) key.attachment();
+		try {
+			if (key.isValid() && key.isConnectable()) {
+				context.doConnect();
+			}
+			if (key.isValid() && key.isWritable()) {
+				context.doWrite();
+			}
+			if (key.isValid() && key.isReadable()) {
+				context.doRead();
+			}
+		} catch (IOException ioe) {
+			logger.log(Level.FINE, "Connection closed due to IOException", ioe);
+			if (context instanceof LoadSession) {
+				((LoadSession) context).fail("Connection of " + ((LoadSession) context).getLogin() + " lost : " + ioe);
+			} else {
+				unexpected("Private connexion lost : " + ioe);
+				((TCPHandshakeContext) context).silentlyClose();
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @brief format the percentiles of a histogram in microseconds
+	 * @param histogram the histogram
+	 * @return the formatted percentiles
+	 */
+	private static String latencies(LatencyHistogram histogram) {
+		return String.format("%8d %10d %10d %10d %10d", histogram.count(), histogram.percentile(50) / 1_000,
+				histogram.percentile(99) / 1_000, histogram.percentile(99.9) / 1_000, histogram.max() / 1_000);
+	}
+
+	/**
+	 *
+	 * @brief print the throughput, the answers and the latencies of the run
+	 * @param duration the duration of the sending period in nanoseconds
+	 */
+	private void printReport(long duration) {
+		var seconds = duration / 1e9;
+		System.out.println();
+		System.out.println(String.format("Sessions   : %d logged in, %d failed", loggedIn.size(), loginFailures));
+		System.out.println(String.format("Sent       : %d requests in %.1f s (%.0f/s) : %d MessageAll, %d PrivateMessage, %d TCPAsk",
+				totalSent(), seconds, totalSent() / seconds, sentMessageAll, sentPrivate, sentTCPAsk));
+		System.out.println(String.format("Delivered  : %d messages (%.0f/s)", deliveryLatency.count(), deliveryLatency.count() / seconds));
+		System.out.println(String.format("Handshakes : %d done, %d aborted", handshakeLatency.count(), aborted));
+		var answers = new StringBuilder();
+		for (var code = 0; code < errorCodes.length; code++) {
+			if (errorCodes[code] != 0) {
+				answers.append(' ').append(ErrorCode.of((byte) code).toString().substring("Error : ".length()))
+					.append('=').append(errorCodes[code]);
+			}
+		}
+		System.out.println("Answers    :" + answers + (inFlight > 0 ? " unanswered=" + inFlight : ""));
+		System.out.println("Unexpected : " + unexpected);
+		System.out.println();
+		System.out.println("Latency (us)    count        p50        p99       p999        max");
+		System.out.println("ack        " + latencies(ackLatency));
+		System.out.println("delivery   " + latencies(deliveryLatency));
+		System.out.println("handshake  " + latencies(handshakeLatency));
+	}
+
+	/**
+	 *
+	 * @brief main method starting a load generator against one or several servers on the loopback interface
+	 * @param args usage : port[,port...] clients [options]
+	 * @throws IOException when the generator throws it
+	 */
+	public static void main(String[] args) throws IOException {
+		if (args.length < 2 || args.length % 2 != 0) {
+			usage();
+			return;
+		}
+		var settings = new Settings();
+		int[] ports;
+		try {
+			ports = Arrays.stream(args[0].split(",")).mapToInt(Integer::parseInt).toArray();
+			settings.clients = Integer.parseInt(args[1]);
+			for (var i = 2; i < args.length; i += 2) {
+				var value = args[i + 1];
+				switch (args[i]) {
+				case "-duration":
+					settings.durationSeconds = Integer.parseInt(value);
+					break;
+				case "-rate":
+					settings.rate = Integer.parseInt(value);
+					break;
+				case "-mix":
+					var weights = value.split(":");
+					if (weights.length != 3) {
+						usage();
+						return;
+					}
+					settings.messageAllWeight = Integer.parseInt(weights[0]);
+					settings.privateWeight    = Integer.parseInt(weights[1]);
+					settings.tcpWeight        = Integer.parseInt(weights[2]);
+					break;
+				case "-size":
+					settings.messageSize = Integer.parseInt(value);
+					break;
+				case "-window":
+					settings.window = Integer.parseInt(value);
+					break;
+				case "-ramp":
+					settings.ramp = Integer.parseInt(value);
+					break;
+				case "-name":
+					settings.namePrefix = value;
+					break;
+				default:
+					usage();
+					return;
+				}
+			}
+		} catch (NumberFormatException nfe) {
+			usage();
+			return;
+		}
+		for (var port : ports) {
+			if (ports.length > 1) {
+				System.out.println("=== Server on port " + port + " ===");
+			}
+			var address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+			new ChatOsLoadGenerator(settings, address).launch();
+		}
+	}
+
+	/**
+	 *
+	 * @brief print the usage of the load generator
+	 */
+	private static void usage() {
+		System.out.println("Usage : ChatOsLoadGenerator port[,port...] clients [-duration seconds] [-rate requests/s (0 : no limit)]");
+		System.out.println("        [-mix messageAll:private:tcp] [-size characters] [-window requests] [-ramp sessions] [-name prefix]");
+		System.out.println("Defaults : -duration 10 -rate 0 -mix 10:85:5 -size 64 -window 4 -ramp 100 -name load");
+	}
+}
@@ -0,0 +1,98 @@
+package fr.upem.net.chatos.load;
+
+/**
+ *
+ * Histogram of latencies in nanoseconds with a bounded relative error (about 1.5%).
+ * Small values have their own bucket, larger ones share 64 buckets per power of two,
+ * so recording is a few shifts and an increment and never allocates. Not thread safe.
+ */
+class LatencyHistogram {
+	static private final int SUB_BUCKET_BITS  = 6;
+	static private final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	static private final int BUCKET_COUNT     = (Long.SIZE - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT;
+
+	private final long[] counts = new long[BUCKET_COUNT];
+	private long         count;
+	private long         max;
+
+	/**
+	 *
+	 * @brief get the bucket of a value
+	 * @param value a positive value
+	 * @return the index of its bucket
+	 */
+	static int bucketOf(long value) {
+		if (value < 2 * SUB_BUCKET_COUNT) {
+			return (int) value;
+		}
+		var shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKET_COUNT + (int) (value >>> shift) - SUB_BUCKET_COUNT;
+	}
+
+	/**
+	 *
+	 * @brief get the value standing for a bucket (the middle of its range)
+	 * @param bucket the index of the bucket
+	 * @return the value
+	 */
+	static long valueOf(int bucket) {
+		if (bucket < 2 * SUB_BUCKET_COUNT) {
+			return bucket;
+		}
+		var shift = bucket / SUB_BUCKET_COUNT - 1;
+		var mantissa = (long) (bucket % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT);
+		return (mantissa << shift) + (1L << shift) / 2;
+	}
+
+	/**
+	 *
+	 * @brief record a latency, negative values are counted as 0
+	 * @param nanos the latency in nanoseconds
+	 */
+	void record(long nanos) {
+		var value = Math.max(0, nanos);
+		counts[bucketOf(value)]++;
+		count++;
+		max = Math.max(max, value);
+	}
+
+	/**
+	 *
+	 * @return the number of recorded latencies
+	 */
+	long count() {
+		return count;
+	}
+
+	/**
+	 *
+	 * @return the highest recorded latency in nanoseconds
+	 */
+	long max() {
+		return max;
+	}
+
+	/**
+	 *
+	 * @brief get a percentile of the recorded latencies
+	 * @param percentile between 0 and 100
+	 * @return the latency in nanoseconds, 0 if nothing was recorded
+	 */
+	long percentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("percentile must be between 0 and 100");
+		}
+		if (count == 0) {
+			return 0;
+		}
+		var rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+		var seen = 0L;
+		for (var bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+			seen += counts[bucket];
+			if (seen >= rank) {
+				return Math.min(valueOf(bucket), max);
+			}
+		}
+		return max;
+	}
+}
@@ -0,0 +1,374 @@
+package fr.upem.net.chatos.load;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Objects;
+
+import fr.upem.net.chatos.client.Context;
+import fr.upem.net.chatos.frame.ConnectionRequest;
+import fr.upem.net.chatos.frame.ErrorCode;
+import fr.upem.net.chatos.frame.Frame;
+import fr.upem.net.chatos.frame.MessageAll;
+import fr.upem.net.chatos.frame.PrivateMessage;
+import fr.upem.net.chatos.frame.TCPAccept;
+import fr.upem.net.chatos.frame.TCPAsk;
+import fr.upem.net.chatos.frame.TCPConnect;
+import fr.upem.net.chatos.reader.ConnectionRequestReader;
+import fr.upem.net.chatos.reader.ErrorCodeReader;
+import fr.upem.net.chatos.reader.FrameVisitor;
+import fr.upem.net.chatos.reader.OpaqueMessageReader;
+import fr.upem.net.chatos.reader.OpCodeReader;
+import fr.upem.net.chatos.reader.Reader.ProcessStatus;
+import fr.upem.net.chatos.reader.SendMessageAllReader;
+import fr.upem.net.chatos.reader.SendPrivateMessageReader;
+import fr.upem.net.chatos.reader.TCPAbortReader;
+import fr.upem.net.chatos.reader.TCPAcceptReader;
+import fr.upem.net.chatos.reader.TCPAskReader;
+import fr.upem.net.chatos.reader.TCPConnectReader;
+
+/**
+ *
+ * One simulated client of the load generator.
+ * Every request waiting for its ErrorCode keeps its sending time, the server answers
+ * the requests of a connection in order so the first one is the one acknowledged.
+ * The messages start with their sending time so their delivery latency is known by the recipient.
+ */
+class LoadSession implements Context {
+	static private final int BUFFER_SIZE = 4 * (Frame.MAX_STRING_SIZE + Short.BYTES) + 1;
+
+	// shared by every session since it only works on the session given as argument
+	static final private FrameVisitor<LoadSession> visitor = new FrameVisitor<LoadSession>() {
+		@Override
+		public void visit(ConnectionRequestReader reader, LoadSession session) {
+			// never sent by the server
+		}
+
+		@Override
+		public void visit(SendPrivateMessageReader reader, LoadSession session) {
+			session.generator.delivered(reader.get().getMessage());
+		}
+
+		@Override
+		public void visit(SendMessageAllReader reader, LoadSession session) {
+			session.generator.delivered(reader.get().getMessage());
+		}
+
+		@Override
+		public void visit(ErrorCodeReader reader, LoadSession session) {
+			var code = reader.get().getErrorCode();
+			if (code == ErrorCode.KEEPALIVE) {
+				session.answerKeepAlive();
+				return;
+			}
+			session.acknowledged(code);
+		}
+
+		@Override
+		public void visit(TCPAskReader reader, LoadSession session) {
+			var ask = reader.get();
+			session.generator.openHandshake(new TCPAccept(ask.getSender(), ask.getRecipient(), ask.getPassword()), -1);
+		}
+
+		@Override
+		public void visit(TCPAbortReader reader, LoadSession session) {
+			var abort = reader.get();
+			if (abort.getSender().equals(session.login)) {
+				session.askTimes.remove(abort.getPassword());
+			}
+			session.generator.aborted();
+		}
+
+		@Override
+		public void visit(TCPConnectReader reader, LoadSession session) {
+			// never sent by the server
+		}
+
+		@Override
+		public void visit(TCPAcceptReader reader, LoadSession session) {
+			var accept = reader.get();
+			var askTime = session.askTimes.remove(accept.getPassword());
+			if (askTime != null) {
+				session.generator.openHandshake(new TCPConnect(accept.getSender(), accept.getRecipient(), accept.getPassword()), askTime);
+			}
+		}
+
+		@Override
+		public void visit(OpaqueMessageReader reader, LoadSession session) {
+			// never read, the messages are decoded to check their delivery
+		}
+	};
+
+	private final ChatOsLoadGenerator generator;
+	private final SelectionKey        key;
+	private final SocketChannel       sc;
+	private final String              login;
+	private final ByteBuffer          bbin   = ByteBuffer.allocate(BUFFER_SIZE);
+	private final ByteBuffer          bbout  = ByteBuffer.allocate(BUFFER_SIZE);
+	private final OpCodeReader        reader = new OpCodeReader();
+
+	// sending times of the requests waiting for their ErrorCode (circular)
+	private long[] pending = new long[8];
+	private int    pendingHead;
+	private int    pendingCount;
+
+	// sending times of the TCPAsk waiting for their TCPAccept, by password
+	private final HashMap<Short, Long> askTimes = new HashMap<>();
+	private short nextPassword;
+
+	private boolean loginAnswered;
+	private boolean loggedIn;
+	private boolean closed;
+	private boolean ready; // in the ready queue of the generator
+
+	/**
+	 * LoadSession constructor, the session has to be attached to the key by the caller
+	 * @param generator the load generator
+	 * @param key the key of the connection (not connected yet)
+	 * @param login the pseudonym of the session
+	 */
+	LoadSession(ChatOsLoadGenerator generator, SelectionKey key, String login) {
+		Objects.requireNonNull(generator);
+		Objects.requireNonNull(key);
+		Objects.requireNonNull(login);
+		this.generator = generator;
+		this.key       = key;
+		this.sc        = (SocketChannel) key.channel();
+		this.login     = login;
+	}
+
+	/**
+	 *
+	 * @return the pseudonym of the session
+	 */
+	String getLogin() {
+		return login;
+	}
+
+	/**
+	 *
+	 * @return true once the server accepted the pseudonym
+	 */
+	boolean isLoggedIn() {
+		return loggedIn;
+	}
+
+	/**
+	 *
+	 * @return the number of requests waiting for their ErrorCode
+	 */
+	int pendingCount() {
+		return pendingCount;
+	}
+
+	/**
+	 *
+	 * @return true if the session is in the ready queue of the generator
+	 */
+	boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 *
+	 * @param ready true if the session is in the ready queue of the generator
+	 */
+	void setReady(boolean ready) {
+		this.ready = ready;
+	}
+
+	/**
+	 *
+	 * @return true if bbout has room for the biggest frame
+	 */
+	boolean canSend() {
+		return !closed && loggedIn && bbout.remaining() >= 3 * (Frame.MAX_STRING_SIZE + Short.BYTES) + 1;
+	}
+
+	/**
+	 *
+	 * @brief send a public message
+	 * @param text the message, it starts with its sending time
+	 * @param now the sending time
+	 */
+	void sendMessageAll(String text, long now) {
+		send(new MessageAll(login, text), now);
+	}
+
+	/**
+	 *
+	 * @brief send a private message
+	 * @param recipient the pseudonym of the recipient
+	 * @param text the message, it starts with its sending time
+	 * @param now the sending time
+	 */
+	void sendPrivateMessage(String recipient, String text, long now) {
+		send(new PrivateMessage(login, recipient, text), now);
+	}
+
+	/**
+	 *
+	 * @brief ask for a private TCP connexion, the recipient answers with a TCPAccept on a new connection
+	 * @param recipient the pseudonym of the recipient
+	 * @param now the sending time
+	 */
+	void sendTCPAsk(String recipient, long now) {
+		var password = nextPassword++;
+		askTimes.put(password, now);
+		send(new TCPAsk(login, recipient, password), now);
+	}
+
+	/**
+	 *
+	 * @brief encode a request into bbout and keep its sending time until it is acknowledged
+	 * @param frame the request
+	 * @param now the sending time
+	 */
+	private void send(Frame frame, long now) {
+		if (frame.encodedSize() < 0) {
+			throw new IllegalArgumentException("A string exceeds the limit (1024)");
+		}
+		frame.encodeInto(bbout);
+		if (pendingCount == pending.length) {
+			var grown = new long[pending.length * 2];
+			for (var i = 0; i < pendingCount; i++) {
+				grown[i] = pending[(pendingHead + i) % pending.length];
+			}
+			pending = grown;
+			pendingHead = 0;
+		}
+		pending[(pendingHead + pendingCount) % pending.length] = now;
+		pendingCount++;
+		updateInterestOps();
+	}
+
+	/**
+	 *
+	 * @brief echo a keepalive ping of the server, it is not a request (nothing answers it)
+	 */
+	private void answerKeepAlive() {
+		var pong = ErrorCode.of(ErrorCode.KEEPALIVE);
+		if (bbout.remaining() >= pong.encodedSize()) { // otherwise the session is busy writing anyway
+			pong.encodeInto(bbout);
+			updateInterestOps();
+		}
+	}
+
+	/**
+	 *
+	 * @brief an ErrorCode answers the oldest request waiting for one
+	 * @param code the code received
+	 */
+	private void acknowledged(byte code) {
+		if (pendingCount == 0) {
+			generator.unexpected("ErrorCode " + code + " received by " + login + " without request");
+			return;
+		}
+		var sendTime = pending[pendingHead];
+		pendingHead = (pendingHead + 1) % pending.length;
+		pendingCount--;
+		if (!loginAnswered) {
+			loginAnswered = true;
+			loggedIn = code == ErrorCode.OK;
+			generator.loggedIn(this, code, sendTime);
+			return;
+		}
+		generator.acknowledged(this, code, sendTime);
+	}
+
+	/**
+	 *
+	 * @brief update the interestOps of the key
+	 */
+	private void updateInterestOps() {
+		if (!key.isValid()) {
+			return;
+		}
+		var interestOps = 0;
+		if (!closed && bbin.hasRemaining()) {
+			interestOps |= SelectionKey.OP_READ;
+		}
+		if (bbout.position() != 0) {
+			interestOps |= SelectionKey.OP_WRITE;
+		}
+		if (interestOps == 0) {
+			silentlyClose();
+			return;
+		}
+		key.interestOps(interestOps);
+	}
+
+	/**
+	 *
+	 * @brief close the session after an unexpected event, before its login it counts as a failed login
+	 * @param reason what happened
+	 */
+	void fail(String reason) {
+		silentlyClose();
+		if (!loginAnswered) {
+			loginAnswered = true;
+			generator.loginFailed(login, reason);
+			return;
+		}
+		generator.unexpected(reason);
+	}
+
+	/**
+	 *
+	 * @brief close the socket channel
+	 */
+	void silentlyClose() {
+		closed = true;
+		try {
+			sc.close();
+		} catch (IOException ioe) {
+			// ignore exception
+		}
+	}
+
+	/**
+	 *
+	 * @brief process the content of bbin, every complete frame is read before bbin is compacted once
+	 */
+	private void processIn() {
+		bbin.flip();
+		for (var ps = reader.consume(bbin); ps != ProcessStatus.REFILL; ps = reader.consume(bbin)) {
+			if (ps == ProcessStatus.ERROR) {
+				fail("Invalid frame received by " + login);
+				return;
+			}
+			reader.accept(visitor, this);
+			reader.reset();
+		}
+		bbin.compact();
+	}
+
+	@Override
+	public void doRead() throws IOException {
+		if (sc.read(bbin) == -1) {
+			fail("Connection of " + login + " closed by the server");
+			return;
+		}
+		processIn();
+		updateInterestOps();
+	}
+
+	@Override
+	public void doWrite() throws IOException {
+		bbout.flip();
+		sc.write(bbout);
+		bbout.compact();
+		updateInterestOps();
+		generator.writable(this);
+	}
+
+	@Override
+	public void doConnect() throws IOException {
+		if (!sc.finishConnect()) {
+			return;
+		}
+		send(new ConnectionRequest(login), System.nanoTime());
+	}
+}
@@ -0,0 +1,121 @@
+package fr.upem.net.chatos.load;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.Objects;
+
+import fr.upem.net.chatos.client.Context;
+import fr.upem.net.chatos.frame.ErrorCode;
+import fr.upem.net.chatos.frame.TCPFrame;
+import fr.upem.net.chatos.reader.OpCodeReader;
+
+/**
+ *
+ * New connection opened by a session for a private TCP connexion : it sends the TCPAccept
+ * (recipient side) or the TCPConnect (sender side) then waits for the OK sent by the server
+ * once both sides are connected. The sender side measures the handshake and leaves, the server
+ * then closes the recipient side.
+ */
+class TCPHandshakeContext implements Context {
+	private final ChatOsLoadGenerator generator;
+	private final SelectionKey        key;
+	private final SocketChannel       sc;
+	private final ByteBuffer          bbout;
+	private final ByteBuffer          bbin = ByteBuffer.allocate(2); // the ErrorCode of the server
+	private final long                askTime;
+
+	private boolean acknowledged;
+
+	/**
+	 * TCPHandshakeContext constructor, the context has to be attached to the key by the caller
+	 * @param generator the load generator
+	 * @param key the key of the new connection (not connected yet)
+	 * @param frame the TCPAccept or TCPConnect to send
+	 * @param askTime sending time of the TCPAsk for the sender side, -1 for the recipient side
+	 */
+	TCPHandshakeContext(ChatOsLoadGenerator generator, SelectionKey key, TCPFrame frame, long askTime) {
+		Objects.requireNonNull(generator);
+		Objects.requireNonNull(key);
+		Objects.requireNonNull(frame);
+		this.generator = generator;
+		this.key       = key;
+		this.sc        = (SocketChannel) key.channel();
+		this.askTime   = askTime;
+		this.bbout     = ByteBuffer.allocate(frame.encodedSize());
+		frame.encodeInto(bbout);
+	}
+
+	/**
+	 *
+	 * @return true for the side which sent the TCPAsk
+	 */
+	private boolean isSenderSide() {
+		return askTime >= 0;
+	}
+
+	/**
+	 *
+	 * @brief close the connection, it is not a handshake in progress anymore
+	 */
+	void silentlyClose() {
+		if (!key.isValid()) {
+			return;
+		}
+		generator.handshakeClosed(this);
+		try {
+			sc.close();
+		} catch (IOException ioe) {
+			// ignore exception
+		}
+	}
+
+	@Override
+	public void doRead() throws IOException {
+		if (sc.read(bbin) == -1) {
+			if (!acknowledged) {
+				generator.unexpected("Private connexion closed by the server before its OK");
+			}
+			silentlyClose();
+			return;
+		}
+		if (acknowledged) {
+			bbin.clear(); // nothing is relayed on the private connexion
+			return;
+		}
+		if (bbin.hasRemaining()) {
+			return;
+		}
+		acknowledged = true;
+		bbin.flip();
+		if (bbin.get() != OpCodeReader.ERROR_PACKET_CODE || bbin.get() != ErrorCode.OK) {
+			generator.unexpected("Private connexion not acknowledged by the server");
+			silentlyClose();
+			return;
+		}
+		bbin.clear();
+		if (isSenderSide()) {
+			generator.handshakeDone(askTime);
+			silentlyClose();
+		}
+	}
+
+	@Override
+	public void doWrite() throws IOException {
+		bbout.flip();
+		sc.write(bbout);
+		bbout.compact();
+		if (bbout.position() == 0) {
+			key.interestOps(SelectionKey.OP_READ);
+		}
+	}
+
+	@Override
+	public void doConnect() throws IOException {
+		if (!sc.finishConnect()) {
+			return;
+		}
+		key.interestOps(SelectionKey.OP_WRITE);
+	}
+}
@@ -19,11 +19,20 @@ abstract class AbstractTCPFrameReader<T extends TCPFrame> implements FrameReader
 	};
 	
     private       State        state        = State.WAITING_SENDER;
-    private final StringReader stringReader = new StringReader();
+    private final StringReader stringReader;
     private final ShortReader  shortReader  = new ShortReader();
     private       String       sender;
     private       String       recipient;
     private       short        password;
+
+    /**
+     * AbstractTCPFrameReader constructor
+     * @param stringReader the string reader to use, it may be shared with readers which are never active at the same time
+     */
+    AbstractTCPFrameReader(StringReader stringReader) {
+    	Objects.requireNonNull(stringReader);
+    	this.stringReader = stringReader;
+    }
     
     /**
      * 
@@ -53,16 +62,16 @@ abstract class AbstractTCPFrameReader<T extends TCPFrame> implements FrameReader
 	}
     
 	@Override
-	public ProcessStatus process(ByteBuffer bb) {
+	public ProcessStatus consume(ByteBuffer bb) {
     	Objects.requireNonNull(bb);
         if (state== State.DONE || state== State.ERROR) {
             throw new IllegalStateException();
         }
         ProcessStatus ps;
         if (state == State.WAITING_PASSWORD) {
-        	ps = shortReader.process(bb);
+        	ps = shortReader.consume(bb);
         } else {
-        	ps = stringReader.process(bb);
+        	ps = stringReader.consume(bb);
         } 
         switch(ps) {
         case REFILL:
@@ -77,12 +86,12 @@ abstract class AbstractTCPFrameReader<T extends TCPFrame> implements FrameReader
         	state = State.WAITING_RECIPIENT;
         	sender = stringReader.get();
         	stringReader.reset();
-        	return process(bb);
+        	return consume(bb);
         }
         if (state == State.WAITING_RECIPIENT) {
         	state = State.WAITING_PASSWORD;
         	recipient = stringReader.get();
-        	return process(bb);
+        	return consume(bb);
         }
     	state = State.DONE;
     	password = shortReader.get();
@@ -22,14 +22,13 @@ public class CRLFReader implements Reader<String> {
 	private String line;
 
 	@Override
-	public ProcessStatus process(ByteBuffer bb) {
+	public ProcessStatus consume(ByteBuffer bb) {
 		if (state == State.DONE || state == State.ERROR) {
 			throw new IllegalStateException();
 		}
 		if (!internalbb.hasRemaining()) {
 			return ProcessStatus.ERROR;
 		}
-		bb.flip();
 		while (bb.hasRemaining()) {
 			var next_c = bb.get();
 			if (state == State.WAITING_CR) { // si prochain char == \r -> LF
@@ -42,7 +41,6 @@ public class CRLFReader implements Reader<String> {
 					internalbb.flip();
 					internalbb.limit(internalbb.limit() - 1);
 					line = ASCII.decode(internalbb).toString();
-					bb.compact();
 					return ProcessStatus.DONE;
 				} 
 				if (next_c != '\r') {
@@ -51,7 +49,6 @@ public class CRLFReader implements Reader<String> {
 			}
 			internalbb.put(next_c);
 		}
-		bb.clear();
 		return ProcessStatus.REFILL;
 	}
 
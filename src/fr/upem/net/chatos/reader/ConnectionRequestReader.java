@@ -5,7 +5,20 @@ import java.util.Objects;
 
 public class ConnectionRequestReader implements FrameReader<String>{
 	
-	private final StringReader reader = new StringReader();
+	private final StringReader reader;
+
+	public ConnectionRequestReader() {
+		this(new StringReader());
+	}
+
+	/**
+	 * ConnectionRequestReader constructor
+	 * @param reader the string reader to use, it may be shared with readers which are never active at the same time
+	 */
+	ConnectionRequestReader(StringReader reader) {
+		Objects.requireNonNull(reader);
+		this.reader = reader;
+	}
 
 	@Override
 	public <T>void accept(FrameVisitor<T> visitor, T context) {
@@ -14,9 +27,9 @@ public class ConnectionRequestReader implements FrameReader<String>{
 	}
 	
 	@Override
-	public ProcessStatus process(ByteBuffer bb) {
+	public ProcessStatus consume(ByteBuffer bb) {
 		Objects.requireNonNull(bb);
-		return reader.process(bb);
+		return reader.consume(bb);
 	}
 
 	@Override
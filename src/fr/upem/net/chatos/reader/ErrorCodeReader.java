@@ -26,26 +26,22 @@ public class ErrorCodeReader implements FrameReader<ErrorCode>{
 	}
 
 	@Override
-	public ProcessStatus process(ByteBuffer bb) {
+	public ProcessStatus consume(ByteBuffer bb) {
 		Objects.requireNonNull(bb);
 		if (state== State.DONE || state== State.ERROR) {
             throw new IllegalStateException();
         }
-		bb.flip();
 		if (!bb.hasRemaining()) {
-			bb.compact();
 			return ProcessStatus.REFILL;
 		}
 		code = bb.get();
-
-		bb.compact();
 		state = State.DONE;
 		return ProcessStatus.DONE;
 	}
 
 	@Override
 	public ErrorCode get() {
-		return new ErrorCode(code);
+		return ErrorCode.of(code);
 	}
 
 	@Override
@@ -1,5 +1,7 @@
 package fr.upem.net.chatos.reader;
 
+import java.util.logging.Logger;
+
 public interface FrameVisitor<T> {
 	
 	/**
@@ -65,4 +67,24 @@ public interface FrameVisitor<T> {
 	 * @param context the actual context
 	 */
 	public void visit(TCPAcceptReader tcpAcceptReader, T context);
+
+	/**
+	 * 
+	 * @brief visit the frame visitor, only the readers in forwarding mode produce opaque messages
+	 * @param reader the reader for a private or public message which is not decoded
+	 * @param context the actual context
+	 */
+	public void visit(OpaqueMessageReader opaqueMessageReader, T context);
+
+	/**
+	 * 
+	 * @brief visit the frame visitor, called by the readers of the frames registered in an OpCodeRegistry
+	 * which are not part of the ChatOs protocol. By default the frame is logged and ignored,
+	 * the visitors of the contexts using such a registry handle it
+	 * @param reader the reader of the frame
+	 * @param context the actual context
+	 */
+	public default void visitExtension(FrameReader<?> reader, T context) {
+		Logger.getLogger(FrameVisitor.class.getName()).severe("Frame of " + reader.getClass().getName() + " not handled by this visitor, ignored");
+	}
 }
@@ -19,22 +19,26 @@ public class HTTPHeaderReader implements Reader<HTTPHeader> {
 	private String version;
 	private String responce_code; // 200 OK | 404 NotFound
 	private String content_type;
-	private int    content_length;
+	private String content_encoding;  // optional lines between Content-Type and the length of the body
+	private String etag;
+	private long   content_length;
+	private boolean chunked;        // Transfer-Encoding: chunked instead of Content-Length
 	
 	private CRLFReader line_reader = new CRLFReader();
 	
 	@Override
-	public ProcessStatus process(ByteBuffer bb) throws NumberFormatException {
+	public ProcessStatus consume(ByteBuffer bb) throws NumberFormatException {
 		if (state == State.DONE || state == State.ERROR) {
 			throw new IllegalStateException();
 		}
 		if (state == State.WAITING_HEAD) {
-			var ps = line_reader.process(bb);
+			var ps = line_reader.consume(bb);
 			switch (ps) {
 				case REFILL: return ps;
 				case DONE  : state = State.WAITING_TYPE;
 							 var head = line_reader.get().split(" ");
 							 if (head.length != 3) {
+								 state = State.ERROR;
 								 return ProcessStatus.ERROR;
 							 }
 							 version       = head[0];
@@ -44,13 +48,15 @@ public class HTTPHeaderReader implements Reader<HTTPHeader> {
 				default    : state = State.ERROR;
 							 return ps;
 			}
-		} if (state == State.WAITING_TYPE) {
-			var ps = line_reader.process(bb);
+		}
+		if (state == State.WAITING_TYPE) {
+			var ps = line_reader.consume(bb);
 			switch (ps) {
 				case REFILL: return ps;
 				case DONE  : state = State.WAITING_LENGTH;
 							 var head = line_reader.get().split(" ");
 							 if (head.length != 2) {
+								 state = State.ERROR;
 								 return ProcessStatus.ERROR;
 							 }
 							 content_type = head[1];
@@ -60,18 +66,57 @@ public class HTTPHeaderReader implements Reader<HTTPHeader> {
 							 return ps;
 			}
 		}
-		var ps = line_reader.process(bb);
-		switch (ps) {
-			case REFILL: return ps;
-			case DONE  : state = State.DONE;
-						 var head = line_reader.get().split(" ");
-						 if (head.length != 2) {
-							 return ProcessStatus.ERROR;
-						 }
-						 content_length = Integer.parseInt(head[1]);
-						 return ps;
-			default    : state = State.ERROR;
-						 return ps;
+		for (;;) {
+			var ps = line_reader.consume(bb);
+			switch (ps) {
+				case REFILL: return ps;
+				case DONE  : var head = line_reader.get().split(" ");
+							 if (head.length != 2) {
+								 state = State.ERROR;
+								 return ProcessStatus.ERROR;
+							 }
+							 if (head[0].equals("Content-Encoding:") && content_encoding == null) {
+								 if (!HTTPHeader.isSupportedEncoding(head[1])) { // gzip, br... cannot be decoded
+									 state = State.ERROR;
+									 return ProcessStatus.ERROR;
+								 }
+								 content_encoding = head[1];
+								 line_reader.reset();
+								 continue;
+							 }
+							 if (head[0].equals("ETag:") && etag == null) {
+								 if (!HTTPHeader.isValidETag(head[1])) {
+									 state = State.ERROR;
+									 return ProcessStatus.ERROR;
+								 }
+								 etag = head[1];
+								 line_reader.reset();
+								 continue;
+							 }
+							 chunked = head[0].equals("Transfer-Encoding:");
+							 content_length = chunked ? -1 : parseLength(head[1]);
+							 if ((chunked && !head[1].equals("chunked")) || (!chunked && content_length < 0)) {
+								 state = State.ERROR;
+								 return ProcessStatus.ERROR;
+							 }
+							 state = State.DONE;
+							 return ps;
+				default    : state = State.ERROR;
+							 return ps;
+			}
+		}
+	}
+
+	/**
+	 * @brief parse the value of Content-Length
+	 * @param length the value sent by the other side
+	 * @return the length, -1 if it is not a number or negative
+	 */
+	private static long parseLength(String length) {
+		try {
+			return Math.max(-1, Long.parseLong(length));
+		} catch (NumberFormatException nfe) {
+			return -1;
 		}
 	}
 
@@ -80,12 +125,15 @@ public class HTTPHeaderReader implements Reader<HTTPHeader> {
 		if (state != State.DONE) {
 			throw new IllegalStateException();
 		}
-		return new HTTPHeader(version, responce_code, content_type, content_length);
+		var encoding = content_encoding == null ? HTTPHeader.IDENTITY : content_encoding;
+		return new HTTPHeader(version, responce_code, content_type, encoding, content_length, chunked, etag);
 	}
 
 	@Override
 	public void reset() {
 		state = State.WAITING_HEAD;
+		content_encoding = null;
+		etag = null;
 		line_reader.reset();
 	}
 	
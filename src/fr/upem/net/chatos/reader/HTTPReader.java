@@ -1,70 +1,365 @@
 package fr.upem.net.chatos.reader;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 import fr.upem.net.chatos.frame.HTTPFrame;
 import fr.upem.net.chatos.frame.HTTPHeader;
 
-
+/**
+ *
+ * Reader of an HTTP answer. By default the body is kept in memory (at most READER_SIZE bytes) and decoded
+ * as the content of the frame. After streamTo, the body of the next answer is written to a file as it arrives,
+ * whatever its length, and the content of the frame is empty. A partial answer (206, to a ranged request)
+ * is written after the bytes already in the file. The body is either Content-Length bytes or a sequence of
+ * chunks (Transfer-Encoding: chunked : hexadecimal size CRLF, data CRLF, ended by a chunk of size 0 and a CRLF).
+ * A body encoded with deflate (Content-Encoding) is inflated as it arrives, the file or the content gets the decoded bytes.
+ */
 public class HTTPReader implements Reader<HTTPFrame> {
 	private static final int     READER_SIZE = 1_024;
+	private static final int     INFLATE_SIZE = 8_192;
 	private static final Charset ASCII       = StandardCharsets.US_ASCII;
-	
+
+	/**
+	 *
+	 * Listener of a streamed body, called every time bytes are written to the file
+	 */
+	@FunctionalInterface
+	public interface ProgressListener {
+		/**
+		 * @param received the number of bytes of the file written so far (the offset of a partial answer included)
+		 * @param total the size of the file once the body is written, -1 if the body is chunked
+		 */
+		void progress(long received, long total);
+	}
+
 	private enum State {
 		DONE,
 		WAITING_HEADER,
 		WAITING_CONTENT,
+		WAITING_CHUNK_SIZE,
+		WAITING_CHUNK,
+		WAITING_CHUNK_END,   // CRLF after the data of a chunk
+		WAITING_TRAILER,     // CRLF after the last chunk
 		ERROR
 	};
-	
+
 	private State state = State.WAITING_HEADER;
-	
+
 	private HTTPHeader       header;
 	private HTTPHeaderReader headerReader = new HTTPHeaderReader();
-	
+	private CRLFReader       lineReader   = new CRLFReader();
+
 	private final ByteBuffer internalbb = ByteBuffer.allocate(READER_SIZE);
-	
+
 	private String content;
-	
-	
+
+	private Path             target;   // file of the streamed body, null to keep the body in memory
+	private ProgressListener listener;
+	private long             offset;   // where a partial answer starts in the file
+	private FileChannel      file;     // opened once a 200 OK or 206 PartialContent header is read
+	private long             base;     // where the body starts in the file
+	private long             received;
+	private long             remaining; // bytes of the body (or of the current chunk) not received yet
+	private Inflater         inflater;  // created by the first deflate answer, null until then
+	private ByteBuffer       inflated;
+	private boolean          inflating; // the body of the current answer is deflated
+
+	/**
+	 *
+	 * @brief stream the body of the next answer to a file instead of keeping it in memory, until reset.
+	 * The file is created (or truncated) only if the answer is 200 OK, the body of other answers is discarded.
+	 * Writing to the file may throw an UncheckedIOException from consume
+	 * @param target the path of the file
+	 * @param listener called every time bytes of the body are written
+	 */
+	public void streamTo(Path target, ProgressListener listener) {
+		streamTo(target, 0, listener);
+	}
+
+	/**
+	 *
+	 * @brief stream the body of the next answer to a file, like streamTo(target, listener). If the answer is
+	 * 206 PartialContent the file is kept up to offset (the start of the range asked) and the body is written from there,
+	 * a 200 OK answer replaces the whole file
+	 * @param target the path of the file
+	 * @param offset the start of the range asked, 0 if the whole file is asked
+	 * @param listener called every time bytes of the body are written
+	 */
+	public void streamTo(Path target, long offset, ProgressListener listener) {
+		Objects.requireNonNull(target);
+		Objects.requireNonNull(listener);
+		if (offset < 0) {
+			throw new IllegalArgumentException("offset cannot be negative");
+		}
+		if (state != State.WAITING_HEADER) {
+			throw new IllegalStateException();
+		}
+		this.target   = target;
+		this.offset   = offset;
+		this.listener = listener;
+	}
+
 	@Override
-	public ProcessStatus process(ByteBuffer bb) {
+	public ProcessStatus consume(ByteBuffer bb) {
 		if (state == State.DONE || state == State.ERROR) {
 			throw new IllegalStateException();
 		}
 		if (state == State.WAITING_HEADER) {
-			var ps = headerReader.process(bb);
+			var ps = headerReader.consume(bb);
 			switch(ps) {
 		        case REFILL:
 		        	return ps;
 		        case DONE:
-		        	state = State.WAITING_CONTENT;
 		        	header = headerReader.get();
 		        	headerReader.reset();
+		        	if (target == null && header.getContentLength() > READER_SIZE) {
+		        		state = State.ERROR;
+		        		return ProcessStatus.ERROR;
+		        	}
+		        	if (target != null) {
+		        		openTarget();
+		        	}
+		        	state = header.isChunked() ? State.WAITING_CHUNK_SIZE : State.WAITING_CONTENT;
+		        	remaining = Math.max(0, header.getContentLength());
+		        	inflating = header.getContent_encoding().equals(HTTPHeader.DEFLATE);
+		        	if (inflating && inflater == null) {
+		        		inflater = new Inflater();
+		        		inflated = ByteBuffer.allocate(INFLATE_SIZE);
+		        	}
 		        	break;
 		        case ERROR:
 		        	state = State.ERROR;
 		        	return ps;
 	        }
 		}
-		internalbb.limit(header.getContentLength());
-		bb.flip();
-		if (bb.remaining() < internalbb.remaining()) {
-			internalbb.put(bb);
-			bb.clear();
-			return ProcessStatus.REFILL;
-		} else {
-			var tmp = bb.limit();
-			bb.limit(internalbb.remaining());
-			internalbb.put(bb);
+		for (;;) {
+			switch (state) {
+			case WAITING_CONTENT: {
+				var ps = consumeBody(bb);
+				return ps == ProcessStatus.DONE ? done() : ps;
+			}
+			case WAITING_CHUNK: {
+				var ps = consumeBody(bb);
+				if (ps != ProcessStatus.DONE) {
+					return ps;
+				}
+				state = State.WAITING_CHUNK_END;
+				break;
+			}
+			default:
+				var ps = lineReader.consume(bb);
+				if (ps != ProcessStatus.DONE) {
+					return error(ps);
+				}
+				var line = lineReader.get();
+				lineReader.reset();
+				if (state == State.WAITING_CHUNK_SIZE) {
+					remaining = chunkSize(line);
+					if (remaining < 0 || (target == null && !inflating && remaining > internalbb.remaining())) {
+						return error(ProcessStatus.ERROR);
+					}
+					state = remaining == 0 ? State.WAITING_TRAILER : State.WAITING_CHUNK;
+					break;
+				}
+				if (!line.isEmpty()) {
+					return error(ProcessStatus.ERROR);
+				}
+				if (state == State.WAITING_TRAILER) {
+					return done();
+				}
+				state = State.WAITING_CHUNK_SIZE;
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @brief parse the size line of a chunk (hexadecimal, the extensions after ';' are ignored)
+	 * @param line the size line
+	 * @return the size of the chunk, -1 if the line is invalid
+	 */
+	private static long chunkSize(String line) {
+		var extension = line.indexOf(';');
+		var size = (extension < 0 ? line : line.substring(0, extension)).trim();
+		try {
+			return Long.parseLong(size, 16);
+		} catch (NumberFormatException nfe) {
+			return -1;
+		}
+	}
+
+	/**
+	 *
+	 * @brief the reader fails, unless it only needs more bytes
+	 * @param ps the status of the line reader
+	 * @return the status to return
+	 */
+	private ProcessStatus error(ProcessStatus ps) {
+		if (ps == ProcessStatus.REFILL) {
+			return ps;
+		}
+		closeTarget();
+		state = State.ERROR;
+		return ProcessStatus.ERROR;
+	}
+
+	/**
+	 *
+	 * @brief end of the body : the file is closed or the content kept in memory is decoded
+	 * @return DONE, ERROR if a deflated body is truncated
+	 */
+	private ProcessStatus done() {
+		if (inflating && !inflater.finished()) {
+			return error(ProcessStatus.ERROR);
+		}
+		closeTarget();
+		state = State.DONE;
+		content = target == null ? ASCII.decode(internalbb.flip()).toString() : "";
+		return ProcessStatus.DONE;
+	}
+
+	/**
+	 *
+	 * @brief open the file of the streamed body if the answer is 200 OK (from the start) or 206 PartialContent (from the offset)
+	 */
+	private void openTarget() {
+		var code = header.getResponce_code();
+		try {
+			if (code.equals("200 OK")) {
+				file = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+				base = 0;
+			} else if (code.equals("206 PartialContent")) {
+				file = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+				file.truncate(offset);
+				if (file.size() != offset) {
+					throw new IOException(target + " is shorter than the start of the range asked");
+				}
+				base = offset;
+				file.position(base);
+			}
+		} catch (IOException ioe) {
+			closeTarget();
+			state = State.ERROR;
+			throw new UncheckedIOException(ioe);
+		}
+	}
+
+	/**
+	 *
+	 * @brief decode the bytes of the body (or of the current chunk) available in bb, then move them to the file,
+	 * or to memory without file (they are discarded if the answer has no file)
+	 * @param bb the bytebuffer to process (read-mode)
+	 * @return DONE once the whole body (or chunk) is received, REFILL if bytes are missing,
+	 * ERROR if the body cannot be inflated or is too large to be kept in memory
+	 */
+	private ProcessStatus consumeBody(ByteBuffer bb) {
+		var count = (int) Math.min(bb.remaining(), remaining);
+		var tmp = bb.limit();
+		bb.limit(bb.position() + count);
+		long written;
+		try {
+			written = inflating ? inflate(bb) : output(bb);
+		} catch (DataFormatException | BufferOverflowException e) {
+			return error(ProcessStatus.ERROR);
+		} finally {
 			bb.limit(tmp);
-			bb.compact();
-			state = State.DONE;
-			content = ASCII.decode(internalbb.flip()).toString();
-			return ProcessStatus.DONE;
 		}
+		received += written;
+		remaining -= count;
+		if (written > 0 && file != null) {
+			listener.progress(base + received, header.isChunked() ? -1 : base + header.getContentLength());
+		}
+		return remaining == 0 ? ProcessStatus.DONE : ProcessStatus.REFILL;
+	}
+
+	/**
+	 *
+	 * @brief inflate the deflated bytes of bb and move the decoded bytes to their destination
+	 * @param bb the deflated bytes (read-mode), all of them are consumed
+	 * @return the number of decoded bytes
+	 * @throws DataFormatException when the bytes are not a valid deflate stream
+	 */
+	private long inflate(ByteBuffer bb) throws DataFormatException {
+		var written = 0L;
+		inflater.setInput(bb);
+		while (!inflater.finished()) {
+			inflated.clear();
+			if (inflater.inflate(inflated) == 0) {
+				if (inflater.needsDictionary()) {
+					throw new DataFormatException("preset dictionary not supported");
+				}
+				if (inflater.needsInput()) {
+					break;
+				}
+			}
+			written += output(inflated.flip());
+		}
+		if (bb.hasRemaining()) { // bytes after the end of the deflate stream
+			throw new DataFormatException("trailing bytes after the deflate stream");
+		}
+		return written;
+	}
+
+	/**
+	 *
+	 * @brief move decoded bytes of the body to the file, or to memory without file (they are discarded if the answer has no file)
+	 * @param bb the decoded bytes (read-mode), all of them are consumed
+	 * @return the number of bytes moved
+	 */
+	private long output(ByteBuffer bb) {
+		var count = bb.remaining();
+		try {
+			if (target == null) {
+				internalbb.put(bb);
+			} else if (file != null) {
+				while (bb.hasRemaining()) {
+					file.write(bb);
+				}
+			} else {
+				bb.position(bb.limit());
+			}
+		} catch (IOException ioe) {
+			state = State.ERROR;
+			closeTarget();
+			throw new UncheckedIOException(ioe);
+		}
+		return count;
+	}
+
+	/**
+	 *
+	 * @brief close the file of the streamed body, if any
+	 */
+	private void closeTarget() {
+		if (file == null) {
+			return;
+		}
+		try {
+			file.close();
+		} catch (IOException e) {
+			// ignore exception
+		}
+		file = null;
+	}
+
+	/**
+	 *
+	 * @brief get the header of the answer being read, before its body is received
+	 * @return the header, null while it is not read
+	 */
+	public HTTPHeader getHeader() {
+		return header;
 	}
 
 	@Override
@@ -78,9 +373,22 @@ public class HTTPReader implements Reader<HTTPFrame> {
 	@Override
 	public void reset() {
 		state = State.WAITING_HEADER;
+		header = null;
 		internalbb.clear();
 		headerReader.reset();
+		lineReader.reset();
+		closeTarget();
+		if (inflater != null) {
+			inflater.reset();
+		}
+		inflating = false;
+		target    = null;
+		listener  = null;
+		offset    = 0;
+		base      = 0;
+		received  = 0;
+		remaining = 0;
 	}
-	
-	
+
+
 }
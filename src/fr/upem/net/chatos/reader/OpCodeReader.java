@@ -2,7 +2,6 @@ package fr.upem.net.chatos.reader;
 
 import java.nio.ByteBuffer;
 import java.util.Objects;
-import java.util.Optional;
 
 import fr.upem.net.chatos.reader.Reader.ProcessStatus;
 
@@ -27,98 +26,113 @@ public class OpCodeReader{
 	
 	private State state = State.WAITING;
 	
-	//Readers
-	private final ConnectionRequestReader  CR         = new ConnectionRequestReader();
-	private final SendPrivateMessageReader SPM        = new SendPrivateMessageReader();
-	private final SendMessageAllReader     SMA        = new SendMessageAllReader();
-	private final ErrorCodeReader          ERROR      = new ErrorCodeReader();
-	private final TCPAskReader             TCPAsk     = new TCPAskReader();
-	private final TCPAcceptReader          TCPAccept  = new TCPAcceptReader();
-	private final TCPAbortReader           TCPDenied  = new TCPAbortReader();
-	private final TCPConnectReader         TCPConnect = new TCPConnectReader();
+	//Readers indexed by OpCode, created from the registry the first time their OpCode is read.
+	//Only one of them is active at a time so they share the same string buffer
+	private final OpCodeRegistry   registry;
+	private final FrameReader<?>[] readers;
+	private final StringReader     stringReader = new StringReader();
 	
-	private Optional<FrameReader<?>> reader = Optional.empty();
+	private FrameReader<?> reader; // null while waiting for the OpCode
+	
+	/**
+	 * OpCodeReader constructor, every frame is decoded
+	 */
+	public OpCodeReader() {
+		this(false);
+	}
+	
+	/**
+	 * OpCodeReader constructor
+	 * @param forwarding if true the PrivateMessage and MessageAll frames are not decoded,
+	 * they are given to the visitor as opaque messages to be relayed as they are
+	 */
+	public OpCodeReader(boolean forwarding) {
+		this(forwarding ? OpCodeRegistry.FORWARDING : OpCodeRegistry.CHATOS);
+	}
+	
+	/**
+	 * OpCodeReader constructor
+	 * @param registry the readers to use for each OpCode
+	 */
+	public OpCodeReader(OpCodeRegistry registry) {
+		Objects.requireNonNull(registry);
+		this.registry = registry;
+		this.readers  = new FrameReader<?>[registry.size()];
+	}
 	
 	/**
 	 * 
-	 * @brief initiate the reader in terms of the first byte of the bytebuffer
-	 * @param bb the bytebuffer to parse
-	 * @return the status of the current reader
+	 * @brief find the reader of an OpCode in the table
+	 * @param opCode the OpCode read
+	 * @return the reader or null if the OpCode is not registered
 	 */
-	private ProcessStatus getReader(ByteBuffer bb) {
-		if (bb.position() == 0) {
-			return ProcessStatus.REFILL;
+	private FrameReader<?> readerOf(byte opCode) {
+		var index = Byte.toUnsignedInt(opCode);
+		if (index >= readers.length) {
+			return null;
 		}
-		bb.flip();
-		switch(bb.get()) {
-		case CR_CODE:
-			reader = Optional.of(CR);
-			break;
-		case SPM_CODE:
-			reader = Optional.of(SPM);
-			break;
-		case SMA_CODE:
-			reader = Optional.of(SMA);
-			break;
-		case TCPASK_CODE:
-			reader = Optional.of(TCPAsk);
-			break;
-		case TCPACCEPT_CODE:
-			reader = Optional.of(TCPAccept);
-			break;
-		case TCPABORT_CODE:
-			reader = Optional.of(TCPDenied);
-			break;
-		case TCPCONNECT_CODE:
-			reader = Optional.of(TCPConnect);
-			break;
-		case ERROR_PACKET_CODE:
-			reader = Optional.of(ERROR);
-			break;
-		default:
-			return ProcessStatus.ERROR;
+		var frameReader = readers[index];
+		if (frameReader == null) {
+			var factory = registry.factory(index);
+			if (factory == null) {
+				return null;
+			}
+			frameReader = factory.create(stringReader);
+			readers[index] = frameReader;
 		}
-		bb.compact();
-		return ProcessStatus.DONE;
+		return frameReader;
 	}
 	
 	/**
 	 * 
 	 * @brief process the bytebuffer 
-	 * @param bb the bytebuffer to parse
+	 * @param bb the bytebuffer to parse (write-mode before and after the call)
 	 * @return the actual status of the reader
 	 */
 	public ProcessStatus process(ByteBuffer bb) {
+		Objects.requireNonNull(bb);
+		bb.flip();
+		try {
+			return consume(bb);
+		} finally {
+			bb.compact();
+		}
+	}
+	
+	/**
+	 * 
+	 * @brief process the bytebuffer from its position without compacting it,
+	 * several frames may be read before the caller compacts it once
+	 * @param bb the bytebuffer to parse (read-mode before and after the call)
+	 * @return the actual status of the reader
+	 */
+	public ProcessStatus consume(ByteBuffer bb) {
 		Objects.requireNonNull(bb);
 		if (state== State.DONE || state== State.ERROR) {
             throw new IllegalStateException();
         }
-		if (reader.isPresent()) {
-			var ps = reader.get().process(bb);
-			switch(ps) {
-			case DONE:
-				state = State.DONE;
-				return ps;
-			case ERROR:
-				state = State.ERROR;
-				return ps;
-			case REFILL:
-				return ps;
+		if (reader == null) {
+			if (!bb.hasRemaining()) {
+				return ProcessStatus.REFILL;
 			}
-		} else {
-			var ps = getReader(bb);
-			switch(ps) {
-			case DONE:
-				break;
-			case REFILL:
-				return ps;
-			case ERROR:
+			reader = readerOf(bb.get());
+			if (reader == null) {
 				state = State.ERROR;
 				return ProcessStatus.ERROR;
 			}
-			return process(bb);
 		}
-		return ProcessStatus.REFILL;
+		var ps = reader.consume(bb);
+		switch(ps) {
+		case DONE:
+			state = State.DONE;
+			break;
+		case ERROR:
+			state = State.ERROR;
+			break;
+		case REFILL:
+			break;
+		}
+		return ps;
 	}
 	
 	/**
@@ -133,7 +147,16 @@ public class OpCodeReader{
 		if (state != State.DONE) {
 			throw new IllegalStateException();
 		}
-		reader.get().accept(visitor, context);
+		reader.accept(visitor, context);
+	}
+
+	/**
+	 * 
+	 * @brief test if the reader is between two frames (no byte of the next frame was consumed)
+	 * @return true if no frame is being read
+	 */
+	public boolean isIdle() {
+		return state == State.WAITING && reader == null;
 	}
 
 	/**
@@ -142,9 +165,9 @@ public class OpCodeReader{
 	 */
 	public void reset() {
 		state = State.WAITING;
-		if (reader.isPresent()) {
-			reader.get().reset();
-			reader = Optional.empty();
+		if (reader != null) {
+			reader.reset();
+			reader = null;
 		}
 	}
 }
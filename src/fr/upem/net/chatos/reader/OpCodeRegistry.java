@@ -0,0 +1,106 @@
+package fr.upem.net.chatos.reader;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * 
+ * Table of the readers to use for each OpCode, indexed by the OpCode.
+ * New frames (batching, ping, rooms...) are added by registering their OpCode and the factory of their reader,
+ * the frame is then given to the visitor by the accept method of its reader.
+ * A registry must not be modified once it is given to an OpCodeReader.
+ */
+public final class OpCodeRegistry {
+	/**
+	 * Factory of the reader of a frame, called once per OpCodeReader the first time the OpCode is read
+	 */
+	@FunctionalInterface
+	public interface ReaderFactory {
+		/**
+		 * 
+		 * @brief create the reader of a frame
+		 * @param stringReader the string reader of the OpCodeReader, it may be used by the new reader
+		 * since only one reader of an OpCodeReader is active at a time
+		 * @return the new reader
+		 */
+		FrameReader<?> create(StringReader stringReader);
+	}
+	
+	// readers of the ChatOs protocol
+	static final OpCodeRegistry CHATOS = new OpCodeRegistry()
+			.register(OpCodeReader.CR_CODE,           ConnectionRequestReader::new)
+			.register(OpCodeReader.SPM_CODE,          SendPrivateMessageReader::new)
+			.register(OpCodeReader.SMA_CODE,          SendMessageAllReader::new)
+			.register(OpCodeReader.TCPASK_CODE,       TCPAskReader::new)
+			.register(OpCodeReader.TCPACCEPT_CODE,    TCPAcceptReader::new)
+			.register(OpCodeReader.TCPABORT_CODE,     TCPAbortReader::new)
+			.register(OpCodeReader.TCPCONNECT_CODE,   TCPConnectReader::new)
+			.register(OpCodeReader.ERROR_PACKET_CODE, stringReader -> new ErrorCodeReader());
+	
+	// readers of the ChatOs protocol, the private and public messages are not decoded
+	static final OpCodeRegistry FORWARDING = new OpCodeRegistry(CHATOS)
+			.register(OpCodeReader.SPM_CODE, stringReader -> new OpaqueMessageReader(OpCodeReader.SPM_CODE))
+			.register(OpCodeReader.SMA_CODE, stringReader -> new OpaqueMessageReader(OpCodeReader.SMA_CODE));
+	
+	private ReaderFactory[] factories = new ReaderFactory[0];
+	
+	/**
+	 * OpCodeRegistry constructor, no OpCode is registered
+	 */
+	public OpCodeRegistry() {
+	}
+	
+	/**
+	 * OpCodeRegistry constructor
+	 * @param registry the registry to copy
+	 */
+	public OpCodeRegistry(OpCodeRegistry registry) {
+		Objects.requireNonNull(registry);
+		this.factories = registry.factories.clone();
+	}
+	
+	/**
+	 * 
+	 * @brief get a copy of the registry of the ChatOs protocol, to be extended
+	 * @param forwarding if true the private and public messages are read as opaque messages
+	 * @return a new registry
+	 */
+	public static OpCodeRegistry chatOs(boolean forwarding) {
+		return new OpCodeRegistry(forwarding ? FORWARDING : CHATOS);
+	}
+	
+	/**
+	 * 
+	 * @brief register the reader of an OpCode, it replaces the reader previously registered for this OpCode
+	 * @param opCode the OpCode of the frame
+	 * @param factory the factory of the reader of the frame
+	 * @return this registry
+	 */
+	public OpCodeRegistry register(byte opCode, ReaderFactory factory) {
+		Objects.requireNonNull(factory);
+		var index = Byte.toUnsignedInt(opCode);
+		if (index >= factories.length) {
+			factories = Arrays.copyOf(factories, index + 1);
+		}
+		factories[index] = factory;
+		return this;
+	}
+	
+	/**
+	 * 
+	 * @return the size of the table : the highest OpCode registered + 1
+	 */
+	int size() {
+		return factories.length;
+	}
+	
+	/**
+	 * 
+	 * @brief get the factory of an OpCode
+	 * @param index the unsigned OpCode, lower than size()
+	 * @return the factory or null if the OpCode is not registered
+	 */
+	ReaderFactory factory(int index) {
+		return factories[index];
+	}
+}
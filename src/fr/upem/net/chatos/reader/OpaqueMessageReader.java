@@ -0,0 +1,123 @@
+package fr.upem.net.chatos.reader;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+
+import fr.upem.net.chatos.frame.OpaqueMessage;
+
+/**
+ * 
+ * Reader of a PrivateMessage or MessageAll frame which copies the bytes of the frame without decoding them.
+ * The array of the frame grows to the exact end of each field once its size is read, so the strings are copied
+ * only once and an idle reader holds no buffer : the array is handed to the frame (which outlives the reader)
+ */
+public class OpaqueMessageReader implements FrameReader<OpaqueMessage>{
+	private static final int    MAX_STRING_SIZE = 1024;
+	private static final byte[] EMPTY           = new byte[0];
+	
+	private enum State {
+		DONE,
+		WAITING_SIZE,
+		WAITING_STRING,
+		ERROR
+	};
+	
+	private final byte        opCode;
+	private final int         fieldCount;
+	private final ShortReader shortReader = new ShortReader();
+	
+	private State  state  = State.WAITING_SIZE;
+	private byte[] buffer = EMPTY; // the frame being read, from its OpCode
+	private byte[] frame;          // the frame read, once DONE
+	private int    position; // end of the bytes read in buffer
+	private int    fieldEnd; // end of the string being read in buffer
+	private int    field;
+	
+	/**
+	 * OpaqueMessageReader constructor
+	 * @param opCode the OpCode already read, SPM_CODE (3 strings) or SMA_CODE (2 strings)
+	 */
+	public OpaqueMessageReader(byte opCode) {
+		switch(opCode) {
+		case OpCodeReader.SPM_CODE:
+			fieldCount = 3;
+			break;
+		case OpCodeReader.SMA_CODE:
+			fieldCount = 2;
+			break;
+		default:
+			throw new IllegalArgumentException("Not a PrivateMessage or MessageAll OpCode : " + opCode);
+		}
+		this.opCode = opCode;
+	}
+	
+	@Override
+	public <T>void accept(FrameVisitor<T> visitor, T context) {
+		Objects.requireNonNull(visitor);
+		visitor.visit(this, context);
+	}
+	
+	@Override
+	public ProcessStatus consume(ByteBuffer bb) {
+		Objects.requireNonNull(bb);
+		if (state== State.DONE || state== State.ERROR) {
+			throw new IllegalStateException();
+		}
+		while (state != State.DONE) {
+			if (state == State.WAITING_SIZE) {
+				var ps = shortReader.consume(bb);
+				if (ps == ProcessStatus.REFILL) {
+					return ps;
+				}
+				int size = shortReader.get();
+				shortReader.reset();
+				if (size <= 0 || size > MAX_STRING_SIZE) {
+					state = State.ERROR;
+					return ProcessStatus.ERROR;
+				}
+				if (field == 0) {
+					buffer = new byte[1 + Short.BYTES + size];
+					buffer[0] = opCode;
+					position = 1;
+				} else {
+					buffer = Arrays.copyOf(buffer, position + Short.BYTES + size);
+				}
+				buffer[position++] = (byte) (size >>> 8);
+				buffer[position++] = (byte) size;
+				fieldEnd = position + size;
+				state = State.WAITING_STRING;
+			}
+			var length = Math.min(bb.remaining(), fieldEnd - position);
+			bb.get(buffer, position, length);
+			position += length;
+			if (position < fieldEnd) {
+				return ProcessStatus.REFILL;
+			}
+			field++;
+			state = field == fieldCount ? State.DONE : State.WAITING_SIZE;
+		}
+		frame  = buffer; // exactly the size of the frame
+		buffer = EMPTY;
+		return ProcessStatus.DONE;
+	}
+	
+	@Override
+	public OpaqueMessage get() {
+		if (state!= State.DONE) {
+			throw new IllegalStateException();
+		}
+		return new OpaqueMessage(frame);
+	}
+	
+	@Override
+	public void reset() {
+		state    = State.WAITING_SIZE;
+		frame    = null;
+		buffer   = EMPTY;
+		position = 0;
+		fieldEnd = 0;
+		field    = 0;
+		shortReader.reset();
+	}
+}
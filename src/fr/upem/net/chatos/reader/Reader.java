@@ -13,10 +13,28 @@ public interface Reader<T> {
     /**
      * 
      * @brief process the bytebuffer in parameter and update the status
+     * The bytebuffer is in write-mode before and after the call, the bytes read are removed from it
      * @param bb the bytebuffer to process
      * @return the updated status
      */
-    public ProcessStatus process(ByteBuffer bb);
+    public default ProcessStatus process(ByteBuffer bb) {
+    	bb.flip();
+    	try {
+    		return consume(bb);
+    	} finally {
+    		bb.compact();
+    	}
+    }
+
+    /**
+     * 
+     * @brief process the bytes between the position and the limit of the bytebuffer and update the status
+     * The bytebuffer is in read-mode before and after the call, its position is moved after the bytes read.
+     * It is never compacted so several frames may be read before the caller compacts it once
+     * @param bb the bytebuffer to process (read-mode)
+     * @return the updated status
+     */
+    public ProcessStatus consume(ByteBuffer bb);
 
     /**
      * 
@@ -15,11 +15,24 @@ public class SendMessageAllReader implements FrameReader<MessageAll> {
 	};
 	
     private State              state        = State.WAITING_LOGIN;
-    private final StringReader stringReader = new StringReader();
+    private final StringReader stringReader;
     
     private String login;
     private String message;
 
+    public SendMessageAllReader() {
+    	this(new StringReader());
+    }
+
+    /**
+     * SendMessageAllReader constructor
+     * @param stringReader the string reader to use, it may be shared with readers which are never active at the same time
+     */
+    SendMessageAllReader(StringReader stringReader) {
+    	Objects.requireNonNull(stringReader);
+    	this.stringReader = stringReader;
+    }
+
     
 	@Override
 	public <T>void accept(FrameVisitor<T> visitor, T context) {
@@ -28,12 +41,12 @@ public class SendMessageAllReader implements FrameReader<MessageAll> {
 	}
     
     @Override
-    public ProcessStatus process(ByteBuffer bb) {
+    public ProcessStatus consume(ByteBuffer bb) {
     	Objects.requireNonNull(bb);
         if (state== State.DONE || state== State.ERROR) {
             throw new IllegalStateException();
         }
-        var ps = stringReader.process(bb);
+        var ps = stringReader.consume(bb);
         switch(ps) {
         case REFILL:
         	return ps;
@@ -47,7 +60,7 @@ public class SendMessageAllReader implements FrameReader<MessageAll> {
         	state = State.WAITING_MESSAGE;
         	login = stringReader.get();
         	stringReader.reset();
-        	return process(bb);
+        	return consume(bb);
         }
     	state = State.DONE;
     	message = stringReader.get();
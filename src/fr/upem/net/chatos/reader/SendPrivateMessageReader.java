@@ -15,12 +15,25 @@ public class SendPrivateMessageReader implements FrameReader<PrivateMessage>{
 	};
 	
     private State              state        = State.WAITING_SENDER_LOGIN;
-    private final StringReader stringReader = new StringReader();
+    private final StringReader stringReader;
     
     private String sender;
     private String recipient;
     private String message;
 
+    public SendPrivateMessageReader() {
+    	this(new StringReader());
+    }
+
+    /**
+     * SendPrivateMessageReader constructor
+     * @param stringReader the string reader to use, it may be shared with readers which are never active at the same time
+     */
+    SendPrivateMessageReader(StringReader stringReader) {
+    	Objects.requireNonNull(stringReader);
+    	this.stringReader = stringReader;
+    }
+
     
 	@Override
 	public <T>void accept(FrameVisitor<T> visitor, T context) {
@@ -29,12 +42,12 @@ public class SendPrivateMessageReader implements FrameReader<PrivateMessage>{
 	}
     
     @Override
-    public ProcessStatus process(ByteBuffer bb) {
+    public ProcessStatus consume(ByteBuffer bb) {
     	Objects.requireNonNull(bb);
         if (state== State.DONE || state== State.ERROR) {
             throw new IllegalStateException();
         }
-        var ps = stringReader.process(bb);
+        var ps = stringReader.consume(bb);
         switch(ps) {
         case REFILL:
         	return ps;
@@ -49,12 +62,12 @@ public class SendPrivateMessageReader implements FrameReader<PrivateMessage>{
         	state = State.WAITING_LOGINR;
         	sender = stringReader.get();
         	stringReader.reset();
-        	return process(bb);
+        	return consume(bb);
         case WAITING_LOGINR:
         	state = State.WAITING_MESSAGE;
         	recipient = stringReader.get();
         	stringReader.reset();
-        	return process(bb);
+        	return consume(bb);
         case WAITING_MESSAGE:
         	state = State.DONE;
         	message = stringReader.get();
@@ -15,22 +15,17 @@ public class ShortReader implements Reader<Short> {
     private short value;
 
     @Override
-    public ProcessStatus process(ByteBuffer bb) {
+    public ProcessStatus consume(ByteBuffer bb) {
         if (state== State.DONE || state== State.ERROR) {
             throw new IllegalStateException();
         }
-        bb.flip();
-        try {
-            if (bb.remaining()<=internalbb.remaining()){
-                internalbb.put(bb);
-            } else {
-                var oldLimit = bb.limit();
-                bb.limit(internalbb.remaining());
-                internalbb.put(bb);
-                bb.limit(oldLimit);
-            }
-        } finally {
-            bb.compact();
+        if (internalbb.position() == 0 && bb.remaining() >= Short.BYTES) {
+            state=State.DONE;
+            value=bb.getShort();
+            return ProcessStatus.DONE;
+        }
+        while (bb.hasRemaining() && internalbb.hasRemaining()) {
+            internalbb.put(bb.get());
         }
         if (internalbb.hasRemaining()){
             return ProcessStatus.REFILL;
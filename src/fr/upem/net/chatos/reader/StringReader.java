@@ -23,12 +23,12 @@ public class StringReader implements Reader<String> {
 
     
     @Override
-    public ProcessStatus process(ByteBuffer bb) {
+    public ProcessStatus consume(ByteBuffer bb) {
         if (state== State.DONE || state== State.ERROR) {
             throw new IllegalStateException();
         }
         if (state == State.WAITING_INT) {
-	        var ps = shortReader.process(bb);
+	        var ps = shortReader.consume(bb);
 	        switch(ps) {
 	        case REFILL:
 	        	return ps;
@@ -46,16 +46,23 @@ public class StringReader implements Reader<String> {
 	        	return ps;
 	        }
         }
-        bb.flip();
+        if (internalbb.position() == 0 && bb.remaining() >= internalbb.limit()) {
+        	// the whole string is already there, it is decoded in place
+        	var oldLimit = bb.limit();
+        	bb.limit(bb.position() + internalbb.limit());
+        	value = UTF_8.decode(bb).toString();
+        	bb.limit(oldLimit);
+        	state = State.DONE;
+        	return ProcessStatus.DONE;
+        }
         if (bb.remaining()<=internalbb.remaining()){
     		internalbb.put(bb);
         } else {
         	var oldLimit = bb.limit();
-        	bb.limit(internalbb.remaining());
+        	bb.limit(bb.position() + internalbb.remaining());
         	internalbb.put(bb);
         	bb.limit(oldLimit);
         }
-        bb.compact();
         if (internalbb.hasRemaining()) {
         	return ProcessStatus.REFILL;
         }
@@ -3,6 +3,14 @@ package fr.upem.net.chatos.reader;
 import fr.upem.net.chatos.frame.TCPAbort;
 
 public class TCPAbortReader extends AbstractTCPFrameReader<TCPAbort> {
+	public TCPAbortReader() {
+		this(new StringReader());
+	}
+
+	TCPAbortReader(StringReader stringReader) {
+		super(stringReader);
+	}
+
 	@Override
 	public <T> void accept(FrameVisitor<T> visitor, T context) {
 		visitor.visit(this, context);
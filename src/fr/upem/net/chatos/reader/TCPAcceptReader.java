@@ -3,6 +3,13 @@ package fr.upem.net.chatos.reader;
 import fr.upem.net.chatos.frame.TCPAccept;
 
 public class TCPAcceptReader extends AbstractTCPFrameReader<TCPAccept> {
+	public TCPAcceptReader() {
+		this(new StringReader());
+	}
+
+	TCPAcceptReader(StringReader stringReader) {
+		super(stringReader);
+	}
 
 	@Override
 	public <T> void accept(FrameVisitor<T> visitor, T context) {
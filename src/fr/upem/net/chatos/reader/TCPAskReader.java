@@ -3,6 +3,14 @@ package fr.upem.net.chatos.reader;
 import fr.upem.net.chatos.frame.TCPAsk;
 
 public class TCPAskReader extends AbstractTCPFrameReader<TCPAsk> {
+	public TCPAskReader() {
+		this(new StringReader());
+	}
+
+	TCPAskReader(StringReader stringReader) {
+		super(stringReader);
+	}
+
 	@Override
 	public TCPAsk get() {
 		return new TCPAsk(super.getSender(), super.getRecipient(), super.getPassword());
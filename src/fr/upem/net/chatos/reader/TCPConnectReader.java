@@ -3,6 +3,14 @@ package fr.upem.net.chatos.reader;
 import fr.upem.net.chatos.frame.TCPConnect;
 
 public class TCPConnectReader extends AbstractTCPFrameReader<TCPConnect> {
+	public TCPConnectReader() {
+		this(new StringReader());
+	}
+
+	TCPConnectReader(StringReader stringReader) {
+		super(stringReader);
+	}
+
 	@Override
 	public <T> void accept(FrameVisitor<T> visitor, T context) {
 		visitor.visit(this, context);
@@ -0,0 +1,129 @@
+package fr.upem.net.chatos.server;
+
+import java.io.IOException;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Logger;
+
+/**
+ *
+ * Thread-per-connection backend : the connections are blocking, each one is read by its own thread
+ * (BlockingConnection) and, once logged in, written by a second one (BlockingSession). The threads are virtual
+ * threads when the JDK provides them (looked up by reflection since the project targets Java 14), platform threads otherwise.
+ * The frames are handled by the same visitors and routed by the same server as with the reactors.
+ */
+class BlockingBackend {
+	static private Logger logger = Logger.getLogger(BlockingBackend.class.getName());
+
+	private final ChatOsServer         server;
+	private final ThreadFactory        threads;
+	private final boolean              virtual;
+	private final TimerThread          timers   = new TimerThread("ChatOs-timers");
+	private final Set<BlockingSession> sessions = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * BlockingBackend constructor
+	 * @param server the Chat server
+	 */
+	BlockingBackend(ChatOsServer server) {
+		Objects.requireNonNull(server);
+		this.server = server;
+		var factory = virtualThreadFactory();
+		this.virtual = factory != null;
+		this.threads = virtual ? factory : task -> {
+			var thread = new Thread(task);
+			thread.setDaemon(true);
+			return thread;
+		};
+		if (!virtual) {
+			logger.info("No virtual threads in this JDK, platform threads are used");
+		}
+	}
+
+	/**
+	 *
+	 * @brief get the factory of the virtual threads (Thread.ofVirtual().factory(), Java 21)
+	 * @return the factory or null if the JDK has no virtual threads
+	 */
+	static private ThreadFactory virtualThreadFactory() {
+		try {
+			var builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			return null; // older JDK or preview feature not enabled
+		}
+	}
+
+	/**
+	 *
+	 * @brief accept the clients on the calling thread, each one gets its own thread
+	 * @param ssc the bound server socket channel
+	 * @throws IOException when accept throws it
+	 */
+	void launch(ServerSocketChannel ssc) throws IOException {
+		Objects.requireNonNull(ssc);
+		ssc.configureBlocking(true);
+		timers.start();
+		try {
+			while (!Thread.interrupted()) {
+				var sc = ssc.accept();
+				start(new BlockingConnection(server, this, sc));
+			}
+		} finally {
+			timers.shutdown();
+		}
+	}
+
+	/**
+	 *
+	 * @brief run a task on a new thread
+	 * @param task the task
+	 */
+	void start(Runnable task) {
+		threads.newThread(task).start();
+	}
+
+	/**
+	 *
+	 * @return the timer wheel of the backend
+	 */
+	TimeoutScheduler scheduler() {
+		return timers;
+	}
+
+	/**
+	 *
+	 * @brief add a logged in session to the sessions woken up by the broadcast messages
+	 * @param session the session
+	 */
+	void register(BlockingSession session) {
+		sessions.add(session);
+	}
+
+	/**
+	 *
+	 * @brief remove a closed session
+	 * @param session the session
+	 */
+	void unregister(BlockingSession session) {
+		sessions.remove(session);
+	}
+
+	/**
+	 *
+	 * @brief signal that new messages were appended to the broadcast log, every writer is woken up
+	 */
+	void broadcastAvailable() {
+		for (var session : sessions) {
+			session.wakeUp();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "BlockingBackend [" + (virtual ? "virtual" : "platform") + " threads, sessions : " + sessions.size() + "]";
+	}
+}
@@ -0,0 +1,252 @@
+package fr.upem.net.chatos.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import fr.upem.net.chatos.frame.ErrorCode;
+import fr.upem.net.chatos.frame.TCPAccept;
+import fr.upem.net.chatos.frame.TCPConnect;
+import fr.upem.net.chatos.reader.ConnectionRequestReader;
+import fr.upem.net.chatos.reader.ErrorCodeReader;
+import fr.upem.net.chatos.reader.FrameVisitor;
+import fr.upem.net.chatos.reader.OpCodeReader;
+import fr.upem.net.chatos.reader.OpaqueMessageReader;
+import fr.upem.net.chatos.reader.Reader.ProcessStatus;
+import fr.upem.net.chatos.reader.SendMessageAllReader;
+import fr.upem.net.chatos.reader.SendPrivateMessageReader;
+import fr.upem.net.chatos.reader.TCPAbortReader;
+import fr.upem.net.chatos.reader.TCPAcceptReader;
+import fr.upem.net.chatos.reader.TCPAskReader;
+import fr.upem.net.chatos.reader.TCPConnectReader;
+
+/**
+ *
+ * Reading thread of a connection of the blocking backend. Until the client logs in it plays the part
+ * of the WaitingContext (answers are written directly, nobody else writes to the client yet), then the
+ * frames are given to the shared visitor of the ChatSessions and written by the BlockingSession.
+ * A connection joining a TCP private connexion is handed to a BlockingTCPSide.
+ */
+class BlockingConnection implements Runnable {
+	static private Logger logger = Logger.getLogger(BlockingConnection.class.getName());
+
+	static private final int  BUFFER_SIZE   = 1_024;
+	static private final long LOGIN_TIMEOUT = 10_000_000_000L; // to log in or to join a TCP private connexion
+
+	private final ChatOsServer    server;
+	private final BlockingBackend backend;
+	private final SocketChannel   sc;
+	private final ByteBuffer      bbin = ByteBuffer.allocate(BUFFER_SIZE);
+	private OpCodeReader          reader = new OpCodeReader();
+
+	private volatile BlockingSession session;  // once logged in
+	private volatile boolean         handedOver; // to a TCP private connexion
+
+	final private TimerWheel.Timeout loginTimeout = new TimerWheel.Timeout() {
+		@Override
+		void expired() {
+			if (session == null && !handedOver) {
+				logger.info("Client did not log in within the login timeout, disconnecting");
+				silentlyClose();
+			}
+		}
+	};
+
+	final private FrameVisitor<BlockingConnection> visitor = new FrameVisitor<BlockingConnection>() {
+		@Override
+		public void visit(ConnectionRequestReader reader, BlockingConnection connection) {
+			requestPseudonym(reader.get());
+		}
+
+		@Override
+		public void visit(SendPrivateMessageReader reader, BlockingConnection connection) {
+			answer(ErrorCode.NOT_CONNECTED);
+		}
+
+		@Override
+		public void visit(SendMessageAllReader reader, BlockingConnection connection) {
+			answer(ErrorCode.NOT_CONNECTED);
+		}
+
+		@Override
+		public void visit(ErrorCodeReader reader, BlockingConnection connection) {
+			answer(ErrorCode.NOT_CONNECTED);
+		}
+
+		@Override
+		public void visit(TCPAskReader reader, BlockingConnection connection) {
+			answer(ErrorCode.NOT_CONNECTED);
+		}
+
+		@Override
+		public void visit(TCPAbortReader reader, BlockingConnection connection) {
+			answer(ErrorCode.NOT_CONNECTED);
+		}
+
+		@Override
+		public void visit(TCPConnectReader reader, BlockingConnection connection) {
+			computeTCPConnect(reader.get());
+		}
+
+		@Override
+		public void visit(TCPAcceptReader reader, BlockingConnection connection) {
+			computeTCPAccept(reader.get());
+		}
+
+		@Override
+		public void visit(OpaqueMessageReader reader, BlockingConnection connection) {
+			answer(ErrorCode.NOT_CONNECTED);
+		}
+	};
+
+	/**
+	 * BlockingConnection constructor
+	 * @param server the Chat server
+	 * @param backend the backend starting the threads
+	 * @param sc the accepted socket channel (blocking)
+	 */
+	BlockingConnection(ChatOsServer server, BlockingBackend backend, SocketChannel sc) {
+		Objects.requireNonNull(server);
+		Objects.requireNonNull(backend);
+		Objects.requireNonNull(sc);
+		this.server  = server;
+		this.backend = backend;
+		this.sc      = sc;
+	}
+
+	@Override
+	public void run() {
+		backend.scheduler().schedule(loginTimeout, LOGIN_TIMEOUT);
+		try {
+			while (!handedOver && sc.read(bbin) != -1) {
+				var current = session;
+				if (current != null) {
+					current.received();
+				}
+				processIn();
+			}
+		} catch (IOException ioe) {
+			logger.log(Level.INFO, "Connection closed with client due to IOException", ioe);
+		} finally {
+			backend.scheduler().cancel(loginTimeout);
+			if (!handedOver) {
+				silentlyClose();
+			}
+		}
+	}
+
+	/**
+	 * @brief Process the content of bbin, every complete frame is read then bbin is compacted once
+	 * @throws IOException when an answer cannot be written
+	 */
+	private void processIn() throws IOException {
+		bbin.flip();
+		try {
+			while (!handedOver) {
+				var ps = reader.consume(bbin);
+				if (ps == ProcessStatus.REFILL) {
+					return;
+				}
+				if (ps == ProcessStatus.ERROR) {
+					throw new IOException("Invalid frame");
+				}
+				var current = session;
+				if (current == null) {
+					reader.accept(visitor, this);
+				} else {
+					reader.accept(ChatSession.VISITOR, current);
+				}
+				reader.reset();
+			}
+		} finally {
+			bbin.compact();
+		}
+	}
+
+	/**
+	 * @brief write an ErrorCode to a client which is not logged in
+	 * @param code the code
+	 */
+	private void answer(byte code) {
+		var bb = ErrorCode.of(code).toByteBuffer(logger).get();
+		try {
+			while (bb.hasRemaining()) {
+				sc.write(bb);
+			}
+		} catch (IOException ioe) {
+			logger.log(Level.INFO, "Connection closed with client due to IOException", ioe);
+			silentlyClose();
+		}
+	}
+
+	/**
+	 * @brief log in with a pseudonym if it is available, the frames of the client are then relayed without being decoded
+	 * @param pseudo the pseudonym
+	 */
+	private void requestPseudonym(String pseudo) {
+		var candidate = new BlockingSession(server, backend, sc, pseudo);
+		if (!server.requestPseudonymAndAdd(pseudo, candidate)) {
+			answer(ErrorCode.PSEUDO_UNAVAILABLE);
+			return;
+		}
+		backend.scheduler().cancel(loginTimeout);
+		session = candidate;
+		reader = new OpCodeReader(true);
+		candidate.start();
+		candidate.queueFrame(ErrorCode.of(ErrorCode.OK));
+	}
+
+	/**
+	 * @brief join a TCP private connexion as recipient
+	 * @param message the message to compute
+	 */
+	private void computeTCPAccept(TCPAccept message) {
+		computeTCPFrameAnswer(server.tryTCPAccept(message, this::toTCPSide));
+	}
+
+	/**
+	 * @brief join a TCP private connexion as sender
+	 * @param message the message to compute
+	 */
+	private void computeTCPConnect(TCPConnect message) {
+		computeTCPFrameAnswer(server.tryTCPConnect(message, this::toTCPSide));
+	}
+
+	/**
+	 * @brief stop reading if the connection joined a TCP private connexion, relay the error otherwise
+	 * @param error the answer of the server
+	 */
+	private void computeTCPFrameAnswer(byte error) {
+		if (error != ErrorCode.OK) {
+			answer(error);
+		}
+	}
+
+	/**
+	 * @brief give the connection to a TCP private connexion, this thread stops reading
+	 * @return the side relaying the connection
+	 */
+	private TCPSide toTCPSide() {
+		handedOver = true;
+		return new BlockingTCPSide(backend, server.getBufferPool(), sc);
+	}
+
+	/**
+	 * @brief close the connection, and the session if the client is logged in
+	 */
+	private void silentlyClose() {
+		var current = session;
+		if (current != null) {
+			current.silentlyClose();
+			return;
+		}
+		try {
+			sc.close();
+		} catch (IOException e) {
+			// ignore exception
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package fr.upem.net.chatos.server;
+
+import java.io.IOException;
+import java.nio.channels.SocketChannel;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import fr.upem.net.chatos.frame.Frame;
+
+/**
+ *
+ * Logged in client of the blocking backend. The frames are read by the thread of its BlockingConnection
+ * and written by a thread of its own, parked while there is nothing to write. Like the ChatContexts the
+ * writing thread reads the broadcast messages directly from the broadcast log.
+ * The outbound budget is not applied : a slow client only blocks its own writing thread.
+ */
+class BlockingSession extends ChatSession {
+	static private Logger logger = Logger.getLogger(BlockingSession.class.getName());
+
+	private final ChatOsServer    server;
+	private final SocketChannel   sc;
+	private final BlockingBackend backend;
+	private final BroadcastLog    broadcastLog;
+	private final Queue<Frame>    queue  = new ConcurrentLinkedQueue<>();
+	private final OutboundQueue   out    = new OutboundQueue(); // only used by the writing thread
+	private final AtomicBoolean   closed = new AtomicBoolean();
+	private long                  broadcastCursor;              // only used by the writing thread
+	private volatile Thread       writer;
+
+	/**
+	 * BlockingSession constructor
+	 * @param server the Chat server
+	 * @param backend the backend starting the threads
+	 * @param sc the socket channel of the client (blocking)
+	 * @param login the login of the client
+	 */
+	BlockingSession(ChatOsServer server, BlockingBackend backend, SocketChannel sc, String login) {
+		super(server, login);
+		Objects.requireNonNull(backend);
+		Objects.requireNonNull(sc);
+		this.server          = server;
+		this.sc              = sc;
+		this.backend         = backend;
+		this.broadcastLog    = server.getBroadcastLog();
+		this.broadcastCursor = broadcastLog.head();
+	}
+
+	/**
+	 *
+	 * @brief start the writing thread and the keepalive of the session, called once it is logged in
+	 */
+	void start() {
+		backend.register(this);
+		backend.start(this::writeLoop);
+		startKeepAlive();
+	}
+
+	@Override
+	public void queueFrame(Frame frame) {
+		Objects.requireNonNull(frame);
+		queue.add(frame);
+		wakeUp();
+	}
+
+	/**
+	 *
+	 * @brief wake up the writing thread, called when frames or broadcast messages are available
+	 */
+	void wakeUp() {
+		var thread = writer;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	@Override
+	Object origin() {
+		return this;
+	}
+
+	@Override
+	TimeoutScheduler scheduler() {
+		return backend.scheduler();
+	}
+
+	@Override
+	boolean isOpen() {
+		return !closed.get();
+	}
+
+	@Override
+	long droppedBroadcasts() {
+		return 0;
+	}
+
+	@Override
+	int overBudgetCount() {
+		return 0;
+	}
+
+	@Override
+	public void silentlyClose() {
+		if (closed.getAndSet(true)) {
+			return;
+		}
+		server.removeLogin(getLogin(), this);
+		backend.unregister(this);
+		stopKeepAlive();
+		try {
+			sc.close();
+		} catch (IOException e) {
+			// ignore exception
+		}
+		wakeUp();
+	}
+
+	/**
+	 *
+	 * @brief body of the writing thread : encode what is waiting, write it with gathering writes, park otherwise
+	 */
+	private void writeLoop() {
+		writer = Thread.currentThread();
+		try {
+			while (!closed.get()) {
+				fill();
+				if (out.isEmpty()) {
+					LockSupport.park(this);
+					continue;
+				}
+				while (!out.isEmpty()) {
+					out.flush(sc);
+				}
+			}
+		} catch (IOException ioe) {
+			logger.log(Level.INFO, "Connection closed with client due to IOException", ioe);
+		} finally {
+			silentlyClose();
+		}
+	}
+
+	/**
+	 *
+	 * @brief encode the frames of the queue then add the broadcast messages following the cursor,
+	 * applies the lag policy of the log if the cursor was overwritten
+	 */
+	private void fill() {
+		while (!out.isFull()) {
+			var frame = queue.poll();
+			if (frame == null) {
+				break;
+			}
+			var optBB = frame.toByteBuffer(logger);
+			if (optBB.isPresent()) {
+				out.add(optBB.get());
+			}
+		}
+		while (broadcastCursor < broadcastLog.head() && !out.isFull()) {
+			var entry = broadcastLog.get(broadcastCursor);
+			if (entry == null) {
+				if (broadcastLog.policy() == BroadcastLog.LagPolicy.DISCONNECT) {
+					logger.info(getLogin() + " fell behind the broadcast log, disconnecting");
+					silentlyClose();
+					return;
+				}
+				var tail = broadcastLog.tail();
+				logger.info(getLogin() + " fell behind the broadcast log, skipping " + (tail - broadcastCursor) + " messages");
+				broadcastCursor = tail;
+				continue;
+			}
+			if (!entry.isFrom(this)) {
+				out.add(entry.frame());
+			}
+			broadcastCursor++;
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package fr.upem.net.chatos.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import fr.upem.net.chatos.frame.ErrorCode;
+
+/**
+ *
+ * Side of a TCP private connexion of the blocking backend : once paired, one thread per direction
+ * copies the bytes read on a side to the other one, with a buffer borrowed from the pool of the server.
+ * The end of the stream of a side is relayed by shutting the output of the other side down,
+ * both sides are closed once both directions have ended (or on an error).
+ */
+class BlockingTCPSide implements TCPSide {
+	static private Logger logger = Logger.getLogger(BlockingTCPSide.class.getName());
+
+	private final BlockingBackend backend;
+	private final BufferPool      pool;
+	private final SocketChannel   sc;
+	private final AtomicBoolean   closed = new AtomicBoolean();
+	private volatile BlockingTCPSide paired;
+	private volatile boolean         inputEnded; // the client of this side will not send anything else
+
+	/**
+	 * BlockingTCPSide constructor
+	 * @param backend the backend starting the threads
+	 * @param pool the pool of the relay buffers
+	 * @param sc the socket channel of the client (blocking)
+	 */
+	BlockingTCPSide(BlockingBackend backend, BufferPool pool, SocketChannel sc) {
+		Objects.requireNonNull(backend);
+		Objects.requireNonNull(pool);
+		Objects.requireNonNull(sc);
+		this.backend = backend;
+		this.pool    = pool;
+		this.sc      = sc;
+	}
+
+	@Override
+	public void pair(TCPSide recipient) {
+		Objects.requireNonNull(recipient);
+		var other = (BlockingTCPSide) recipient;
+		paired = other;
+		other.paired = this;
+		backend.start(() -> {
+			try {
+				writeOK();
+				other.writeOK();
+			} catch (IOException ioe) {
+				logger.log(Level.INFO, "TCP private connexion closed due to IOException", ioe);
+				silentlyClose();
+				return;
+			}
+			backend.start(other::relay);
+			relay();
+		});
+	}
+
+	@Override
+	public void silentlyClose() {
+		if (closed.getAndSet(true)) {
+			return;
+		}
+		try {
+			sc.close();
+		} catch (IOException e) {
+			// ignore exception
+		}
+		var other = paired;
+		if (other != null) {
+			other.silentlyClose();
+		}
+	}
+
+	/**
+	 *
+	 * @brief send the OK answering the TCPConnect / TCPAccept of the client
+	 * @throws IOException when write throws it
+	 */
+	private void writeOK() throws IOException {
+		var bb = ErrorCode.of(ErrorCode.OK).toByteBuffer(logger).get();
+		while (bb.hasRemaining()) {
+			sc.write(bb);
+		}
+	}
+
+	/**
+	 *
+	 * @brief copy the bytes of this side to the paired one until the end of the stream, which is relayed
+	 * by shutting the output of the paired side down. Both sides are closed when the other direction has ended too,
+	 * or immediately on an error
+	 */
+	private void relay() {
+		var bb = pool.acquire();
+		var other = paired;
+		try {
+			while (sc.read(bb) != -1) {
+				bb.flip();
+				while (bb.hasRemaining()) {
+					other.sc.write(bb);
+				}
+				bb.clear();
+			}
+			other.sc.shutdownOutput();
+		} catch (IOException ioe) {
+			logger.log(Level.INFO, "TCP private connexion closed due to IOException", ioe);
+			silentlyClose();
+			return;
+		} finally {
+			pool.release(bb);
+		}
+		inputEnded = true;
+		if (other.inputEnded) {
+			silentlyClose();
+		}
+	}
+}
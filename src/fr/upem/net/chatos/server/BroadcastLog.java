@@ -0,0 +1,168 @@
+package fr.upem.net.chatos.server;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ *
+ * Ring buffer of the MessageAll frames sent to every client.
+ * A message is encoded once when it is appended, then each ChatContext only keeps
+ * the sequence number of the next entry it has to write (its cursor).
+ * Appending is serialized, reading is lock free and may be done from any reactor.
+ */
+class BroadcastLog {
+	/**
+	 * What to do with a client whose cursor fell behind the oldest entry still in the ring
+	 */
+	enum LagPolicy {
+		SKIP_AHEAD, // lose the overwritten messages and continue from the oldest entry
+		DISCONNECT  // close the connection of the client
+	}
+
+	/**
+	 *
+	 * Encoded frame and the key of the client who sent it (it is not sent back to him)
+	 */
+	static final class Entry {
+		private final long       sequence;
+		private final long       offset; // bytes appended before this entry
+		private final Object     origin;
+		private final ByteBuffer frame;
+
+		private Entry(long sequence, long offset, Object origin, ByteBuffer frame) {
+			this.sequence = sequence;
+			this.offset   = offset;
+			this.origin   = origin;
+			this.frame    = frame;
+		}
+
+		/**
+		 *
+		 * @return the number of bytes of the encoded frame
+		 */
+		int size() {
+			return frame.remaining();
+		}
+
+		/**
+		 *
+		 * @brief test if the entry was sent by the given origin
+		 * @param origin the origin to test
+		 * @return true if the entry was appended by this origin
+		 */
+		boolean isFrom(Object origin) {
+			return this.origin == origin;
+		}
+
+		/**
+		 *
+		 * @return a new view of the encoded frame in read-mode, its content must not be modified
+		 */
+		ByteBuffer frame() {
+			return frame.duplicate();
+		}
+	}
+
+	private final AtomicReferenceArray<Entry> ring;
+	private final int                         capacity;
+	private final LagPolicy                   policy;
+	private volatile long                     head;
+	private long                              bytes; // bytes appended, guarded by this
+
+	/**
+	 * BroadcastLog constructor
+	 * @param capacity the number of messages kept
+	 * @param policy what to do with the clients falling behind
+	 */
+	BroadcastLog(int capacity, LagPolicy policy) {
+		Objects.requireNonNull(policy);
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity must be positive");
+		}
+		this.ring     = new AtomicReferenceArray<>(capacity);
+		this.capacity = capacity;
+		this.policy   = policy;
+	}
+
+	/**
+	 *
+	 * @return the policy for the clients falling behind
+	 */
+	LagPolicy policy() {
+		return policy;
+	}
+
+	/**
+	 *
+	 * @return the sequence number the next appended message will get
+	 */
+	long head() {
+		return head;
+	}
+
+	/**
+	 *
+	 * @return the sequence number of the oldest message still in the ring
+	 */
+	long tail() {
+		return Math.max(0, head - capacity);
+	}
+
+	/**
+	 *
+	 * @brief append an encoded frame to the log, the frame is not copied
+	 * @param origin the sender of the message (the message is not sent back to him)
+	 * @param frame the encoded frame in read-mode, it must not be modified afterwards
+	 */
+	synchronized void append(Object origin, ByteBuffer frame) {
+		Objects.requireNonNull(origin);
+		Objects.requireNonNull(frame);
+		var sequence = head;
+		var entry = new Entry(sequence, bytes, origin, frame.slice());
+		ring.set((int) (sequence % capacity), entry);
+		bytes += entry.size();
+		head = sequence + 1;
+	}
+
+	/**
+	 *
+	 * @brief get the number of bytes of the entries between two sequence numbers
+	 * @param from the first sequence number (included)
+	 * @param to the last sequence number (excluded), at most head()
+	 * @return the number of bytes, the overwritten entries are not counted
+	 */
+	long bytesBetween(long from, long to) {
+		if (from >= to) {
+			return 0;
+		}
+		var last = get(to - 1);
+		if (last == null) {
+			return 0;
+		}
+		for (var sequence = Math.max(from, tail()); sequence < to; sequence = Math.max(sequence + 1, tail())) {
+			var first = get(sequence);
+			if (first != null) {
+				return last.offset + last.size() - first.offset;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 *
+	 * @brief get the entry of the given sequence number
+	 * @param sequence a sequence number lower than head()
+	 * @return the entry or null if it was overwritten
+	 */
+	Entry get(long sequence) {
+		if (sequence >= head) {
+			throw new IllegalArgumentException("Entry " + sequence + " is not published yet");
+		}
+		var entry = ring.get((int) (sequence % capacity));
+		if (entry == null || entry.sequence != sequence) {
+			return null;
+		}
+		return entry;
+	}
+}
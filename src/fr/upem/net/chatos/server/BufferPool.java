@@ -0,0 +1,115 @@
+package fr.upem.net.chatos.server;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ *
+ * Server wide pool of direct buffers of the same size.
+ * The buffers are slices of large direct slabs, they are borrowed by the contexts
+ * and given back when the connection is closed. The pool may be used from any reactor.
+ */
+class BufferPool {
+	static private Logger logger = Logger.getLogger(BufferPool.class.getName());
+
+	private final int                               bufferSize;
+	private final int                               buffersPerSlab;
+	private final ConcurrentLinkedQueue<ByteBuffer> free          = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger                     inUse         = new AtomicInteger();
+	private final AtomicInteger                     highWaterMark = new AtomicInteger();
+	private volatile int                            allocated;
+
+	/**
+	 * BufferPool constructor, no memory is allocated before the first acquire
+	 * @param bufferSize the capacity of every buffer
+	 * @param buffersPerSlab the number of buffers allocated at once when the pool is empty
+	 */
+	BufferPool(int bufferSize, int buffersPerSlab) {
+		if (bufferSize <= 0 || buffersPerSlab <= 0) {
+			throw new IllegalArgumentException("sizes must be positive");
+		}
+		this.bufferSize     = bufferSize;
+		this.buffersPerSlab = buffersPerSlab;
+	}
+
+	/**
+	 *
+	 * @brief borrow a buffer from the pool
+	 * @return a cleared direct buffer (write-mode)
+	 */
+	ByteBuffer acquire() {
+		var bb = free.poll();
+		while (bb == null) {
+			allocateSlab();
+			bb = free.poll();
+		}
+		var used = inUse.incrementAndGet();
+		highWaterMark.accumulateAndGet(used, Math::max);
+		return bb;
+	}
+
+	/**
+	 *
+	 * @brief give a buffer back to the pool, it must not be used by the caller anymore
+	 * @param bb a buffer obtained with acquire
+	 */
+	void release(ByteBuffer bb) {
+		Objects.requireNonNull(bb);
+		if (!bb.isDirect() || bb.capacity() != bufferSize) {
+			throw new IllegalArgumentException("Buffer does not come from this pool");
+		}
+		bb.clear();
+		inUse.decrementAndGet();
+		free.add(bb);
+	}
+
+	/**
+	 *
+	 * @brief cut a new direct slab into buffers
+	 */
+	private synchronized void allocateSlab() {
+		if (!free.isEmpty()) {
+			return;
+		}
+		var slab = ByteBuffer.allocateDirect(bufferSize * buffersPerSlab);
+		for (var i = 0; i < buffersPerSlab; i++) {
+			slab.limit((i + 1) * bufferSize).position(i * bufferSize);
+			free.add(slab.slice());
+		}
+		allocated += buffersPerSlab;
+		logger.info("New slab allocated : " + this);
+	}
+
+	/**
+	 *
+	 * @return the number of buffers currently borrowed
+	 */
+	int inUse() {
+		return inUse.get();
+	}
+
+	/**
+	 *
+	 * @return the number of buffers ready to be borrowed
+	 */
+	int free() {
+		return allocated - inUse.get();
+	}
+
+	/**
+	 *
+	 * @return the highest number of buffers borrowed at the same time
+	 */
+	int highWaterMark() {
+		return highWaterMark.get();
+	}
+
+	@Override
+	public String toString() {
+		return "BufferPool [buffer size : " + bufferSize + ", in use : " + inUse() + ", free : " + free()
+			+ ", high-water mark : " + highWaterMark() + ", direct bytes : " + (long) allocated * bufferSize + "]";
+	}
+}
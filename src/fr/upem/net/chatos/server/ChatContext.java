@@ -7,189 +7,315 @@ import java.nio.channels.SocketChannel;
 import java.util.LinkedList;
 import java.util.Objects;
 import java.util.Queue;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import fr.upem.net.chatos.frame.ErrorCode;
 import fr.upem.net.chatos.frame.Frame;
-import fr.upem.net.chatos.frame.MessageAll;
-import fr.upem.net.chatos.frame.PrivateMessage;
-import fr.upem.net.chatos.frame.TCPAbort;
-import fr.upem.net.chatos.frame.TCPAsk;
-import fr.upem.net.chatos.reader.ConnectionRequestReader;
-import fr.upem.net.chatos.reader.FrameVisitor;
-import fr.upem.net.chatos.reader.ErrorCodeReader;
 import fr.upem.net.chatos.reader.OpCodeReader;
 import fr.upem.net.chatos.reader.Reader.ProcessStatus;
-import fr.upem.net.chatos.reader.SendMessageAllReader;
-import fr.upem.net.chatos.reader.SendPrivateMessageReader;
-import fr.upem.net.chatos.reader.TCPAbortReader;
-import fr.upem.net.chatos.reader.TCPAcceptReader;
-import fr.upem.net.chatos.reader.TCPAskReader;
-import fr.upem.net.chatos.reader.TCPConnectReader;
-
-class ChatContext implements Context {
-	static final private int BUFFER_SIZE = 1024;
+
+/**
+ *
+ * Context of a logged in client.
+ * A context with no partial frame and nothing to write hibernates : it gives its input buffer back
+ * to the pool and drops its reader and its queues, they are rebuilt on the next read or queued frame.
+ */
+class ChatContext extends ChatSession implements Context {
 	static private Logger logger = Logger.getLogger(ChatContext.class.getName());
 
     final private SelectionKey    key;
     final private SocketChannel   sc;
-    final private ByteBuffer      bbin  = ByteBuffer.allocate(BUFFER_SIZE);
-    final private ByteBuffer      bbout = ByteBuffer.allocate(BUFFER_SIZE);
-    final private Queue<Frame> queue = new LinkedList<>();
     final private ChatOsServer    server;
+    final private Reactor         reactor;
+    final private BroadcastLog    broadcastLog;
+    final private OutboundBudget  budget;
 
-    final private FrameVisitor<ChatContext> visitor = new FrameVisitor<ChatContext>(){
-
-    	@Override
-    	public void visit(ConnectionRequestReader reader, ChatContext context) {
-    		logger.info("Received ConnectionRequest");
-    		context.queueFrame(new ErrorCode(ErrorCode.ALREADY_CONNECTED));
-    	}
-
-    	@Override
-    	public void visit(SendPrivateMessageReader reader, ChatContext context) {
-    		logger.info("Received PrivateMessage");
-    		context.broadcast(reader.get());
-    	}
+    // null while the context hibernates
+    private ByteBuffer    bbin;
+    private OutboundQueue out;
+    private Queue<Frame>  queue;
+    private OpCodeReader  reader;
 
-    	@Override
-    	public void visit(SendMessageAllReader reader, ChatContext context) {
-    		logger.info("Received MessageAll");
-    		context.broadcast(reader.get());
-    	}
+    private boolean closed;
 
-    	@Override
-    	public void visit(ErrorCodeReader reader, ChatContext context) {
-    		logger.info("Received ErrorCode");
-    		//Do nothing
-    	}
+    private boolean dirty;    // waiting for the reactor to update the interestOps
+    private boolean writeNow; // write without waiting for OP_WRITE when the reactor updates the interestOps
 
-    	@Override
-    	public void visit(TCPAskReader reader, ChatContext context) {
-    		logger.info("Received TCPAsk");
-    		context.broadcast(reader.get());
-    	}
+    private long broadcastCursor;
 
-    	@Override
-    	public void visit(TCPAbortReader reader, ChatContext context) {
-    		logger.info("Received TCPAbort");
-    		context.broadcast(reader.get());
-    	}
+    private long queuedBytes;          // encoded size of the frames of queue
+    private long overBudgetSince = -1; // start of the grace period, -1 while under budget
+    private long dropFrom;             // broadcast messages lost with DROP_NEWEST : [dropFrom, dropTo)
+    private long dropTo;
+    private long checkedHead;          // broadcast messages already accepted with DROP_NEWEST
+    private boolean graceExpired;      // over budget for too long, closed by the reactor at the end of its iteration
 
-    	@Override
-    	public void visit(TCPConnectReader reader, ChatContext context) {
-    		logger.info("Received TCPConnect");
-    		context.queueFrame(new ErrorCode(ErrorCode.TCP_NOT_IN_PROTOCOLE));
-    	}
+    // read by the server stats from any thread
+    private volatile long droppedBroadcasts;
+    private volatile int  overBudgetCount;
 
+    final private TimerWheel.Timeout graceTimeout = new TimerWheel.Timeout() {
     	@Override
-    	public void visit(TCPAcceptReader reader, ChatContext context) {
-    		logger.info("Received TCPAccept");
-    		context.queueFrame(new ErrorCode(ErrorCode.TCP_NOT_IN_PROTOCOLE));
+    	void expired() {
+    		checkGracePeriod();
     	}
     };
 
-    final private OpCodeReader reader  = new OpCodeReader();
-
-    private final String login;
-
-    private boolean closed;
-
     /**
-     * ChatContext constructor
+     * ChatContext constructor, the context has to be attached to the key by the caller
      * @param server the Chat server
-     * @param key the selected key to attach to this context (server)
+     * @param reactor the reactor owning the key
+     * @param key the selected key of the client (server)
+     * @param login the login of the client
+     * @param bbin the input buffer of the client borrowed from the pool of the server (write-mode),
+     * the context gives it back when it is closed
      */
-    public ChatContext(ChatOsServer server, SelectionKey key, String login, ByteBuffer buffer){
-    	Objects.requireNonNull(server);
+    public ChatContext(ChatOsServer server, Reactor reactor, SelectionKey key, String login, ByteBuffer bbin){
+    	super(server, login);
+    	Objects.requireNonNull(reactor);
     	Objects.requireNonNull(key);
-    	Objects.requireNonNull(login);
-    	Objects.requireNonNull(buffer);
+    	Objects.requireNonNull(bbin);
         this.key = key;
         this.sc = (SocketChannel) key.channel();
         this.server = server;
-        this.login = login;
-        this.bbin.put(buffer);
-        key.attach(this);
+        this.reactor = reactor;
+        this.broadcastLog = server.getBroadcastLog();
+        this.budget = server.getOutboundBudget();
+        this.broadcastCursor = broadcastLog.head();
+        this.checkedHead = broadcastCursor;
+        this.bbin = bbin;
+        this.out = new OutboundQueue();
+        this.queue = new LinkedList<>();
+        this.reader = reactor.takeReader();
+    }
+
+    @Override
+    Object origin() {
+    	return key;
+    }
+
+    @Override
+    TimeoutScheduler scheduler() {
+    	return reactor;
+    }
+
+    @Override
+    boolean isOpen() {
+    	return key.isValid();
     }
 
     /**
-     * 
-     * @return the login of the context
+     *
+     * @return the selected key of the client
      */
-    public String getLogin() {
-		return login;
-	}
+    SelectionKey getKey() {
+    	return key;
+    }
 
     /**
-     * @brief Add a frame to the queue
+     *
+     * @return the number of broadcast messages this client lost for being over its outbound budget
+     */
+    @Override
+    long droppedBroadcasts() {
+    	return droppedBroadcasts;
+    }
+
+    /**
+     *
+     * @return the number of times this client went over its outbound budget
+     */
+    @Override
+    int overBudgetCount() {
+    	return overBudgetCount;
+    }
+
+    /**
+     * @brief Add a frame to the queue, may be called from any reactor
      * @param frame the command to add
      */
     public void queueFrame(Frame frame) {
     	Objects.requireNonNull(frame);
-    	queue.add(frame);
-    	updateInterestOps();
+    	reactor.execute(() -> {
+    		if (!key.isValid()) {
+    			return;
+    		}
+    		wakeUp();
+    		queue.add(frame);
+    		queuedBytes += Math.max(0, frame.encodedSize());
+    		enforceBudget();
+    		if (key.isValid()) {
+    			writeSoon();
+    		}
+    	});
     }
 
     /**
-     * @brief broadcast a message to every client connected Send back Invalid Pseudonym if the sender is not associated with this context
-     * @param message the message to broadcast
+     * @brief register the interest of the context for the messages appended to the broadcast log,
+     * must be called from the reactor thread
      */
-    public void broadcast(MessageAll message) {
-    	Objects.requireNonNull(message);
-    	if (!message.getSender().equals(login)) {
-    		queueFrame(new ErrorCode(ErrorCode.INVALID_PSEUDONYM));
+    void broadcastAvailable() {
+    	if (!key.isValid()) {
     		return;
     	}
-    	server.broadcast(message, key);
-    	queueFrame(new ErrorCode(ErrorCode.OK));
+    	enforceBudget();
+    	if (key.isValid()) {
+    		writeSoon();
+    	}
     }
 
     /**
-     * @brief broadcast a message to a recipient if it is connected
-     * send an ERROR packet to the client "OK" if the recipient is connected and
-     * Unreachable User otherwise
-     * Send back Invalid Pseudonym if the sender is not associated with this context
-     * @param message the message to broadcast
+     *
+     * @brief get the number of bytes waiting to be written : queued frames, encoded frames and broadcast messages
+     * following the cursor (except the ones dropped)
+     * @param head the head of the broadcast log
+     * @return the number of bytes
      */
-    public void broadcast(PrivateMessage message) {
-    	Objects.requireNonNull(message);
-    	if (!message.getSender().equals(login)) {
-    		queueFrame(new ErrorCode(ErrorCode.INVALID_PSEUDONYM));
-    		return;
+    private long pendingBytes(long head) {
+    	var pending = queuedBytes + broadcastLog.bytesBetween(broadcastCursor, head);
+    	if (out != null) {
+    		pending += out.size();
+    	}
+    	if (dropFrom < dropTo) {
+    		pending -= broadcastLog.bytesBetween(Math.max(dropFrom, broadcastCursor), dropTo);
     	}
-		queueFrame(new ErrorCode(server.broadcast(message)));
+    	return pending;
     }
 
     /**
-     * @brief broadcast a TCP private connexion ask request to a recipient
-     * @param message the message to broadcast
+     *
+     * @brief apply the policy of the outbound budget when the client has too many bytes waiting to be written,
+     * it is disconnected if it stays over budget longer than the grace period (checked again by a timeout at its end
+     * when nothing new is queued). The context is never closed here since it may be called while a frame is read,
+     * it is closed by applyInterestOps or by the timeout. Must be called from the reactor thread
      */
-    public void broadcast(TCPAsk message) {
-    	Objects.requireNonNull(message);
-    	if (!message.getSender().equals(login)) {
-    		queueFrame(new ErrorCode(ErrorCode.INVALID_PSEUDONYM));
-    		queueFrame(new TCPAbort(message.getSender(), message.getRecipient(), message.getPassword()));
+    private void enforceBudget() {
+    	var head = broadcastLog.head();
+    	if (dropFrom < dropTo && dropTo < head) {
+    		// still behind the messages dropped with DROP_NEWEST, the new ones are dropped too
+    		dropped(head - dropTo);
+    		dropTo = head;
+    	}
+    	var pending = pendingBytes(head);
+    	if (pending > budget.bytes()) {
+    		switch (budget.policy()) {
+    		case DROP_OLDEST:
+    			pending = dropOldestBroadcasts(head, pending);
+    			break;
+    		case DROP_NEWEST:
+    			pending = dropNewestBroadcasts(head, pending);
+    			break;
+    		default:
+    			break;
+    		}
+    	}
+    	checkedHead = head;
+    	if (pending <= budget.bytes()) {
+    		if (overBudgetSince >= 0) {
+    			overBudgetSince = -1;
+    			reactor.cancel(graceTimeout);
+    		}
     		return;
     	}
-    	var code = server.broadcast(message);
-    	queueFrame(new ErrorCode(code));
-    	if (code != ErrorCode.OK) {
-    		queueFrame(new TCPAbort(message.getSender(), message.getRecipient(), message.getPassword()));
+    	var now = System.nanoTime();
+    	if (overBudgetSince < 0) {
+    		overBudgetSince = now;
+    		overBudgetCount++;
+    		budget.overBudget();
+    		logger.info(getLogin() + " is over its outbound budget : " + pending + " bytes waiting");
+    		reactor.schedule(graceTimeout, budget.gracePeriod());
+    	}
+    	if (!graceExpired && now - overBudgetSince >= budget.gracePeriod()) {
+    		graceExpired = true;
+    		budget.disconnected();
+    		logger.info(getLogin() + " stayed over its outbound budget for too long, disconnecting");
     	}
     }
 
     /**
-     * @brief broadcast a abortion of the TCP private connexion request to a recipient
-     * @param message the message to broadcast
+     *
+     * @brief called by the timer wheel at the end of the grace period, the client is disconnected
+     * if it is still over budget even though nothing new was queued for it
      */
-    public void broadcast(TCPAbort message) {
-    	Objects.requireNonNull(message);
-    	if (!message.getRecipient().equals(login)) {
-    		queueFrame(new ErrorCode(ErrorCode.INVALID_PSEUDONYM));
+    private void checkGracePeriod() {
+    	if (!key.isValid() || overBudgetSince < 0) {
+    		return;
+    	}
+    	enforceBudget();
+    	if (graceExpired) {
+    		silentlyClose();
     		return;
     	}
-    	queueFrame(new ErrorCode(server.broadcast(message)));
+    	if (overBudgetSince >= 0) {
+    		reactor.schedule(graceTimeout, Math.max(0, overBudgetSince + budget.gracePeriod() - System.nanoTime()));
+    	}
+    }
+
+    /**
+     *
+     * @brief move the cursor past the oldest broadcast messages until the client is under budget
+     * @param head the head of the broadcast log
+     * @param pending the number of bytes waiting to be written
+     * @return the number of bytes still waiting
+     */
+    private long dropOldestBroadcasts(long head, long pending) {
+    	var count = 0;
+    	while (pending > budget.bytes() && broadcastCursor < head) {
+    		var entry = broadcastLog.get(broadcastCursor);
+    		if (entry == null) {
+    			break; // overwritten, the lag policy of the log applies
+    		}
+    		if (!entry.isFrom(key)) {
+    			count++;
+    		}
+    		pending -= entry.size();
+    		broadcastCursor++;
+    	}
+    	dropped(count);
+    	return pending;
+    }
+
+    /**
+     *
+     * @brief keep the new broadcast messages while they fit in the budget, the following ones are dropped
+     * (and every message appended until the cursor reaches them)
+     * @param head the head of the broadcast log
+     * @param pending the number of bytes waiting to be written
+     * @return the number of bytes still waiting
+     */
+    private long dropNewestBroadcasts(long head, long pending) {
+    	if (dropFrom < dropTo) {
+    		return pending; // the new messages are already dropped
+    	}
+    	var from = Math.max(checkedHead, broadcastCursor);
+    	var kept = pending - broadcastLog.bytesBetween(from, head);
+    	for (var sequence = from; sequence < head; sequence++) {
+    		var entry = broadcastLog.get(sequence);
+    		if (entry == null) {
+    			continue;
+    		}
+    		if (kept + entry.size() > budget.bytes()) {
+    			dropFrom = sequence;
+    			dropTo   = head;
+    			dropped(head - sequence);
+    			break;
+    		}
+    		kept += entry.size();
+    	}
+    	return kept;
+    }
+
+    /**
+     *
+     * @brief count broadcast messages lost by the client
+     * @param count the number of messages
+     */
+    private void dropped(long count) {
+    	if (count > 0) {
+    		droppedBroadcasts += count;
+    		budget.droppedBroadcasts(count);
+    	}
     }
 
     /**
@@ -200,16 +326,116 @@ class ChatContext implements Context {
     	closed = true;
     }
 
+    /**
+     *
+     * @return true if the context hibernates
+     */
+    boolean isHibernating() {
+    	return bbin == null;
+    }
+
+    /**
+     *
+     * @brief give bbin, the reader and the queues away if there is no partial frame and nothing to write
+     */
+    private void hibernateIfIdle() {
+    	if (isHibernating() || closed || !key.isValid() || bbin.position() != 0 || !reader.isIdle()
+    			|| !out.isEmpty() || !queue.isEmpty() || broadcastCursor < broadcastLog.head()) {
+    		return;
+    	}
+    	server.getBufferPool().release(bbin);
+    	reactor.recycleReader(reader);
+    	bbin   = null;
+    	reader = null;
+    	out    = null;
+    	queue  = null;
+    }
+
+    /**
+     *
+     * @brief give the reader back to the reactor when the context is not used (pseudonym unavailable),
+     * bbin and the key stay with the WaitingContext which built it
+     */
+    void discard() {
+    	reactor.recycleReader(reader);
+    	reader = null;
+    }
+
+    /**
+     *
+     * @brief rebuild bbin, the reader and the queues of a hibernating context
+     */
+    private void wakeUp() {
+    	if (!isHibernating()) {
+    		return;
+    	}
+    	bbin   = server.getBufferPool().acquire();
+    	reader = reactor.takeReader();
+    	out    = new OutboundQueue();
+    	queue  = new LinkedList<>();
+    }
+
+    /**
+     *
+     * @brief ask the reactor to update the interestOps of the key at the end of its select iteration,
+     * so that the frames queued and the broadcast messages of an iteration cost a single update
+     */
+    private void updateInterestOps() {
+    	if (!dirty) {
+    		dirty = true;
+    		reactor.markDirty(this);
+    	}
+    }
+
+    /**
+     *
+     * @brief write the new frames at the end of the select iteration if nothing was waiting to be written
+     * (OP_WRITE not registered) : the socket is most likely writable, no need to wait for the next select.
+     * OP_WRITE is only registered if bytes are left over
+     */
+    private void writeSoon() {
+    	if ((key.interestOps() & SelectionKey.OP_WRITE) == 0) {
+    		writeNow = true;
+    	}
+    	updateInterestOps();
+    }
+
     /**
      * 
-	 * @brief update the interestOps of the key
+	 * @brief update the interestOps of the key, called by the reactor once per select iteration.
+	 * The frames queued for an idle socket are written first
 	 */
-    private void updateInterestOps() {
+    void applyInterestOps() {
+    	dirty = false;
+    	if (writeNow && key.isValid()) {
+    		writeNow = false;
+    		try {
+    			write();
+    		} catch (IOException ioe) {
+    			logger.log(Level.INFO, "Connection closed with client due to IOException", ioe);
+    			silentlyClose();
+    		}
+    	}
+    	if (graceExpired) {
+    		silentlyClose();
+    		return;
+    	}
+    	if (!key.isValid()) {
+    		return;
+    	}
     	int intOps = 0;
+    	if (isHibernating()) {
+    		intOps |= SelectionKey.OP_READ;
+    		if (broadcastCursor < broadcastLog.head()) {
+    			intOps |= SelectionKey.OP_WRITE;
+    		}
+    		key.interestOps(intOps);
+    		return;
+    	}
     	if (!closed && bbin.hasRemaining()) {
     		intOps |= SelectionKey.OP_READ;
     	}
-    	if (bbout.position() > 0 || queue.size() != 0) {
+    	if (!out.isEmpty() || queue.size() != 0 || broadcastCursor < broadcastLog.head()) {
     		intOps |= SelectionKey.OP_WRITE;
     	}
     	if (intOps == 0) {
@@ -225,7 +451,13 @@ class ChatContext implements Context {
 	 */
     @Override
     public void silentlyClose() {
-    	server.removeLogin(login);
+    	server.removeLogin(getLogin(), this);
+    	stopKeepAlive();
+    	reactor.cancel(graceTimeout);
+    	if (!isHibernating()) {
+    		server.getBufferPool().release(bbin);
+    		bbin = null;
+    	}
         try {
             sc.close();
         } catch (IOException e) {
@@ -243,10 +475,18 @@ class ChatContext implements Context {
      */
     @Override
     public void doRead() throws IOException {
-    	if (sc.read(bbin) == -1) {
+    	wakeUp();
+    	var read = sc.read(bbin);
+    	if (read == -1) {
     		closed = true;
+    	} else if (read > 0) {
+    		received();
     	}
 		processIn();
+		if (!key.isValid()) {
+			return;
+		}
+		hibernateIfIdle();
     	updateInterestOps();
     }
         
@@ -254,56 +494,111 @@ class ChatContext implements Context {
      * @brief Process the content of bbin
      *
      * The convention is that bbin is in write-mode before the call
-     * to process and after the call
+     * to process and after the call. Every complete frame is read from the
+     * read-mode buffer then it is compacted once
      *
      */
     private void processIn() {
-		for (var ps = reader.process(bbin); ps != ProcessStatus.REFILL; ps = reader.process(bbin)) {
+    	if (graceExpired) {
+    		return;
+    	}
+    	bbin.flip();
+		for (var ps = reader.consume(bbin); ps != ProcessStatus.REFILL; ps = reader.consume(bbin)) {
 			if (ps == ProcessStatus.ERROR) {
 				silentlyClose();
 				return;
-			} else {
-				reader.accept(visitor, this);
-				reader.reset();
+			}
+			reader.accept(VISITOR, this);
+			reader.reset();
+			if (!key.isValid()) {
+				return; // closed by the frame, bbin is given back
+			}
+			if (graceExpired) {
+				break; // the following frames are not dispatched, the context is about to be closed
 			}
 		}
+		bbin.compact();
     }
         
     /**
-     * @brief Try to fill bbout from the queue
+     * @brief Encode the frames of the queue then the broadcast messages into the outbound queue
      *
      */
     private void processOut() {
-		while (!queue.isEmpty()) {
-			var frame = queue.peek();
+		while (!queue.isEmpty() && !out.isFull()) {
+			var frame = queue.remove();
+			queuedBytes -= Math.max(0, frame.encodedSize());
 			var optBB = frame.toByteBuffer(logger);
-			if (optBB.isEmpty()) {
-				queue.remove();
-			}
-			var bb = optBB.get();
-			if (bb.remaining() <= bbout.remaining()) {
-				queue.remove();
-				bbout.put(bb);
-			} else {
-				break;
+			if (optBB.isPresent()) {
+				out.add(optBB.get());
 			}
 		}
+		processOutBroadcast();
     }
 
-	/**	
-     * @brief Performs the write action on sc
+    /**
+     * @brief Add the broadcast messages following the cursor to the outbound queue (without copy),
+     * applies the lag policy of the log if the cursor was overwritten
      *
-     * The convention is that both buffers are in write-mode before the call
-     * to doWrite and after the call
+     */
+    private void processOutBroadcast() {
+    	while (broadcastCursor < broadcastLog.head() && !out.isFull()) {
+    		if (dropFrom < dropTo && broadcastCursor >= dropFrom) {
+    			broadcastCursor = Math.max(broadcastCursor, dropTo);
+    			dropFrom = dropTo;
+    			continue;
+    		}
+    		var entry = broadcastLog.get(broadcastCursor);
+    		if (entry == null) {
+    			if (broadcastLog.policy() == BroadcastLog.LagPolicy.DISCONNECT) {
+    				logger.info(getLogin() + " fell behind the broadcast log, disconnecting");
+    				silentlyClose();
+    				return;
+    			}
+    			var tail = broadcastLog.tail();
+    			logger.info(getLogin() + " fell behind the broadcast log, skipping " + (tail - broadcastCursor) + " messages");
+    			broadcastCursor = tail;
+    			continue;
+    		}
+    		if (entry.isFrom(key)) {
+    			broadcastCursor++;
+    			continue;
+    		}
+    		out.add(entry.frame());
+    		broadcastCursor++;
+    	}
+    }
+
+	/**	
+     * @brief Performs the write action on sc, every encoded frame is given to a single gathering write
      *
      * @throws IOException
      */
     @Override
     public void doWrite() throws IOException {
+    	write();
+    	if (key.isValid()) {
+    		updateInterestOps();
+    	}
+    }
+
+    /**
+     * @brief Encode the waiting frames and write them with a single gathering write,
+     * then hibernate if everything was written
+     *
+     * @throws IOException
+     */
+    private void write() throws IOException {
+    	wakeUp();
     	processOut();
-    	bbout.flip();
-    	sc.write(bbout);
-    	bbout.compact();
-    	updateInterestOps();
+    	if (!key.isValid()) {
+    		return;
+    	}
+    	out.flush(sc);
+    	enforceBudget();
+    	if (!key.isValid()) {
+    		return;
+    	}
+    	hibernateIfIdle();
     }
 }
@@ -3,22 +3,23 @@ package fr.upem.net.chatos.server;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
-import java.nio.channels.SelectableChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
-import java.util.logging.Level;
+import java.util.function.Supplier;
 import java.util.logging.Logger;
 
 import fr.upem.net.chatos.frame.ErrorCode;
 import fr.upem.net.chatos.frame.MessageAll;
+import fr.upem.net.chatos.frame.OpaqueMessage;
 import fr.upem.net.chatos.frame.PrivateMessage;
 import fr.upem.net.chatos.frame.TCPAbort;
 import fr.upem.net.chatos.frame.TCPAccept;
@@ -30,55 +31,62 @@ import fr.upem.net.chatos.frame.TCPFrame;
 public class ChatOsServer {
 	/*-----------------------TCP RELATED PART------------------------*/
 	/**
-	 * 
-	 * Class representing a TCP protocole message.
+	 *
+	 * Class representing and ongoing TCP connection protocol waiting for both sides to connect,
+	 * it is aborted if they are not connected before its timeout (on the timer wheel of the sender)
 	 */
-	private class TCPKey {
-		private final String sender;
-		private final String recipient;
-		private final short  password;
+	private class TCPLink extends TimerWheel.Timeout {
+		private final String           sender;
+		private final String           recipient;
+		private final short            password;
+		private final long             key;
+		private final TimeoutScheduler scheduler;
+		private Optional<TCPSide> senderContext    = Optional.empty();
+		private Optional<TCPSide> recipientContext = Optional.empty();
 
 		/**
-		 * TCPKey constructor
-		 * @param sender the pseudonym of the sender client
-		 * @param recipient the pseudonym of the recipient client
-		 * @param password the TCP private connexion password
+		 * TCPLink constructor
+		 * @param ask the request starting the TCP private connexion
+		 * @param key the rendezvous key
+		 * @param scheduler the timer wheel of the sender, it holds the timeout
 		 */
-		public TCPKey(String sender, String recipient, short password) {
-			Objects.requireNonNull(sender);
-			Objects.requireNonNull(recipient);
-			this.sender = sender;
-			this.recipient = recipient;
-			this.password = password;
+		public TCPLink(TCPAsk ask, long key, TimeoutScheduler scheduler) {
+			Objects.requireNonNull(ask);
+			Objects.requireNonNull(scheduler);
+			this.sender    = ask.getSender();
+			this.recipient = ask.getRecipient();
+			this.password  = ask.getPassword();
+			this.key       = key;
+			this.scheduler = scheduler;
 		}
 
+		/**
+		 *
+		 * @brief called by the timer wheel : abort the rendezvous if it is still waiting
+		 */
 		@Override
-		public boolean equals(Object obj) {
-			if (!(obj instanceof TCPKey)){
-				return false;
+		void expired() {
+			synchronized (waitingTCPConnections) {
+				if (waitingTCPConnections.get(key) != this) {
+					return;
+				}
+				waitingTCPConnections.remove(key);
+				expiredRendezvous++;
 			}
-			var tcpKey = (TCPKey) obj;
-			return password == tcpKey.password
-					&& sender.equals(tcpKey.sender)
-					&& recipient.equals(tcpKey.recipient);
+			logger.info("TCP private connexion between " + sender + " and " + recipient + " expired");
+			abort();
 		}
 
-		@Override
-		public int hashCode() {
-			return sender.hashCode()^recipient.hashCode()+password;
+		/**
+		 *
+		 * @brief cancel the timeout once the rendezvous is removed, may be called from any reactor
+		 */
+		public void cancelTimeout() {
+			scheduler.cancel(this);
 		}
-	}
-
-	/**
-	 * 
-	 * Class representing and ongoing TCP connection protocol waiting for both sides to connect
-	 */
-	private class TCPLink {
-		private Optional<TCPContext> senderContext    = Optional.empty();
-		private Optional<TCPContext> recipientContext = Optional.empty();
 
 		/**
-		 * 
+		 *
 		 * @brief check if a the both client in a TCP private connexion are present
 		 * @return if the both client are present
 		 */
@@ -87,39 +95,35 @@ public class ChatOsServer {
 		}
 
 		/**
-		 * 
-		 * @brief connect the sender to this context
-		 * @param key the context seleted key
-		 * @param sc the context socket channel
+		 *
+		 * @brief connect the sender to this link
+		 * @param side creates the side of the sender, only called if the sender is not connected yet
 		 * @return if the connexion is set (false if the sender is already connected / present)
 		 */
-		public boolean connectSenderContext(SelectionKey key, SocketChannel sc) {
+		public boolean connectSenderContext(Supplier<TCPSide> side) {
 			if (senderContext.isPresent()) {
 				return false;
 			}
-			var context = new TCPContext(key, sc,new ErrorCode(ErrorCode.OK).toByteBuffer(logger).get());
-			senderContext = Optional.of(context);
+			senderContext = Optional.of(side.get());
 			return true;
 		}
 
 		/**
-		 * 
-		 * @brief connect the recipient to this context
-		 * @param key the context selected key
-		 * @param sc the context selcket channel
+		 *
+		 * @brief connect the recipient to this link
+		 * @param side creates the side of the recipient, only called if the recipient is not connected yet
 		 * @return if the connexion is set (false if the recipient is already connected/ present)
 		 */
-		public boolean connectRecipientContext(SelectionKey key, SocketChannel sc) {
+		public boolean connectRecipientContext(Supplier<TCPSide> side) {
 			if (recipientContext.isPresent()) {
 				return false;
 			}
-			var context = new TCPContext(key, sc, new ErrorCode(ErrorCode.OK).toByteBuffer(logger).get());
-			recipientContext = Optional.of(context);
+			recipientContext = Optional.of(side.get());
 			return true;
 		}
 
 		/**
-		 * 
+		 *
 		 * @brief close the sender & the recipient sockets channels
 		 */
 		public void close() {
@@ -128,132 +132,318 @@ public class ChatOsServer {
 		}
 
 		/**
-		 * 
+		 *
+		 * @brief give up the TCP private connexion : close the sockets channels already connected
+		 * and send a TCPAbort to both clients if they are still connected
+		 */
+		public void abort() {
+			close();
+			var abort = new TCPAbort(sender, recipient, password);
+			var senderContext = clientLoginMap.get(sender);
+			if (senderContext != null) {
+				senderContext.queueFrame(abort);
+			}
+			var recipientContext = clientLoginMap.get(recipient);
+			if (recipientContext != null) {
+				recipientContext.queueFrame(abort);
+			}
+		}
+
+		/**
+		 *
 		 * @brief connect sender and recipient each other
 		 */
 		public void connect() {
 			if (!bothConnected()) {
 				throw new IllegalStateException("Missing connections");
 			}
-			senderContext.get().setPairedContext(recipientContext.get());
-			recipientContext.get().setPairedContext(senderContext.get());
+			senderContext.get().pair(recipientContext.get());
 		}
 	}
 
-	private final HashMap<TCPKey, TCPLink> waitingTCPConnections = new HashMap<>();
+	static private final long TCP_RENDEZVOUS_TIMEOUT = 30_000_000_000L;
+
+	// guarded by itself
+	private final RendezvousTable<TCPLink> waitingTCPConnections = new RendezvousTable<>();
+	private long expiredRendezvous; // guarded by waitingTCPConnections
+
+	/**
+	 *
+	 * @brief get the rendezvous key of a TCP private connexion
+	 * @param message a frame of the TCP private connexion
+	 * @return the key or -1 if the sender or the recipient is not connected
+	 */
+	private long rendezvousKey(TCPFrame message) {
+		var sender    = clientLoginMap.get(message.getSender());
+		var recipient = clientLoginMap.get(message.getRecipient());
+		if (sender == null || recipient == null) {
+			return -1;
+		}
+		return RendezvousTable.key(sender.getUserId(), recipient.getUserId(), message.getPassword());
+	}
 
     /**
-     * @brief Add a new pair TCPKey/TCPLink to the map if possible
+     * @brief Add a new rendezvous for the TCP private connexion if possible, it expires if both sides
+     * are not connected in time
      * @param message the message to send
-     * @return TCP_IN_PROTOCOLE if the key is already in the map (duplicated request) 
+     * @param scheduler the timer wheel of the sender, it handles the timeout of the rendezvous
+     * @return TCP_IN_PROTOCOLE if the rendezvous already exists (duplicated request)
      * UNREACHABLE USER if the recipient is not connected, OK otherwise
      */
-    public byte broadcast(TCPAsk message) {
+    public byte broadcast(TCPAsk message, TimeoutScheduler scheduler) {
     	Objects.requireNonNull(message);
-    	if (!clientLoginMap.containsKey(message.getRecipient())) {
+    	Objects.requireNonNull(scheduler);
+    	var recipient = clientLoginMap.get(message.getRecipient());
+    	var key = rendezvousKey(message);
+    	if (recipient == null || key < 0) {
     		System.out.println("UNREACHABLE");
     		return ErrorCode.UNREACHABLE_USER;
     	}
-    	var key = new TCPKey(message.getSender(), message.getRecipient(), message.getPassword());
-		if (waitingTCPConnections.containsKey(key)) {
-			System.out.println("IN_PROTOCOLE");
-			return ErrorCode.TCP_IN_PROTOCOLE;
-		}
-		waitingTCPConnections.put(key, new TCPLink());
-		clientLoginMap.get(message.getRecipient()).queueFrame(message);
+    	var link = new TCPLink(message, key, scheduler);
+    	synchronized (waitingTCPConnections) {
+    		if (!waitingTCPConnections.putIfAbsent(key, link)) {
+    			System.out.println("IN_PROTOCOLE");
+    			return ErrorCode.TCP_IN_PROTOCOLE;
+    		}
+    	}
+    	// outside of the lock since the timeouts run with the lock of their scheduler, the link may already be removed
+    	scheduler.schedule(link, TCP_RENDEZVOUS_TIMEOUT);
+		recipient.queueFrame(message);
     	return ErrorCode.OK;
 	}
 
     /**
-     * @brief Remove the pair TCPKey/TCPLink if it exists.
+     * @brief Remove the rendezvous of the TCP private connexion if it exists.
      * @param message the message to convey
-     * @return  TCP_IN_PROTOCOLE if the key is not in the map (request not initiated)
-     * UNREACHABLE USER if the recipient is not connected and OK otherwise
+     * @return  TCP_NOT_IN_PROTOCOLE if there is no rendezvous (request not initiated or one of the clients left)
+     * UNREACHABLE USER if the sender is not connected and OK otherwise
      */
     public byte broadcast(TCPAbort message) {
     	Objects.requireNonNull(message);
-    	
-    	var key = new TCPKey(message.getSender(), message.getRecipient(), message.getPassword());
-    	if (!waitingTCPConnections.containsKey(key)) {
+
+    	var key = rendezvousKey(message);
+    	TCPLink link = null;
+    	if (key >= 0) {
+    		synchronized (waitingTCPConnections) {
+    			link = waitingTCPConnections.remove(key);
+    		}
+    	}
+    	if (link == null) {
     		return ErrorCode.TCP_NOT_IN_PROTOCOLE;
     	}
-    	waitingTCPConnections.remove(key).close();
-    	if (!clientLoginMap.containsKey(message.getSender())) {
+    	link.cancelTimeout();
+    	link.close();
+    	var sender = clientLoginMap.get(message.getSender());
+    	if (sender == null) {
     		return ErrorCode.UNREACHABLE_USER;
     	}
-    	clientLoginMap.get(message.getSender()).queueFrame(message);
-    	clientLoginMap.get(message.getRecipient()).queueFrame(message);
+    	sender.queueFrame(message);
+    	var recipient = clientLoginMap.get(message.getRecipient());
+    	if (recipient != null) {
+    		recipient.queueFrame(message);
+    	}
     	return ErrorCode.OK;
     }
 
     /**
-     * 
+     *
      * @brief accept the connexion of a TCP private connexion if possible
      * @param message the tcp frame request
-     * @param context the concerned context
-     * @param consumer the selected key (TCPKey on a consumer)
+     * @param consumer connects the side of the request to the rendezvous
      * @return the ErrorCode in terms of some tests
      */
     private byte acceptConnectionTMP(TCPFrame message, Consumer<TCPLink> consumer) {
     	if (!clientLoginMap.containsKey(message.getSender())) {
     		return ErrorCode.UNREACHABLE_USER;
     	}
-    	var key = new TCPKey(message.getSender(), message.getRecipient(), message.getPassword());
-    	if (!waitingTCPConnections.containsKey(key)) {
+    	var key = rendezvousKey(message);
+    	if (key < 0) {
     		return ErrorCode.TCP_NOT_IN_PROTOCOLE;
     	}
-    	var link = waitingTCPConnections.get(key);
-    	consumer.accept(link);
-    	if (link.bothConnected()) {
+    	TCPLink link;
+    	synchronized (waitingTCPConnections) {
+    		link = waitingTCPConnections.get(key);
+    		if (link == null) {
+    			return ErrorCode.TCP_NOT_IN_PROTOCOLE;
+    		}
+    		consumer.accept(link);
+    		if (!link.bothConnected()) {
+    			return ErrorCode.OK;
+    		}
     		link.connect();
     		waitingTCPConnections.remove(key);
     	}
+    	link.cancelTimeout();
     	return ErrorCode.OK;
     }
 
     /**
      * @brief broadcast a message (TCPAccept) to the context
      * @param message the message TCPAccept
-     * @param context the context to change to TCPContext
+     * @param side creates the side of the recipient from its connexion
      * @return the ErrorCode calculated
      */
-    public byte tryTCPAccept(TCPAccept message, SelectionKey key, SocketChannel sc) {
+    public byte tryTCPAccept(TCPAccept message, Supplier<TCPSide> side) {
     	Objects.requireNonNull(message);
-    	Objects.requireNonNull(key);
-    	Objects.requireNonNull(sc);
-    	clientLoginMap.get(message.getSender()).queueFrame(message);
+    	Objects.requireNonNull(side);
+    	var sender = clientLoginMap.get(message.getSender());
+    	if (sender != null) {
+    		sender.queueFrame(message);
+    	}
     	return acceptConnectionTMP(message, (link) -> {
-        	link.connectRecipientContext(key, sc);
+        	link.connectRecipientContext(side);
     	});
     }
 
     /**
-     * 
+     *
      * @brief broadcast a message (TCPConnect) to the context
      * @param message the message TCPConnect
-     * @param context the concerned context
+     * @param side creates the side of the sender from its connexion
      * @return the calculated ErrorCode
      */
-    public byte tryTCPConnect(TCPConnect message, SelectionKey key, SocketChannel sc) {
+    public byte tryTCPConnect(TCPConnect message, Supplier<TCPSide> side) {
     	Objects.requireNonNull(message);
-    	Objects.requireNonNull(key);
-    	Objects.requireNonNull(sc);
+    	Objects.requireNonNull(side);
     	System.out.println("starting TCPConnect");
     	return acceptConnectionTMP(message, (link) -> {
-        	link.connectSenderContext(key, sc);
+        	link.connectSenderContext(side);
     	});
     }
+
+    /**
+     *
+     * @return the number of rendezvous waiting for their TCP private connexion, the size of the table
+     * and the number of rendezvous expired
+     */
+    public String getRendezvousStats() {
+    	synchronized (waitingTCPConnections) {
+    		var seconds = (System.nanoTime() - startTime) / 1e9;
+    		return "Rendezvous [waiting : " + waitingTCPConnections.size() + ", capacity : " + waitingTCPConnections.capacity()
+    			+ ", expired : " + expiredRendezvous
+    			+ String.format(" (%.3f/s)", expiredRendezvous / seconds) + "]";
+    	}
+    }
 	/*-----------------------END OF TCP RELATED PART------------------------*/
     static private Logger logger = Logger.getLogger(ChatOsServer.class.getName());
 
-    private final HashMap<String, ChatContext> clientLoginMap = new HashMap<>();
+    static private final long STATS_INTERVAL = 60_000_000_000L;
+
+    /**
+     *
+     * Periodic report of the statistics of the server (connection buffers, outbound budget and rendezvous),
+     * logged by a timer of the backend which schedules it again once run
+     */
+    private class StatsReport extends TimerWheel.Timeout {
+    	private final TimeoutScheduler scheduler;
+
+    	/**
+    	 * StatsReport constructor
+    	 * @param scheduler the timers of the backend, they run the report
+    	 */
+    	private StatsReport(TimeoutScheduler scheduler) {
+    		this.scheduler = scheduler;
+    	}
+
+    	@Override
+    	void expired() {
+    		logger.info(getBufferPoolStats());
+    		logger.info(getOutboundStats());
+    		logger.info(getRendezvousStats());
+    		scheduler.schedule(this, STATS_INTERVAL);
+    	}
+    }
+
+    /**
+     * Transport of the connections, the frames are handled and routed the same way by both
+     */
+    public enum Backend {
+    	SELECTOR, // non blocking connections shared by the reactors
+    	THREADS   // blocking connections, a thread per connection (virtual threads when the JDK has them)
+    }
+
+    static private final int BROADCAST_LOG_CAPACITY = 4_096;
+    static private final int BUFFER_SIZE            = 1_024;
+    static private final int BUFFERS_PER_SLAB       = 256;
+    static private final int  OUTBOUND_BUDGET       = 64 * 1_024;
+    static private final long GRACE_PERIOD          = 10_000_000_000L;
+    static private final int  MAX_REPORTED_CLIENTS  = 10;
+
+    private final ConcurrentHashMap<String, ChatSession> clientLoginMap = new ConcurrentHashMap<>();
+    private final BroadcastLog broadcastLog;
+    private final OutboundBudget outboundBudget;
+    private final BufferPool bufferPool = new BufferPool(BUFFER_SIZE, BUFFERS_PER_SLAB);
+    private final UserIds userIds = new UserIds();
+    private final long startTime = System.nanoTime();
     private final ServerSocketChannel serverSocketChannel;
     private final Selector selector;
+    private final Reactor[] reactors;
+    private final BlockingBackend blockingBackend; // null with the SELECTOR backend
+    private int nextReactor;
 
+    /**
+     * ChatOsServer constructor, every client is handled by a single reactor
+     * @param port the listening port
+     * @throws IOException when the server socket or the selectors cannot be opened
+     */
     public ChatOsServer(int port) throws IOException {
+    	this(port, 1);
+    }
+
+    /**
+     * ChatOsServer constructor
+     * @param port the listening port
+     * @param reactorCount the number of selector threads sharing the clients
+     * @throws IOException when the server socket or the selectors cannot be opened
+     */
+    public ChatOsServer(int port, int reactorCount) throws IOException {
+    	this(port, reactorCount, BroadcastLog.LagPolicy.SKIP_AHEAD,
+    			new OutboundBudget(OUTBOUND_BUDGET, OutboundBudget.Policy.DROP_OLDEST, GRACE_PERIOD));
+    }
+
+    /**
+     * ChatOsServer constructor
+     * @param port the listening port
+     * @param reactorCount the number of selector threads sharing the clients
+     * @param lagPolicy what to do with the clients too slow to read the broadcast messages
+     * @param outboundBudget the bytes every client may have waiting to be written and what to do when it is exceeded
+     * @throws IOException when the server socket or the selectors cannot be opened
+     */
+    ChatOsServer(int port, int reactorCount, BroadcastLog.LagPolicy lagPolicy, OutboundBudget outboundBudget) throws IOException {
+    	this(port, Backend.SELECTOR, reactorCount, lagPolicy, outboundBudget);
+    }
+
+    /**
+     * ChatOsServer constructor
+     * @param port the listening port
+     * @param backend the transport of the connections
+     * @param reactorCount the number of selector threads sharing the clients (SELECTOR backend only)
+     * @param lagPolicy what to do with the clients too slow to read the broadcast messages
+     * @param outboundBudget the bytes every client may have waiting to be written and what to do when it is exceeded
+     * (SELECTOR backend only, a blocking writer simply waits for its client)
+     * @throws IOException when the server socket or the selectors cannot be opened
+     */
+    ChatOsServer(int port, Backend backend, int reactorCount, BroadcastLog.LagPolicy lagPolicy, OutboundBudget outboundBudget) throws IOException {
+    	Objects.requireNonNull(backend);
+    	Objects.requireNonNull(outboundBudget);
+    	if (reactorCount < 1) {
+    		throw new IllegalArgumentException("At least one reactor is needed");
+    	}
         serverSocketChannel = ServerSocketChannel.open();
         serverSocketChannel.bind(new InetSocketAddress(port));
         selector = Selector.open();
+        broadcastLog = new BroadcastLog(BROADCAST_LOG_CAPACITY, lagPolicy);
+        this.outboundBudget = outboundBudget;
+        if (backend == Backend.THREADS) {
+        	reactors = new Reactor[0];
+        	blockingBackend = new BlockingBackend(this);
+        	return;
+        }
+        reactors = new Reactor[reactorCount];
+        for (var i = 0; i < reactorCount; i++) {
+        	reactors[i] = new Reactor(this, i);
+        }
+        blockingBackend = null;
     }
 
     /**
@@ -267,33 +457,34 @@ public class ChatOsServer {
 
     /**
      * @brief Link the new created context to the pseudonym
-     * 
+     *
      * @param pseudo the pseudonym to add
      * @param context the context to link
      * @throws IllegalArgumentException if the pseudonym is already taken
      */
-    public void addChatContext(String pseudo, ChatContext context) {
+    public void addChatContext(String pseudo, ChatSession context) {
     	logger.info("Adding a new ChatContext");
-    	if (clientLoginMap.containsKey(pseudo)) {
+    	if (!requestPseudonymAndAdd(pseudo, context)) {
     		throw new IllegalArgumentException("Pseudo already taken");
     	}
-    	clientLoginMap.put(pseudo, context);
     }
 
 	/**
-     * @brief Add the pair pseudonym/context to the map only if the key is not in the map
+     * @brief Add the pair pseudonym/context to the map only if the key is not in the map,
+     * the context gets a user id (used as key of its TCP private connexions)
      * @return true if the pseudonym is available
      */
-    public boolean requestPseudonymAndAdd(String pseudo, ChatContext context) {
-    	if (clientLoginMap.containsKey(pseudo)) {
+    public boolean requestPseudonymAndAdd(String pseudo, ChatSession context) {
+    	context.setUserId(userIds.allocate());
+    	if (clientLoginMap.putIfAbsent(pseudo, context) != null) {
+    		userIds.release(context.getUserId());
     		return false;
     	}
-    	clientLoginMap.put(pseudo, context);
     	return true;
     }
 
     /**
-     * 
+     *
      * @brief Broadcast a private message to the correct recipient if it exist
      * @param message the message to broadcast
      * @param sender SelectionKey of the sender
@@ -302,57 +493,181 @@ public class ChatOsServer {
      */
     public byte broadcast(PrivateMessage message) {
     	Objects.requireNonNull(message);
-    	if (!clientLoginMap.containsKey(message.getRecipient())) {
+    	var context = clientLoginMap.get(message.getRecipient());
+    	if (context == null) {
     		return ErrorCode.UNREACHABLE_USER;
-    	} else {
-    		var context = clientLoginMap.get(message.getRecipient());
-    		context.queueFrame(message);
-    		return ErrorCode.OK;
     	}
+    	context.queueFrame(message);
+    	return ErrorCode.OK;
     }
 
     /**
-     * 
-     * @brief Broadcast a message to every person connected with the exception of the sender
-     * @param message the message to broadcast
-     * @param sender SelectionKey of the sender 
+     *
+     * @brief Relay a private message, as it was received, to its recipient if it exists
+     * @param message the private message to relay
+     * @return UNREACHABLE_USER if the recipient is not connected, OK otherwise
      */
-    public void broadcast(MessageAll message, SelectionKey senderKey) {
+    public byte forward(OpaqueMessage message) {
     	Objects.requireNonNull(message);
-    	Objects.requireNonNull(senderKey);
-    	for (SelectionKey key : selector.keys()) {
-    		if (key.isValid() && !key.isAcceptable() && !key.equals(senderKey) && key.attachment() instanceof ChatContext) {
-    			var context = (ChatContext) key.attachment();
-    			context.queueFrame(message);
+    	var context = clientLoginMap.get(message.getRecipient());
+    	if (context == null) {
+    		return ErrorCode.UNREACHABLE_USER;
+    	}
+    	context.queueFrame(message);
+    	return ErrorCode.OK;
+    }
+
+    /**
+     *
+     * @return the pool of the connection buffers
+     */
+    BufferPool getBufferPool() {
+    	return bufferPool;
+    }
+
+    /**
+     *
+     * @return the usage of the connection buffers (in use, free and high-water mark)
+     */
+    public String getBufferPoolStats() {
+    	return bufferPool.toString();
+    }
+
+    /**
+     *
+     * @return the outbound budget of the clients
+     */
+    OutboundBudget getOutboundBudget() {
+    	return outboundBudget;
+    }
+
+    /**
+     *
+     * @return the events of the outbound budget (server wide) and the slowest clients connected
+     */
+    public String getOutboundStats() {
+    	var slowClients = new ArrayList<ChatSession>();
+    	for (var context : clientLoginMap.values()) {
+    		if (context.droppedBroadcasts() != 0 || context.overBudgetCount() != 0) {
+    			slowClients.add(context);
     		}
     	}
+    	slowClients.sort(Comparator.comparingLong(ChatSession::droppedBroadcasts).reversed());
+    	var sb = new StringBuilder(outboundBudget.toString());
+    	for (var context : slowClients.subList(0, Math.min(MAX_REPORTED_CLIENTS, slowClients.size()))) {
+    		sb.append("\n\t").append(context.getLogin()).append(" : ").append(context.droppedBroadcasts())
+    			.append(" broadcast messages dropped, over budget ").append(context.overBudgetCount()).append(" times");
+    	}
+    	return sb.toString();
+    }
+
+    /**
+     *
+     * @return the log of the messages sent to every client
+     */
+    BroadcastLog getBroadcastLog() {
+    	return broadcastLog;
     }
 
     /**
-     * 
-     * @brief launch the server
+     *
+     * @brief Broadcast a message to every person connected with the exception of the sender.
+     * The message is encoded once in the broadcast log, each ChatContext writes it from there
+     * @param message the message to broadcast
+     * @param origin the origin of the sender in the broadcast log
+     */
+    public void broadcast(MessageAll message, Object origin) {
+    	Objects.requireNonNull(message);
+    	Objects.requireNonNull(origin);
+    	var optBB = message.toByteBuffer(logger);
+    	if (optBB.isEmpty()) {
+    		return;
+    	}
+    	broadcastLog.append(origin, optBB.get());
+    	broadcastAvailable();
+    }
+
+    /**
+     *
+     * @brief Broadcast a public message, as it was received, to every person connected with the exception of the sender
+     * @param message the public message to broadcast
+     * @param origin the origin of the sender in the broadcast log
+     */
+    public void broadcast(OpaqueMessage message, Object origin) {
+    	Objects.requireNonNull(message);
+    	Objects.requireNonNull(origin);
+    	broadcastLog.append(origin, message.toByteBuffer(logger).get());
+    	broadcastAvailable();
+    }
+
+    /**
+     *
+     * @brief wake up the writers of the broadcast messages
+     */
+    private void broadcastAvailable() {
+    	if (blockingBackend != null) {
+    		blockingBackend.broadcastAvailable();
+    		return;
+    	}
+    	for (var reactor : reactors) {
+    		reactor.broadcastAvailable();
+    	}
+    }
+
+    /**
+     *
+     * @brief launch the server : start the reactors (or the blocking backend) and accept clients on the calling thread
      * @throws IOException when configureBlocking throws it
      */
     public void launch() throws IOException {
+    	if (blockingBackend != null) {
+    		logger.info("Launching the server with " + blockingBackend);
+    		var scheduler = blockingBackend.scheduler();
+    		scheduler.schedule(new StatsReport(scheduler), STATS_INTERVAL);
+    		blockingBackend.launch(serverSocketChannel);
+    		return;
+    	}
+    	reactors[0].schedule(new StatsReport(reactors[0]), STATS_INTERVAL);
 		serverSocketChannel.configureBlocking(false);
 		serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
-		while(!Thread.interrupted()) {
-			printKeys(); // for debug
-			try {
-				selector.select(this::treatKey);
-			} catch (UncheckedIOException tunneled) {
-				throw tunneled.getCause();
+		for (var reactor : reactors) {
+			reactor.start();
+		}
+		try {
+			while(!Thread.interrupted()) {
+				try {
+					selector.select(this::treatKey);
+				} catch (UncheckedIOException tunneled) {
+					throw tunneled.getCause();
+				}
+			}
+		} finally {
+			for (var reactor : reactors) {
+				reactor.shutdown();
 			}
 		}
     }
 
     /**
-     * 
+     *
+     * @brief close the listening socket and the selectors of the server, once launch returned
+     * or if the server was never launched
+     * @throws IOException when the server socket cannot be closed
+     */
+    void close() throws IOException {
+    	for (var reactor : reactors) {
+    		reactor.shutdown();
+    	}
+    	selector.close();
+    	serverSocketChannel.close();
+    }
+
+    /**
+     *
      * @brief treat server key
      * @param key the server key
      */
     private void treatKey(SelectionKey key) {
-		printSelectedKey(key); // for debug
 		try {
 			if (key.isValid() && key.isAcceptable()) {
 				doAccept(key);
@@ -361,35 +676,23 @@ public class ChatOsServer {
 			// lambda call in select requires to tunnel IOException
 			throw new UncheckedIOException(ioe);
 		}
-		try {
-			if (key.isValid() && key.isWritable()) {
-				((Context) key.attachment()).doWrite();
-			}
-			if (key.isValid() && key.isReadable()) {
-				((Context) key.attachment()).doRead();
-			}
-		} catch (IOException e) {
-			logger.log(Level.INFO,"Connection closed with client due to IOException",e);
-			((Context) key.attachment()).silentlyClose();
-			if (key.attachment() instanceof ChatContext) {
-				var login = ((ChatContext)key.attachment()).getLogin();
-				clientLoginMap.remove(login);
-			}
-		}
 	}
-    
+
     /**
-     * 
+     *
      * @brief remove a login from the client login container
      * @param login the login to remove
+     * @param context the context currently linked to the login
      */
-    void removeLogin(String login) {
-    	clientLoginMap.remove(login);
+    void removeLogin(String login, ChatSession context) {
+    	if (clientLoginMap.remove(login, context)) {
+    		userIds.release(context.getUserId());
+    	}
     }
 
     /**
-     * 
-     * @brief attach a new ChatContext to a key
+     *
+     * @brief hand the accepted client to the least loaded reactor
      * @param key the server key
      * @throws IOException when accept throws it
      */
@@ -400,117 +703,68 @@ public class ChatOsServer {
 			return;
 		}
 		sc.configureBlocking(false);
-		var newKey = sc.register(selector, SelectionKey.OP_READ);
-		newKey.attach(new WaitingContext(this,newKey));
+		leastLoadedReactor().accept(sc);
     }
 
     /**
-     * 
+     *
+     * @brief find the reactor with the fewest connections, ties are broken round-robin
+     * @return the chosen reactor
+     */
+    private Reactor leastLoadedReactor() {
+    	var best = reactors[nextReactor];
+    	for (var i = 1; i < reactors.length; i++) {
+    		var reactor = reactors[(nextReactor + i) % reactors.length];
+    		if (reactor.load() < best.load()) {
+    			best = reactor;
+    		}
+    	}
+    	nextReactor = (nextReactor + 1) % reactors.length;
+    	return best;
+    }
+
+    /**
+     *
      * @brief main method starting a ChatOs server
-     * @param args usage : port
+     * @param args usage : [-backend selector|threads] port [reactors [policy [budget [grace]]]]
      * @throws NumberFormatException when the port arg is not a number
      * @throws IOException when ServerChatOs throw an IOException
      */
     public static void main(String[] args) throws NumberFormatException, IOException {
-        if (args.length!=1){
+        var backend = Backend.SELECTOR;
+        if (args.length >= 2 && args[0].equals("-backend")) {
+        	try {
+        		backend = Backend.valueOf(args[1].toUpperCase());
+        	} catch (IllegalArgumentException iae) {
+        		usage();
+        		return;
+        	}
+        	args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        if (args.length < 1 || args.length > 5){
             usage();
             return;
         }
-        new ChatOsServer(Integer.parseInt(args[0])).launch();
+        var reactorCount = args.length >= 2 ? Integer.parseInt(args[1]) : 1;
+        OutboundBudget.Policy policy;
+        try {
+        	policy = args.length >= 3 ? OutboundBudget.Policy.valueOf(args[2].toUpperCase().replace('-', '_'))
+        			: OutboundBudget.Policy.DROP_OLDEST;
+        } catch (IllegalArgumentException iae) {
+        	usage();
+        	return;
+        }
+        var budget = args.length >= 4 ? Integer.parseInt(args[3]) : OUTBOUND_BUDGET;
+        var gracePeriod = args.length == 5 ? Long.parseLong(args[4]) * 1_000_000_000L : GRACE_PERIOD;
+        new ChatOsServer(Integer.parseInt(args[0]), backend, reactorCount, BroadcastLog.LagPolicy.SKIP_AHEAD,
+        		new OutboundBudget(budget, policy, gracePeriod)).launch();
     }
 
     /**
-     * 
+     *
      * @brief print the usage of the server
      */
     private static void usage(){
-        System.out.println("Usage : ChatOsServer port");
+        System.out.println("Usage : ChatOsServer [-backend selector|threads] port [reactors [drop-oldest|drop-newest|disconnect [budget-bytes [grace-seconds]]]]");
     }
-
-    /**
-	 * 
-	 * @brief get a string format of a key
-	 * @param key the key to parse in a string
-	 * @return the string key
-	 */
-	private String interestOpsToString(SelectionKey key){
-		if (!key.isValid()) {
-			return "CANCELLED";
-		}
-		int interestOps = key.interestOps();
-		ArrayList<String> list = new ArrayList<>();
-		if ((interestOps&SelectionKey.OP_ACCEPT)!=0) list.add("OP_ACCEPT");
-		if ((interestOps&SelectionKey.OP_READ)!=0) list.add("OP_READ");
-		if ((interestOps&SelectionKey.OP_WRITE)!=0) list.add("OP_WRITE");
-		return String.join("|",list);
-	}
-
-	/**
-	 * 
-	 * @brief print the client selectionned keys 
-	 */
-	public void printKeys() {
-		Set<SelectionKey> selectionKeySet = selector.keys();
-		if (selectionKeySet.isEmpty()) {
-			System.out.println("The selector contains no key : this should not happen!");
-			return;
-		}
-		System.out.println(selectionKeySet);
-		System.out.println("The selector contains:");
-		for (SelectionKey key : selectionKeySet){
-			SelectableChannel channel = key.channel();
-			if (channel instanceof ServerSocketChannel) {
-				System.out.println("\tKey for ServerSocketChannel : "+ interestOpsToString(key));
-			} else {
-				SocketChannel sc = (SocketChannel) channel;
-				System.out.println("\tKey for Client "+ remoteAddressToString(sc) +" : "+ interestOpsToString(key));
-			}
-		}
-	}
-
-	/**
-	 * 
-	 * @brief get a string format of the remote address of a socket channel
-	 * @param sc the interested socket channel
-	 * @return the string format of the remote address
-	 */
-	private String remoteAddressToString(SocketChannel sc) {
-		try {
-			return sc.getRemoteAddress().toString();
-		} catch (IOException e){
-			return "???";
-		}
-	}
-
-	/**
-	 * 
-	 * @brief print a selected key
-	 * @param key the key to print
-	 */
-	public void printSelectedKey(SelectionKey key) {
-		SelectableChannel channel = key.channel();
-		if (channel instanceof ServerSocketChannel) {
-			System.out.println("\tServerSocketChannel can perform : " + possibleActionsToString(key));
-		} else {
-			SocketChannel sc = (SocketChannel) channel;
-			System.out.println("\tClient " + remoteAddressToString(sc) + " can perform : " + possibleActionsToString(key));
-		}
-	}
-
-	/**
-	 * 
-	 * @brief print the possible channel of a key
-	 * @param key the key to examined
-	 * @return a string format of possible actions
-	 */
-	private String possibleActionsToString(SelectionKey key) {
-		if (!key.isValid()) {
-			return "CANCELLED";
-		}
-		ArrayList<String> list = new ArrayList<>();
-		if (key.isAcceptable()) list.add("ACCEPT");
-		if (key.isReadable()) list.add("READ");
-		if (key.isWritable()) list.add("WRITE");
-		return String.join(" and ",list);
-	}
 }
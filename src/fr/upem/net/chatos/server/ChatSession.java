@@ -0,0 +1,316 @@
+package fr.upem.net.chatos.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+import fr.upem.net.chatos.frame.ErrorCode;
+import fr.upem.net.chatos.frame.Frame;
+import fr.upem.net.chatos.frame.MessageAll;
+import fr.upem.net.chatos.frame.OpaqueMessage;
+import fr.upem.net.chatos.frame.PrivateMessage;
+import fr.upem.net.chatos.frame.TCPAbort;
+import fr.upem.net.chatos.frame.TCPAsk;
+import fr.upem.net.chatos.reader.ConnectionRequestReader;
+import fr.upem.net.chatos.reader.ErrorCodeReader;
+import fr.upem.net.chatos.reader.FrameVisitor;
+import fr.upem.net.chatos.reader.OpaqueMessageReader;
+import fr.upem.net.chatos.reader.SendMessageAllReader;
+import fr.upem.net.chatos.reader.SendPrivateMessageReader;
+import fr.upem.net.chatos.reader.TCPAbortReader;
+import fr.upem.net.chatos.reader.TCPAcceptReader;
+import fr.upem.net.chatos.reader.TCPAskReader;
+import fr.upem.net.chatos.reader.TCPConnectReader;
+
+/**
+ *
+ * Logged in client, whatever the transport : the handling of the frames it sends is shared by
+ * the selector contexts (ChatContext) and the blocking sessions (BlockingSession).
+ * The frames received by the client go through queueFrame, which may be called from any thread.
+ */
+abstract class ChatSession {
+	static private Logger logger = Logger.getLogger(ChatSession.class.getName());
+
+	static private final long KEEPALIVE_INTERVAL = 30_000_000_000L; // silence of the client before a ping
+	static private final long IDLE_TIMEOUT       = 90_000_000_000L; // silence of the client before the disconnection
+
+	// shared by every session since it only works on the session given as argument
+	static final FrameVisitor<ChatSession> VISITOR = new FrameVisitor<ChatSession>() {
+
+		@Override
+		public void visit(ConnectionRequestReader reader, ChatSession session) {
+			logger.info("Received ConnectionRequest");
+			session.queueFrame(ErrorCode.of(ErrorCode.ALREADY_CONNECTED));
+		}
+
+		@Override
+		public void visit(SendPrivateMessageReader reader, ChatSession session) {
+			logger.info("Received PrivateMessage");
+			session.broadcast(reader.get());
+		}
+
+		@Override
+		public void visit(SendMessageAllReader reader, ChatSession session) {
+			logger.info("Received MessageAll");
+			session.broadcast(reader.get());
+		}
+
+		@Override
+		public void visit(ErrorCodeReader reader, ChatSession session) {
+			logger.info("Received ErrorCode");
+			//Do nothing
+		}
+
+		@Override
+		public void visit(TCPAskReader reader, ChatSession session) {
+			logger.info("Received TCPAsk");
+			session.broadcast(reader.get());
+		}
+
+		@Override
+		public void visit(TCPAbortReader reader, ChatSession session) {
+			logger.info("Received TCPAbort");
+			session.broadcast(reader.get());
+		}
+
+		@Override
+		public void visit(TCPConnectReader reader, ChatSession session) {
+			logger.info("Received TCPConnect");
+			session.queueFrame(ErrorCode.of(ErrorCode.TCP_NOT_IN_PROTOCOLE));
+		}
+
+		@Override
+		public void visit(TCPAcceptReader reader, ChatSession session) {
+			logger.info("Received TCPAccept");
+			session.queueFrame(ErrorCode.of(ErrorCode.TCP_NOT_IN_PROTOCOLE));
+		}
+
+		@Override
+		public void visit(OpaqueMessageReader reader, ChatSession session) {
+			logger.info("Received message to forward");
+			session.forward(reader.get());
+		}
+	};
+
+	private final ChatOsServer server;
+	private final String       login;
+	private final byte[]       encodedLogin;
+	private int                userId; // set by the server before the session is published in its login map
+	private volatile long      lastRead; // nanoTime of the last bytes received
+
+	final private TimerWheel.Timeout idleTimeout = new TimerWheel.Timeout() {
+		@Override
+		void expired() {
+			checkIdleness();
+		}
+	};
+
+	/**
+	 * ChatSession constructor
+	 * @param server the Chat server
+	 * @param login the login of the client
+	 */
+	ChatSession(ChatOsServer server, String login) {
+		Objects.requireNonNull(server);
+		Objects.requireNonNull(login);
+		this.server       = server;
+		this.login        = login;
+		this.encodedLogin = login.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @brief Add a frame to the frames sent to the client, may be called from any thread
+	 * @param frame the frame to add
+	 */
+	public abstract void queueFrame(Frame frame);
+
+	/**
+	 *
+	 * @return the origin of the broadcast messages of the client in the broadcast log (they are not sent back to it)
+	 */
+	abstract Object origin();
+
+	/**
+	 *
+	 * @return the scheduler of the timeouts started by the client (its TCP private connexions)
+	 */
+	abstract TimeoutScheduler scheduler();
+
+	/**
+	 *
+	 * @return false once the connection of the client is closed
+	 */
+	abstract boolean isOpen();
+
+	/**
+	 *
+	 * @brief close the connection of the client and remove its login, may be called from the thread of its scheduler
+	 */
+	public abstract void silentlyClose();
+
+	/**
+	 *
+	 * @return the number of broadcast messages this client lost for being over its outbound budget
+	 */
+	abstract long droppedBroadcasts();
+
+	/**
+	 *
+	 * @return the number of times this client went over its outbound budget
+	 */
+	abstract int overBudgetCount();
+
+    /**
+     *
+     * @brief start watching the silence of the client, called once the session is logged in
+     */
+    void startKeepAlive() {
+    	lastRead = System.nanoTime();
+    	scheduler().schedule(idleTimeout, KEEPALIVE_INTERVAL);
+    }
+
+    /**
+     *
+     * @brief stop watching the silence of the client, called when the session is closed
+     */
+    void stopKeepAlive() {
+    	scheduler().cancel(idleTimeout);
+    }
+
+    /**
+     *
+     * @brief record that bytes were received from the client
+     */
+    void received() {
+    	lastRead = System.nanoTime();
+    }
+
+    /**
+     *
+     * @brief called by the timer wheel : a silent client is sent a keepalive ping (ErrorCode KEEPALIVE)
+     * every KEEPALIVE_INTERVAL, it is disconnected if it does not answer within IDLE_TIMEOUT
+     */
+    private void checkIdleness() {
+    	if (!isOpen()) {
+    		return;
+    	}
+    	var silence = System.nanoTime() - lastRead;
+    	if (silence >= IDLE_TIMEOUT) {
+    		logger.info(login + " did not answer the keepalive pings, disconnecting");
+    		silentlyClose();
+    		return;
+    	}
+    	if (silence < KEEPALIVE_INTERVAL) {
+    		scheduler().schedule(idleTimeout, KEEPALIVE_INTERVAL - silence);
+    		return;
+    	}
+    	queueFrame(ErrorCode.of(ErrorCode.KEEPALIVE));
+    	scheduler().schedule(idleTimeout, Math.min(KEEPALIVE_INTERVAL, IDLE_TIMEOUT - silence));
+    }
+
+    /**
+     *
+     * @return the login of the session
+     */
+    public String getLogin() {
+		return login;
+	}
+
+    /**
+     *
+     * @return the id given by the server to the client while it is logged in
+     */
+    int getUserId() {
+    	return userId;
+    }
+
+    /**
+     *
+     * @brief set the id of the client, called by the server before publishing the session
+     * @param userId the new id
+     */
+    void setUserId(int userId) {
+    	this.userId = userId;
+    }
+
+    /**
+     * @brief broadcast a message to every client connected Send back Invalid Pseudonym if the sender is not associated with this session
+     * @param message the message to broadcast
+     */
+    public void broadcast(MessageAll message) {
+    	Objects.requireNonNull(message);
+    	if (!message.getSender().equals(login)) {
+    		queueFrame(ErrorCode.of(ErrorCode.INVALID_PSEUDONYM));
+    		return;
+    	}
+    	server.broadcast(message, origin());
+    	queueFrame(ErrorCode.of(ErrorCode.OK));
+    }
+
+    /**
+     * @brief broadcast a message to a recipient if it is connected
+     * send an ERROR packet to the client "OK" if the recipient is connected and
+     * Unreachable User otherwise
+     * Send back Invalid Pseudonym if the sender is not associated with this session
+     * @param message the message to broadcast
+     */
+    public void broadcast(PrivateMessage message) {
+    	Objects.requireNonNull(message);
+    	if (!message.getSender().equals(login)) {
+    		queueFrame(ErrorCode.of(ErrorCode.INVALID_PSEUDONYM));
+    		return;
+    	}
+		queueFrame(ErrorCode.of(server.broadcast(message)));
+    }
+
+    /**
+     * @brief relay a private or public message as it was received, without decoding it.
+     * Send back Invalid Pseudonym if the sender is not associated with this session,
+     * Unreachable User if the recipient of a private message is not connected and OK otherwise
+     * @param message the message to relay
+     */
+    public void forward(OpaqueMessage message) {
+    	Objects.requireNonNull(message);
+    	if (!message.isSentBy(encodedLogin)) {
+    		queueFrame(ErrorCode.of(ErrorCode.INVALID_PSEUDONYM));
+    		return;
+    	}
+    	if (message.hasRecipient()) {
+    		queueFrame(ErrorCode.of(server.forward(message)));
+    		return;
+    	}
+    	server.broadcast(message, origin());
+    	queueFrame(ErrorCode.of(ErrorCode.OK));
+    }
+
+    /**
+     * @brief broadcast a TCP private connexion ask request to a recipient
+     * @param message the message to broadcast
+     */
+    public void broadcast(TCPAsk message) {
+    	Objects.requireNonNull(message);
+    	if (!message.getSender().equals(login)) {
+    		queueFrame(ErrorCode.of(ErrorCode.INVALID_PSEUDONYM));
+    		queueFrame(new TCPAbort(message.getSender(), message.getRecipient(), message.getPassword()));
+    		return;
+    	}
+    	var code = server.broadcast(message, scheduler());
+    	queueFrame(ErrorCode.of(code));
+    	if (code != ErrorCode.OK) {
+    		queueFrame(new TCPAbort(message.getSender(), message.getRecipient(), message.getPassword()));
+    	}
+    }
+
+    /**
+     * @brief broadcast a abortion of the TCP private connexion request to a recipient
+     * @param message the message to broadcast
+     */
+    public void broadcast(TCPAbort message) {
+    	Objects.requireNonNull(message);
+    	if (!message.getRecipient().equals(login)) {
+    		queueFrame(ErrorCode.of(ErrorCode.INVALID_PSEUDONYM));
+    		return;
+    	}
+    	queueFrame(ErrorCode.of(server.broadcast(message)));
+    }
+}
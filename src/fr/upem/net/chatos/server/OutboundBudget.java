@@ -0,0 +1,107 @@
+package fr.upem.net.chatos.server;
+
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ *
+ * Byte budget of the outbound queue of every client : the frames queued for him, the encoded frames
+ * not written yet and the broadcast messages following his cursor in the broadcast log.
+ * A client over budget loses broadcast messages (never private messages nor ErrorCodes) according
+ * to the policy, and is disconnected if it stays over budget longer than the grace period.
+ * The events are counted server wide here, and per client by the ChatContexts.
+ */
+class OutboundBudget {
+	/**
+	 * What to do with the broadcast messages of a client over budget
+	 */
+	enum Policy {
+		DROP_OLDEST, // lose the oldest broadcast messages not written yet
+		DROP_NEWEST, // lose the broadcast messages arriving while over budget
+		DISCONNECT   // lose nothing, only the grace period applies
+	}
+
+	private final int       bytes;
+	private final Policy    policy;
+	private final long      gracePeriod;
+	private final LongAdder droppedOldest  = new LongAdder();
+	private final LongAdder droppedNewest  = new LongAdder();
+	private final LongAdder overBudget     = new LongAdder();
+	private final LongAdder disconnections = new LongAdder();
+
+	/**
+	 * OutboundBudget constructor
+	 * @param bytes the number of bytes a client may have waiting to be written
+	 * @param policy what to do with the broadcast messages of a client over budget
+	 * @param gracePeriod the nanoseconds a client may stay over budget before being disconnected
+	 */
+	OutboundBudget(int bytes, Policy policy, long gracePeriod) {
+		Objects.requireNonNull(policy);
+		if (bytes <= 0 || gracePeriod < 0) {
+			throw new IllegalArgumentException("Invalid budget");
+		}
+		this.bytes       = bytes;
+		this.policy      = policy;
+		this.gracePeriod = gracePeriod;
+	}
+
+	/**
+	 *
+	 * @return the number of bytes a client may have waiting to be written
+	 */
+	int bytes() {
+		return bytes;
+	}
+
+	/**
+	 *
+	 * @return what to do with the broadcast messages of a client over budget
+	 */
+	Policy policy() {
+		return policy;
+	}
+
+	/**
+	 *
+	 * @return the nanoseconds a client may stay over budget before being disconnected
+	 */
+	long gracePeriod() {
+		return gracePeriod;
+	}
+
+	/**
+	 *
+	 * @brief count broadcast messages lost by a client
+	 * @param count the number of messages
+	 */
+	void droppedBroadcasts(long count) {
+		if (policy == Policy.DROP_OLDEST) {
+			droppedOldest.add(count);
+		} else {
+			droppedNewest.add(count);
+		}
+	}
+
+	/**
+	 *
+	 * @brief count a client starting its grace period
+	 */
+	void overBudget() {
+		overBudget.increment();
+	}
+
+	/**
+	 *
+	 * @brief count a client disconnected at the end of its grace period
+	 */
+	void disconnected() {
+		disconnections.increment();
+	}
+
+	@Override
+	public String toString() {
+		return "OutboundBudget [" + bytes + " bytes, " + policy + ", grace period : " + gracePeriod / 1_000_000 + " ms"
+			+ ", dropped oldest : " + droppedOldest.sum() + ", dropped newest : " + droppedNewest.sum()
+			+ ", over budget : " + overBudget.sum() + ", disconnections : " + disconnections.sum() + "]";
+	}
+}
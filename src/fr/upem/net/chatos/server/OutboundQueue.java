@@ -0,0 +1,88 @@
+package fr.upem.net.chatos.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ *
+ * Encoded frames waiting to be written on a socket channel.
+ * The frames are not copied, they are all given to a single gathering write.
+ */
+class OutboundQueue {
+	/**
+	 * Maximum number of buffers given to one write (and kept encoded in advance)
+	 */
+	static final int MAX_GATHER = 64;
+
+	private final ArrayDeque<ByteBuffer> buffers = new ArrayDeque<>();
+	private final ByteBuffer[]           gather  = new ByteBuffer[MAX_GATHER];
+	private long                         size;
+
+	/**
+	 *
+	 * @brief add an encoded frame at the end of the queue
+	 * @param bb the frame in read-mode, it must not be modified until written
+	 */
+	void add(ByteBuffer bb) {
+		Objects.requireNonNull(bb);
+		if (bb.hasRemaining()) {
+			buffers.add(bb);
+			size += bb.remaining();
+		}
+	}
+
+	/**
+	 *
+	 * @return true if nothing is left to write
+	 */
+	boolean isEmpty() {
+		return buffers.isEmpty();
+	}
+
+	/**
+	 *
+	 * @return the number of bytes left to write
+	 */
+	long size() {
+		return size;
+	}
+
+	/**
+	 *
+	 * @return true if the queue already holds enough buffers for a whole write
+	 */
+	boolean isFull() {
+		return buffers.size() >= MAX_GATHER;
+	}
+
+	/**
+	 *
+	 * @brief write as much as possible of the queued frames with a single gathering write
+	 * @param sc the socket channel to write to
+	 * @return the number of bytes written
+	 * @throws IOException when write throws it
+	 */
+	long flush(SocketChannel sc) throws IOException {
+		var count = 0;
+		for (var bb : buffers) {
+			if (count == MAX_GATHER) {
+				break;
+			}
+			gather[count++] = bb;
+		}
+		try {
+			var written = sc.write(gather, 0, count);
+			size -= written;
+			return written;
+		} finally {
+			Arrays.fill(gather, 0, count, null);
+			while (!buffers.isEmpty() && !buffers.peek().hasRemaining()) {
+				buffers.poll();
+			}
+		}
+	}
+}
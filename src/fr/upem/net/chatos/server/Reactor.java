@@ -0,0 +1,403 @@
+package fr.upem.net.chatos.server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import fr.upem.net.chatos.reader.OpCodeReader;
+
+/**
+ *
+ * Selector thread owning a part of the server connections.
+ * Every context is only touched by the thread of its reactor, other threads
+ * have to go through {@link #execute(Runnable)}.
+ */
+class Reactor implements Runnable, TimeoutScheduler {
+	static private Logger logger = Logger.getLogger(Reactor.class.getName());
+
+	/**
+	 * Maximum number of readers kept for the contexts waking up
+	 */
+	static private final int MAX_SPARE_READERS = 64;
+
+	static final int  TIMER_SLOTS = 1_024;
+	static final long TIMER_TICK  = 100_000_000L; // a revolution lasts 102.4 seconds
+
+	private final ChatOsServer    server;
+	private final Selector        selector;
+	private final Thread          thread;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger   load  = new AtomicInteger();
+	private final AtomicBoolean   broadcastPending = new AtomicBoolean();
+	private final ArrayDeque<OpCodeReader> spareReaders = new ArrayDeque<>();
+	private final ArrayList<ChatContext>   dirtyContexts = new ArrayList<>();
+	private final TimerWheel               timers;
+
+	/**
+	 * Reactor constructor
+	 * @param server the Chat server
+	 * @param id the reactor number (used to name its thread)
+	 * @throws IOException when the selector cannot be opened
+	 */
+	Reactor(ChatOsServer server, int id) throws IOException {
+		Objects.requireNonNull(server);
+		this.server   = server;
+		this.selector = Selector.open();
+		this.thread   = new Thread(this, "ChatOs-reactor-" + id);
+		this.timers   = new TimerWheel(TIMER_SLOTS, TIMER_TICK, System.nanoTime());
+	}
+
+	/**
+	 *
+	 * @brief start the reactor thread
+	 */
+	void start() {
+		thread.start();
+	}
+
+	/**
+	 *
+	 * @brief stop the reactor thread, the selector of a reactor which was never started is closed at once
+	 */
+	void shutdown() {
+		if (thread.getState() == Thread.State.NEW) {
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// ignore exception
+			}
+			return;
+		}
+		thread.interrupt();
+	}
+
+	/**
+	 *
+	 * @brief wait for the end of the reactor thread after shutdown
+	 * @throws InterruptedException if the calling thread is interrupted while waiting
+	 */
+	void awaitTermination() throws InterruptedException {
+		thread.join();
+	}
+
+	/**
+	 *
+	 * @return the number of connections handled (or about to be handled) by this reactor
+	 */
+	int load() {
+		return load.get();
+	}
+
+	/**
+	 *
+	 * @return true if the caller is the thread of this reactor
+	 */
+	boolean inReactorThread() {
+		return Thread.currentThread() == thread;
+	}
+
+	/**
+	 *
+	 * @brief run a task on the reactor thread, immediately if the caller already is the reactor thread
+	 * @param task the task to run
+	 */
+	void execute(Runnable task) {
+		Objects.requireNonNull(task);
+		if (inReactorThread()) {
+			task.run();
+			return;
+		}
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 *
+	 * @brief signal that new messages were appended to the broadcast log,
+	 * the ChatContexts of this reactor are woken up once per select iteration
+	 */
+	void broadcastAvailable() {
+		if (!broadcastPending.getAndSet(true) && !inReactorThread()) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 *
+	 * @brief get a reader for a context, must be called from the reactor thread
+	 * @return a reset reader
+	 */
+	OpCodeReader takeReader() {
+		var reader = spareReaders.poll();
+		return reader == null ? new OpCodeReader(true) : reader;
+	}
+
+	/**
+	 *
+	 * @brief keep the reader of a hibernating context for the next context waking up,
+	 * must be called from the reactor thread
+	 * @param reader a reader between two frames
+	 */
+	void recycleReader(OpCodeReader reader) {
+		Objects.requireNonNull(reader);
+		if (spareReaders.size() < MAX_SPARE_READERS) {
+			reader.reset();
+			spareReaders.push(reader);
+		}
+	}
+
+	/**
+	 *
+	 * @brief update the interestOps of a context at the end of the current select iteration,
+	 * must be called from the reactor thread and only once until the update
+	 * @param context the context to update
+	 */
+	void markDirty(ChatContext context) {
+		Objects.requireNonNull(context);
+		dirtyContexts.add(context);
+	}
+
+	/**
+	 *
+	 * @brief schedule a timeout on the wheel of this reactor, directly from the reactor thread
+	 * (the contexts do not allocate) and through execute from the other threads
+	 * @param timeout the timeout, moved if it is already scheduled
+	 * @param delay the delay in nanoseconds
+	 */
+	@Override
+	public void schedule(TimerWheel.Timeout timeout, long delay) {
+		if (!inReactorThread()) {
+			execute(() -> schedule(timeout, delay));
+			return;
+		}
+		timers.schedule(timeout, delay, System.nanoTime());
+	}
+
+	/**
+	 *
+	 * @brief cancel a timeout of this reactor, directly from the reactor thread and through execute from the other threads
+	 * @param timeout the timeout
+	 */
+	@Override
+	public void cancel(TimerWheel.Timeout timeout) {
+		if (!inReactorThread()) {
+			execute(() -> cancel(timeout));
+			return;
+		}
+		timers.cancel(timeout);
+	}
+
+	/**
+	 *
+	 * @brief hand a freshly accepted client to this reactor
+	 * @param sc the accepted socket channel (non blocking)
+	 */
+	void accept(SocketChannel sc) {
+		Objects.requireNonNull(sc);
+		load.incrementAndGet();
+		execute(() -> {
+			try {
+				var key = sc.register(selector, SelectionKey.OP_READ);
+				key.attach(new WaitingContext(server, this, key));
+			} catch (ClosedChannelException cce) {
+				// client left before being registered
+			}
+		});
+	}
+
+	/**
+	 *
+	 * @brief register a channel on the selector of this reactor, must be called from the reactor thread
+	 * @param channel the channel to register
+	 * @param ops the initial interest ops
+	 * @param attachment the context to attach to the new key
+	 * @return the new key
+	 * @throws ClosedChannelException if the channel is closed
+	 */
+	SelectionKey register(SelectableChannel channel, int ops, Context attachment) throws ClosedChannelException {
+		if (!inReactorThread()) {
+			throw new IllegalStateException("Not in the reactor thread");
+		}
+		return channel.register(selector, ops, attachment);
+	}
+
+	@Override
+	public void run() {
+		try {
+			while (!Thread.interrupted()) {
+				if (logger.isLoggable(Level.FINEST)) {
+					logKeys();
+				}
+				selector.select(this::treatKey, timers.selectTimeout(System.nanoTime()));
+				processTasks();
+				if (broadcastPending.getAndSet(false)) {
+					wakeUpChatContexts();
+				}
+				timers.advance(System.nanoTime());
+				applyInterestOps();
+				load.set(selector.keys().size());
+			}
+		} catch (IOException ioe) {
+			logger.log(Level.SEVERE, "Reactor stopped due to IOException", ioe);
+		} finally {
+			try {
+				selector.close();
+			} catch (IOException e) {
+				// ignore exception
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @brief run the tasks submitted by other threads, a failing task does not prevent the next ones
+	 */
+	private void processTasks() {
+		for (var task = tasks.poll(); task != null; task = tasks.poll()) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				logger.log(Level.SEVERE, "Task of the reactor failed", e);
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @brief update the interestOps of the contexts marked dirty during this iteration, in a single pass
+	 */
+	private void applyInterestOps() {
+		for (var i = 0; i < dirtyContexts.size(); i++) {
+			var context = dirtyContexts.get(i);
+			try {
+				context.applyInterestOps();
+			} catch (RuntimeException e) {
+				logger.log(Level.SEVERE, "Connection closed with client due to an unexpected exception", e);
+				context.silentlyClose();
+			}
+		}
+		dirtyContexts.clear();
+	}
+
+	/**
+	 *
+	 * @brief let every ChatContext of this reactor register its interest for the new broadcast messages
+	 */
+	private void wakeUpChatContexts() {
+		for (var key : selector.keys()) {
+			if (key.isValid() && key.attachment() instanceof ChatContext) {
+				((ChatContext) key.attachment()).broadcastAvailable();
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @brief treat a client key
+	 * @param key the client key
+	 */
+	private void treatKey(SelectionKey key) {
+		if (logger.isLoggable(Level.FINEST)) {
+			logSelectedKey(key);
+		}
+		try {
+			if (key.isValid() && key.isWritable()) {
+				((Context) key.attachment()).doWrite();
+			}
+			if (key.isValid() && key.isReadable()) {
+				((Context) key.attachment()).doRead();
+			}
+		} catch (IOException e) {
+			logger.log(Level.INFO,"Connection closed with client due to IOException",e);
+			((Context) key.attachment()).silentlyClose();
+		} catch (RuntimeException e) {
+			// a bug in a context must not stop the other clients of the reactor
+			logger.log(Level.SEVERE,"Connection closed with client due to an unexpected exception",e);
+			((Context) key.attachment()).silentlyClose();
+		}
+	}
+
+	/**
+	 *
+	 * @brief get a string format of a key
+	 * @param key the key to parse in a string
+	 * @return the string key
+	 */
+	private String interestOpsToString(SelectionKey key){
+		if (!key.isValid()) {
+			return "CANCELLED";
+		}
+		int interestOps = key.interestOps();
+		ArrayList<String> list = new ArrayList<>();
+		if ((interestOps&SelectionKey.OP_READ)!=0) list.add("OP_READ");
+		if ((interestOps&SelectionKey.OP_WRITE)!=0) list.add("OP_WRITE");
+		return String.join("|",list);
+	}
+
+	/**
+	 *
+	 * @brief log the keys of the reactor (FINEST level, for debug)
+	 */
+	private void logKeys() {
+		Set<SelectionKey> selectionKeySet = selector.keys();
+		var keys = new StringBuilder(thread.getName()).append(" selector contains:");
+		for (SelectionKey key : selectionKeySet){
+			SocketChannel sc = (SocketChannel) key.channel();
+			keys.append("\n\tKey for Client ").append(remoteAddressToString(sc)).append(" : ").append(interestOpsToString(key));
+		}
+		logger.finest(keys.toString());
+	}
+
+	/**
+	 *
+	 * @brief get a string format of the remote address of a socket channel
+	 * @param sc the interested socket channel
+	 * @return the string format of the remote address
+	 */
+	private String remoteAddressToString(SocketChannel sc) {
+		try {
+			return sc.getRemoteAddress().toString();
+		} catch (IOException e){
+			return "???";
+		}
+	}
+
+	/**
+	 *
+	 * @brief log a selected key (FINEST level, for debug)
+	 * @param key the key to log
+	 */
+	private void logSelectedKey(SelectionKey key) {
+		SocketChannel sc = (SocketChannel) key.channel();
+		logger.finest("Client " + remoteAddressToString(sc) + " can perform : " + possibleActionsToString(key));
+	}
+
+	/**
+	 *
+	 * @brief print the possible channel of a key
+	 * @param key the key to examined
+	 * @return a string format of possible actions
+	 */
+	private String possibleActionsToString(SelectionKey key) {
+		if (!key.isValid()) {
+			return "CANCELLED";
+		}
+		ArrayList<String> list = new ArrayList<>();
+		if (key.isReadable()) list.add("READ");
+		if (key.isWritable()) list.add("WRITE");
+		return String.join(" and ",list);
+	}
+}
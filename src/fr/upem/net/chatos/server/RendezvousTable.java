@@ -0,0 +1,165 @@
+package fr.upem.net.chatos.server;
+
+import java.util.Objects;
+
+/**
+ *
+ * Open addressing table (linear probing) of the private TCP connexions waiting for their two sides.
+ * The key packs the ids of the sender and of the recipient and the password in a long, so neither
+ * the lookups nor the insertions allocate. The timeouts of the entries are handled by the owner
+ * of the table. Not thread safe.
+ */
+class RendezvousTable<V> {
+	static final int ID_BITS = 24;
+	static final int MAX_ID  = (1 << ID_BITS) - 1;
+
+	static private final int INITIAL_CAPACITY = 16; // power of two
+
+	private long[]   keys   = new long[INITIAL_CAPACITY];
+	private Object[] values = new Object[INITIAL_CAPACITY]; // null for a free slot
+	private int      size;
+
+	/**
+	 *
+	 * @brief pack a rendezvous key
+	 * @param senderId the id of the sender, between 0 and MAX_ID
+	 * @param recipientId the id of the recipient, between 0 and MAX_ID
+	 * @param password the password of the private connexion
+	 * @return the key
+	 */
+	static long key(int senderId, int recipientId, short password) {
+		if (senderId < 0 || senderId > MAX_ID || recipientId < 0 || recipientId > MAX_ID) {
+			throw new IllegalArgumentException("Invalid id");
+		}
+		return (long) senderId << (ID_BITS + Short.SIZE) | (long) recipientId << Short.SIZE | (password & 0xFFFF);
+	}
+
+	/**
+	 *
+	 * @brief get the slot of a key or the free slot where it would be inserted
+	 * @param key the key
+	 * @return the index of the slot
+	 */
+	private int slot(long key) {
+		var mask = keys.length - 1;
+		var index = hash(key) & mask;
+		while (values[index] != null && keys[index] != key) {
+			index = (index + 1) & mask;
+		}
+		return index;
+	}
+
+	/**
+	 *
+	 * @brief spread the bits of a key (the low bits of the key are the password, often small),
+	 * the home slot of a key is hash(key) & (capacity() - 1)
+	 * @param key the key
+	 * @return the hash
+	 */
+	static int hash(long key) {
+		var h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 *
+	 * @param key the key
+	 * @return the value of the key or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	V get(long key) {
+		return (V) values[slot(key)];
+	}
+
+	/**
+	 *
+	 * @brief add an entry if the key is not in the table
+	 * @param key the key
+	 * @param value the value
+	 * @return false if the key was already in the table (nothing is changed)
+	 */
+	boolean putIfAbsent(long key, V value) {
+		Objects.requireNonNull(value);
+		var index = slot(key);
+		if (values[index] != null) {
+			return false;
+		}
+		keys[index]   = key;
+		values[index] = value;
+		if (++size > keys.length / 2) {
+			resize(keys.length * 2);
+		}
+		return true;
+	}
+
+	/**
+	 *
+	 * @param key the key
+	 * @return the value of the removed entry or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	V remove(long key) {
+		var index = slot(key);
+		var value = (V) values[index];
+		if (value != null) {
+			removeAt(index);
+		}
+		return value;
+	}
+
+	/**
+	 *
+	 * @brief free a slot then move back the following entries of the cluster so that no probe sequence is broken
+	 * @param index the slot to free
+	 */
+	private void removeAt(int index) {
+		var mask = keys.length - 1;
+		size--;
+		var free = index;
+		for (var i = (index + 1) & mask; values[i] != null; i = (i + 1) & mask) {
+			var home = hash(keys[i]) & mask;
+			// the entry may move to the free slot if its home is not between the free slot and its slot
+			if (((i - home) & mask) >= ((i - free) & mask)) {
+				keys[free]   = keys[i];
+				values[free] = values[i];
+				free = i;
+			}
+		}
+		values[free] = null;
+	}
+
+	/**
+	 *
+	 * @brief rehash every entry in new arrays
+	 * @param capacity the new capacity (power of two)
+	 */
+	private void resize(int capacity) {
+		var oldKeys   = keys;
+		var oldValues = values;
+		keys   = new long[capacity];
+		values = new Object[capacity];
+		for (var i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != null) {
+				var index = slot(oldKeys[i]);
+				keys[index]   = oldKeys[i];
+				values[index] = oldValues[i];
+			}
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of entries
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 *
+	 * @return the number of slots
+	 */
+	int capacity() {
+		return keys.length;
+	}
+}
@@ -2,37 +2,73 @@ package fr.upem.net.chatos.server;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.util.Objects;
 import java.util.Optional;
 
-class TCPContext implements Context {
-	static final private int BUFFER_SIZE = 1024;
-
+class TCPContext implements Context, TCPSide {
 	private Optional<TCPContext> pairedContext = Optional.empty();
 
-	private final SelectionKey  tcpContextKey;
+	private       Reactor       reactor;
+	private       SelectionKey  tcpContextKey;
 	private final SocketChannel socketChannel;
-	private final ByteBuffer    bbout = ByteBuffer.allocate(BUFFER_SIZE);
+	private final BufferPool    pool;
+	private final ByteBuffer    bbout;
 
 	private boolean closed;
 
+	private boolean released;
+
 	/**
-	 * TCPContext constructor
+	 * TCPContext constructor, the key stays silent until the context is paired
+	 * @param reactor the reactor owning the key
+	 * @param pool the pool lending the relay buffer
 	 * @param tcpContextKey the selected key to attach to this context
 	 * @param socketChannel the original socket channel
 	 */
-    public TCPContext(SelectionKey tcpContextKey, SocketChannel socketChannel, ByteBuffer buff) {
+    public TCPContext(Reactor reactor, BufferPool pool, SelectionKey tcpContextKey, SocketChannel socketChannel, ByteBuffer buff) {
+		Objects.requireNonNull(reactor);
+		Objects.requireNonNull(pool);
 		Objects.requireNonNull(tcpContextKey);
 		Objects.requireNonNull(socketChannel);
 		Objects.requireNonNull(buff);
+		this.reactor = reactor;
+		this.pool = pool;
+		this.bbout = pool.acquire();
 		this.tcpContextKey = tcpContextKey;
 		this.socketChannel = socketChannel;
 		tcpContextKey.attach(this);
+		tcpContextKey.interestOps(0);
 		bbout.put(buff);
 	}
 
+    /**
+     *
+     * @return the reactor currently owning this context
+     */
+    Reactor getReactor() {
+    	return reactor;
+    }
+
+    /**
+     *
+     * @brief move the socket channel to the selector of another reactor so that both sides
+     * of the private connexion are handled by the same thread, must be called from the target reactor
+     * @param target the reactor which will own this context
+     * @throws ClosedChannelException if the socket channel was closed meanwhile
+     */
+    void moveTo(Reactor target) throws ClosedChannelException {
+    	Objects.requireNonNull(target);
+    	if (target == reactor) {
+    		return;
+    	}
+    	tcpContextKey.cancel();
+    	tcpContextKey = target.register(socketChannel, 0, this);
+    	reactor = target;
+    }
+
     /**
      * 
 	 * @brief update the interestOps of the key
@@ -44,22 +80,26 @@ class TCPContext implements Context {
 
     /**	
      * 
-	 * @brief update the interestOps of the key
+	 * @brief update the interestOps of the key, the link is closed once a side has left
+	 * and everything it sent has been relayed (a full buffer only pauses the reading)
 	 */
     private void updateInterestOps() {
+    	if (!tcpContextKey.isValid()) {
+    		return;
+    	}
+    	var paired = pairedContext.get();
+    	if ((closed && paired.bbout.position() == 0) || (paired.closed && bbout.position() == 0)) {
+    		paired.closed = true;
+    		silentlyClose();
+    		return;
+    	}
     	int intOps = 0;
-    	if (!closed && pairedContext.get().bbout.hasRemaining()) {
+    	if (!closed && paired.bbout.hasRemaining()) {
     		intOps |= SelectionKey.OP_READ;
     	}
     	if (bbout.position() != 0){
     		intOps |= SelectionKey.OP_WRITE;
     	}
-    	if (intOps == 0) {
-    		silentlyClose();
-    		pairedContext.get().closed = true;
-    		pairedContext.get().silentlyClose();
-    		return;
-    	}
     	tcpContextKey.interestOps(intOps);
     }
 
@@ -77,6 +117,30 @@ class TCPContext implements Context {
 		updateInterestOps();
 	}
 
+    /**
+     *
+     * @brief pair the contexts on the reactor of this one (the sender),
+     * the recipient is moved to this reactor if it is handled by another one
+     * @param recipient the context of the recipient
+     */
+    @Override
+    public void pair(TCPSide recipient) {
+    	Objects.requireNonNull(recipient);
+    	var other = (TCPContext) recipient;
+    	var target = reactor;
+    	target.execute(() -> {
+    		try {
+    			other.moveTo(target);
+    		} catch (ClosedChannelException cce) {
+    			silentlyClose();
+    			other.silentlyClose();
+    			return;
+    		}
+    		setPairedContext(other);
+    		other.setPairedContext(this);
+    	});
+    }
+
     /**
      * 
 	 * @brief silently close the socket channel
@@ -87,19 +151,29 @@ class TCPContext implements Context {
         pairedContext.ifPresent(c->c.close());
     }
     
+    /**
+     *
+     * @brief close the socket channel and give the relay buffer back to the pool
+     * (from the reactor thread since the paired context may still be reading into it)
+     */
     private void close() {
     	try {
             socketChannel.close();
         } catch (IOException e) {
             // ignore exception
         }
+    	reactor.execute(() -> {
+    		if (!released) {
+    			released = true;
+    			pool.release(bbout);
+    		}
+    	});
     }
 
 	@Override
 	public void doRead() throws IOException {
 		if (socketChannel.read(pairedContext.get().bbout) == -1) {
 			closed = true;
-			return;
 		}
 		updateInterests();
 	}
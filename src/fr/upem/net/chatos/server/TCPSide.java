@@ -0,0 +1,23 @@
+package fr.upem.net.chatos.server;
+
+/**
+ *
+ * Connection of a client to a TCP private connexion, the server relays the bytes between both sides.
+ * The sides of a private connexion come from the same backend.
+ */
+interface TCPSide {
+
+	/**
+	 *
+	 * @brief start relaying the bytes between this side (the sender) and the recipient,
+	 * both clients first receive the OK of their TCPConnect / TCPAccept. May be called from any thread
+	 * @param recipient the other side
+	 */
+	void pair(TCPSide recipient);
+
+	/**
+	 *
+	 * @brief close this side and the paired one, may be called from any thread
+	 */
+	void silentlyClose();
+}
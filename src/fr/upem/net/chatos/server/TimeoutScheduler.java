@@ -0,0 +1,24 @@
+package fr.upem.net.chatos.server;
+
+/**
+ *
+ * Timer wheel of a backend, the timeouts are run by the thread of the wheel.
+ * Both methods may be called from any thread.
+ */
+interface TimeoutScheduler {
+
+	/**
+	 *
+	 * @brief schedule a timeout, it is moved if it is already scheduled
+	 * @param timeout the timeout
+	 * @param delay the delay in nanoseconds
+	 */
+	void schedule(TimerWheel.Timeout timeout, long delay);
+
+	/**
+	 *
+	 * @brief cancel a timeout, nothing is done if it is not scheduled
+	 * @param timeout the timeout
+	 */
+	void cancel(TimerWheel.Timeout timeout);
+}
@@ -0,0 +1,66 @@
+package fr.upem.net.chatos.server;
+
+import java.util.Objects;
+
+/**
+ *
+ * Timer wheel run by its own thread, for the backends without selector loop.
+ * The timeouts are run with the lock of the TimerThread held : they must not call
+ * schedule or cancel of another scheduler, and no lock may be held while calling schedule or cancel.
+ */
+class TimerThread implements TimeoutScheduler, Runnable {
+	private final TimerWheel wheel;
+	private final Thread     thread;
+
+	/**
+	 * TimerThread constructor
+	 * @param name the name of the thread
+	 */
+	TimerThread(String name) {
+		Objects.requireNonNull(name);
+		this.wheel  = new TimerWheel(Reactor.TIMER_SLOTS, Reactor.TIMER_TICK, System.nanoTime());
+		this.thread = new Thread(this, name);
+		thread.setDaemon(true);
+	}
+
+	/**
+	 *
+	 * @brief start the thread of the wheel
+	 */
+	void start() {
+		thread.start();
+	}
+
+	/**
+	 *
+	 * @brief stop the thread of the wheel
+	 */
+	void shutdown() {
+		thread.interrupt();
+	}
+
+	@Override
+	public synchronized void schedule(TimerWheel.Timeout timeout, long delay) {
+		wheel.schedule(timeout, delay, System.nanoTime());
+		notify();
+	}
+
+	@Override
+	public synchronized void cancel(TimerWheel.Timeout timeout) {
+		wheel.cancel(timeout);
+	}
+
+	@Override
+	public void run() {
+		try {
+			synchronized (this) {
+				while (!Thread.interrupted()) {
+					wait(wheel.selectTimeout(System.nanoTime()));
+					wheel.advance(System.nanoTime());
+				}
+			}
+		} catch (InterruptedException ie) {
+			// shutdown
+		}
+	}
+}
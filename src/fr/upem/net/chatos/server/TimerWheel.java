@@ -0,0 +1,216 @@
+package fr.upem.net.chatos.server;
+
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ *
+ * Hashed timing wheel of a selector loop : the timeouts are kept in intrusive lists, one per slot of the wheel,
+ * so scheduling and cancelling are O(1) and nothing is allocated. The loop selects with the timeout given by
+ * selectTimeout then calls advance to run the expired timeouts. Not thread safe, a wheel is only used by the
+ * thread of its loop.
+ */
+class TimerWheel {
+	static private Logger logger = Logger.getLogger(TimerWheel.class.getName());
+
+	/**
+	 *
+	 * Action run by the wheel at its deadline, an instance is scheduled again and again by its owner
+	 */
+	static abstract class Timeout {
+		private Timeout prev;
+		private Timeout next;
+		private int     bucket = -1; // -1 when not scheduled
+		private long    tick;        // the timeout expires when the wheel reaches this tick
+
+		/**
+		 *
+		 * @return true if the timeout is scheduled and has not expired yet
+		 */
+		boolean isScheduled() {
+			return bucket >= 0;
+		}
+
+		/**
+		 *
+		 * @brief called by the wheel once the deadline is passed, the timeout is no longer scheduled
+		 * and may be scheduled again
+		 */
+		abstract void expired();
+	}
+
+	private final Timeout[] buckets; // one list per slot and the list of the slot being run
+	private final int       mask;
+	private final int       running;
+	private final long      tickDuration;
+	private final long      origin;
+	private long            currentTick;
+	private int             size;
+
+	/**
+	 * TimerWheel constructor
+	 * @param slots the number of slots (power of two), a revolution of the wheel lasts slots * tickDuration
+	 * @param tickDuration the precision of the wheel in nanoseconds
+	 * @param now the current nanoTime
+	 */
+	TimerWheel(int slots, long tickDuration, long now) {
+		if (slots <= 0 || Integer.bitCount(slots) != 1) {
+			throw new IllegalArgumentException("slots must be a power of two");
+		}
+		if (tickDuration <= 0) {
+			throw new IllegalArgumentException("tickDuration must be positive");
+		}
+		this.buckets      = new Timeout[slots + 1];
+		this.mask         = slots - 1;
+		this.running      = slots;
+		this.tickDuration = tickDuration;
+		this.origin       = now;
+	}
+
+	/**
+	 *
+	 * @brief schedule a timeout, it is moved if it was already scheduled. It expires at the first tick
+	 * following the deadline (at most tickDuration late)
+	 * @param timeout the timeout
+	 * @param delay the delay in nanoseconds
+	 * @param now the current nanoTime
+	 */
+	void schedule(Timeout timeout, long delay, long now) {
+		Objects.requireNonNull(timeout);
+		cancel(timeout);
+		var elapsed = now - origin + Math.max(0, delay);
+		timeout.tick = Math.max(currentTick + 1, (elapsed + tickDuration - 1) / tickDuration);
+		link(timeout, (int) (timeout.tick & mask));
+		size++;
+	}
+
+	/**
+	 *
+	 * @brief cancel a timeout, nothing is done if it is not scheduled
+	 * @param timeout the timeout
+	 */
+	void cancel(Timeout timeout) {
+		Objects.requireNonNull(timeout);
+		if (timeout.isScheduled()) {
+			unlink(timeout);
+			size--;
+		}
+	}
+
+	/**
+	 *
+	 * @return the number of scheduled timeouts
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 *
+	 * @brief get the timeout to give to select so that the loop wakes up at the next slot holding a timeout
+	 * @param now the current nanoTime
+	 * @return the timeout in milliseconds, 0 (no timeout) if nothing is scheduled
+	 */
+	long selectTimeout(long now) {
+		if (size == 0) {
+			return 0;
+		}
+		var tick = currentTick + 1;
+		while (buckets[(int) (tick & mask)] == null) {
+			tick++;
+		}
+		var delay = origin + tick * tickDuration - now;
+		return Math.max(1, (delay + 999_999) / 1_000_000);
+	}
+
+	/**
+	 *
+	 * @brief run the timeouts whose deadline is passed, they may schedule or cancel timeouts
+	 * @param now the current nanoTime
+	 * @return the number of expired timeouts
+	 */
+	int advance(long now) {
+		var nowTick = (now - origin) / tickDuration;
+		var count = 0;
+		// after a long pause every slot is run once
+		for (var tick = Math.max(currentTick + 1, nowTick - mask); tick <= nowTick; tick++) {
+			currentTick = tick;
+			count += runSlot((int) (tick & mask), tick);
+		}
+		currentTick = Math.max(currentTick, nowTick);
+		return count;
+	}
+
+	/**
+	 *
+	 * @brief run the expired timeouts of a slot, the other ones are due in a later revolution
+	 * @param slot the slot
+	 * @param tick the tick reached by the wheel
+	 * @return the number of expired timeouts
+	 */
+	private int runSlot(int slot, long tick) {
+		if (buckets[slot] == null) {
+			return 0;
+		}
+		// the list is moved aside since the timeouts run may cancel the following ones
+		for (var timeout = buckets[slot]; timeout != null; timeout = timeout.next) {
+			timeout.bucket = running;
+		}
+		buckets[running] = buckets[slot];
+		buckets[slot] = null;
+		var count = 0;
+		for (var timeout = buckets[running]; timeout != null; timeout = buckets[running]) {
+			unlink(timeout);
+			if (timeout.tick > tick) {
+				link(timeout, slot);
+				continue;
+			}
+			size--;
+			count++;
+			try {
+				timeout.expired();
+			} catch (RuntimeException e) {
+				// the other timeouts of the loop still have to run
+				logger.log(Level.SEVERE, "Timeout failed", e);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 *
+	 * @brief add a timeout at the head of the list of a bucket
+	 * @param timeout the timeout (not in a list)
+	 * @param bucket the bucket
+	 */
+	private void link(Timeout timeout, int bucket) {
+		var head = buckets[bucket];
+		timeout.prev = null;
+		timeout.next = head;
+		if (head != null) {
+			head.prev = timeout;
+		}
+		buckets[bucket] = timeout;
+		timeout.bucket = bucket;
+	}
+
+	/**
+	 *
+	 * @brief remove a timeout from the list of its bucket
+	 * @param timeout the timeout (in a list)
+	 */
+	private void unlink(Timeout timeout) {
+		if (timeout.prev == null) {
+			buckets[timeout.bucket] = timeout.next;
+		} else {
+			timeout.prev.next = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.prev = timeout.prev;
+		}
+		timeout.prev   = null;
+		timeout.next   = null;
+		timeout.bucket = -1;
+	}
+}
@@ -0,0 +1,54 @@
+package fr.upem.net.chatos.server;
+
+/**
+ *
+ * Small integer ids of the logged in clients, they identify the clients in the rendezvous table
+ * without comparing their logins. The ids of the clients who left are given again, the oldest
+ * released first so that a rendezvous of a client who left is unlikely to match a new one.
+ */
+class UserIds {
+	private int[] released = new int[16]; // circular queue of the released ids
+	private int   head;
+	private int   count;
+	private int   next = 1;
+
+	/**
+	 *
+	 * @brief get an id not used by another client
+	 * @return the id, between 1 and RendezvousTable.MAX_ID
+	 * @throws IllegalStateException if every id is used
+	 */
+	synchronized int allocate() {
+		if (count != 0) {
+			var id = released[head];
+			head = (head + 1) % released.length;
+			count--;
+			return id;
+		}
+		if (next > RendezvousTable.MAX_ID) {
+			throw new IllegalStateException("No more user id");
+		}
+		return next++;
+	}
+
+	/**
+	 *
+	 * @brief give an id back
+	 * @param id an id obtained with allocate
+	 */
+	synchronized void release(int id) {
+		if (id < 1 || id >= next) {
+			throw new IllegalArgumentException("Unknown id " + id);
+		}
+		if (count == released.length) {
+			var grown = new int[released.length * 2];
+			for (var i = 0; i < count; i++) {
+				grown[i] = released[(head + i) % released.length];
+			}
+			released = grown;
+			head = 0;
+		}
+		released[(head + count) % released.length] = id;
+		count++;
+	}
+}
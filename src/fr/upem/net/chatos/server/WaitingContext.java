@@ -15,6 +15,7 @@ import fr.upem.net.chatos.frame.TCPAccept;
 import fr.upem.net.chatos.frame.TCPConnect;
 import fr.upem.net.chatos.reader.ConnectionRequestReader;
 import fr.upem.net.chatos.reader.FrameVisitor;
+import fr.upem.net.chatos.reader.OpaqueMessageReader;
 import fr.upem.net.chatos.reader.ErrorCodeReader;
 import fr.upem.net.chatos.reader.OpCodeReader;
 import fr.upem.net.chatos.reader.Reader.ProcessStatus;
@@ -26,28 +27,52 @@ import fr.upem.net.chatos.reader.TCPAskReader;
 import fr.upem.net.chatos.reader.TCPConnectReader;
 
 class WaitingContext implements Context {
-	static final private int BUFFER_SIZE = 1024;
 	static private Logger logger = Logger.getLogger(WaitingContext.class.getName());
+
+	static private final long LOGIN_TIMEOUT = 10_000_000_000L; // to log in or to join a TCP private connexion
 	
 	final private SelectionKey    key;
     final private SocketChannel   sc;
-    final private ByteBuffer      bbin  = ByteBuffer.allocate(BUFFER_SIZE);
-    final private ByteBuffer      bbout = ByteBuffer.allocate(BUFFER_SIZE);
+    final private ByteBuffer      bbin;
+    final private OutboundQueue   out   = new OutboundQueue();
     final private Queue<Frame> queue = new LinkedList<>();
     final private ChatOsServer    server;
+    final private Reactor         reactor;
         
     private boolean closed;
     
     final private OpCodeReader reader  = new OpCodeReader();
     
     private boolean done;
+
+    private boolean released;
+
+    final private TimerWheel.Timeout loginTimeout = new TimerWheel.Timeout() {
+    	@Override
+    	void expired() {
+    		if (!done) {
+    			logger.info("Client did not log in within the login timeout, disconnecting");
+    			silentlyClose();
+    		}
+    	}
+    };
         
-    public WaitingContext(ChatOsServer server, SelectionKey key){
+    /**
+     * WaitingContext constructor
+     * @param server the Chat server
+     * @param reactor the reactor owning the key
+     * @param key the selected key of the client
+     */
+    public WaitingContext(ChatOsServer server, Reactor reactor, SelectionKey key){
     	Objects.requireNonNull(server);
+    	Objects.requireNonNull(reactor);
     	Objects.requireNonNull(key);
         this.key = key;
         this.sc = (SocketChannel) key.channel();
         this.server = server;
+        this.reactor = reactor;
+        this.bbin = server.getBufferPool().acquire();
+        reactor.schedule(loginTimeout, LOGIN_TIMEOUT);
     }
         
        
@@ -107,6 +132,13 @@ class WaitingContext implements Context {
 			Objects.requireNonNull(context);
 			computeTCPAccept(reader.get());
 		}
+
+		@Override
+		public void visit(OpaqueMessageReader reader, WaitingContext context) {
+			Objects.requireNonNull(reader);
+			Objects.requireNonNull(context);
+			queueError(ErrorCode.NOT_CONNECTED);
+		}
         	
     };
 
@@ -117,6 +149,8 @@ class WaitingContext implements Context {
     private void computeTCPFrameAnswer(byte error) {
     	if (error == ErrorCode.OK) {
     		done = true;
+    		reactor.cancel(loginTimeout);
+    		releaseBuffer();
     	} else {
     		queueError(error);
     	}
@@ -127,7 +161,7 @@ class WaitingContext implements Context {
      * @param message the message to compute
      */
     private void computeTCPAccept(TCPAccept message) {
-    	computeTCPFrameAnswer(server.tryTCPAccept(message, key, sc));
+    	computeTCPFrameAnswer(server.tryTCPAccept(message, this::toTCPContext));
     }
 
     /**
@@ -135,7 +169,15 @@ class WaitingContext implements Context {
      * @param message the message to compute
      */
     private void computeTCPConnect(TCPConnect message) {
-    	computeTCPFrameAnswer(server.tryTCPConnect(message, key, sc));
+    	computeTCPFrameAnswer(server.tryTCPConnect(message, this::toTCPContext));
+    }
+
+    /**
+     * Give the connection to a new TCPContext which will send the OK of the request once paired
+     * @return the new context, attached to the key
+     */
+    private TCPSide toTCPContext() {
+    	return new TCPContext(reactor, server.getBufferPool(), key, sc, ErrorCode.of(ErrorCode.OK).toByteBuffer(logger).get());
     }
 
     /**
@@ -143,22 +185,27 @@ class WaitingContext implements Context {
      * @param error the error to queue
      */
     private void queueError(byte error) {
-    	queue.add(new ErrorCode(error));
+    	queue.add(ErrorCode.of(error));
     }
 
     /**
      * Test if a pseudonym is available and add a new context using it if it is
+     * (the test and the registration are atomic since clients may log in from several reactors).
+     * The new context takes over bbin and the bytes already received, it gives its reader back if the pseudonym is taken
      * @param pseudo the pseudonym to add
      */
     private void requestPseudonym(String pseudo) {
-    	if (server.isAvailable(pseudo)) {
-    		var context = new ChatContext(server, key, pseudo, bbin.flip());
-    		context.queueFrame(new ErrorCode(ErrorCode.OK));
-    		server.addChatContext(pseudo, context);
-    		done = true;
-    	} else {
+    	var context = new ChatContext(server, reactor, key, pseudo, bbin);
+    	if (!server.requestPseudonymAndAdd(pseudo, context)) {
+    		context.discard();
     		queueError(ErrorCode.PSEUDO_UNAVAILABLE);
+    		return;
     	}
+    	key.attach(context);
+    	context.startKeepAlive();
+    	context.queueFrame(ErrorCode.of(ErrorCode.OK));
+    	done = true;
+    	reactor.cancel(loginTimeout);
     }
 
     /**
@@ -173,7 +220,7 @@ class WaitingContext implements Context {
     	if (!closed && bbin.hasRemaining()) {
     		intOps |= SelectionKey.OP_READ;
     	}
-    	if (bbout.position() > 0 || queue.size() != 0) {
+    	if (!out.isEmpty() || queue.size() != 0) {
     		intOps |= SelectionKey.OP_WRITE;
     	}
     	if (intOps == 0) {
@@ -209,7 +256,9 @@ class WaitingContext implements Context {
      *
      */
     private void processIn() {
-    	var ps = reader.process(bbin);
+    	bbin.flip();
+    	var ps = reader.consume(bbin);
+    	bbin.compact();
 		if (ps != ProcessStatus.REFILL) {
 			if (ps == ProcessStatus.ERROR) {
 				silentlyClose();
@@ -222,40 +271,27 @@ class WaitingContext implements Context {
     }
 
     /**
-     * @brief Try to fill bbout from the queue
+     * @brief Encode the frames of the queue into the outbound queue
      *
      */
     private void processOut() {
-		while (!queue.isEmpty()) {
-			var frame = queue.peek();
-			var optBB = frame.toByteBuffer(logger);
-			if (optBB.isEmpty()) {
-				queue.remove();
-			}
-			var bb = optBB.get();
-			if (bb.remaining() <= bbout.remaining()) {
-				queue.remove();
-				bbout.put(bb);
-			} else {
-				break;
+		while (!queue.isEmpty() && !out.isFull()) {
+			var optBB = queue.remove().toByteBuffer(logger);
+			if (optBB.isPresent()) {
+				out.add(optBB.get());
 			}
 		}
     }
 
 	/**	
-     * @brief Performs the write action on sc
-     *
-     * The convention is that both buffers are in write-mode before the call
-     * to doWrite and after the call
+     * @brief Performs the write action on sc, every encoded frame is given to a single gathering write
      *
      * @throws IOException
      */
     @Override
     public void doWrite() throws IOException {
     	processOut();
-    	bbout.flip();
-    	sc.write(bbout);
-    	bbout.compact();
+    	out.flush(sc);
     	updateInterestOps();
     }
 
@@ -265,10 +301,25 @@ class WaitingContext implements Context {
 	 */
     @Override
     public void silentlyClose() {
+    	reactor.cancel(loginTimeout);
+    	if (!done) {
+    		releaseBuffer();
+    	}
         try {
             sc.close();
         } catch (IOException e) {
             // ignore exception
         }
     }
+
+    /**
+     *
+     * @brief give bbin back to the pool of the server (only once)
+     */
+    private void releaseBuffer() {
+    	if (!released) {
+    		released = true;
+    		server.getBufferPool().release(bbin);
+    	}
+    }
 }
\ No newline at end of file
@@ -0,0 +1,113 @@
+package fr.upem.net.chatos.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+public class BroadcastLogTest {
+	private static final Object ORIGIN = new Object();
+
+	private static ByteBuffer frame(int size, int value) {
+		var bb = ByteBuffer.allocate(size);
+		while (bb.hasRemaining()) {
+			bb.put((byte) value);
+		}
+		return bb.flip();
+	}
+
+	@Tag("BroadcastLog")
+	@Test
+	public void EntriesShouldBeReadInOrder() {
+		var log = new BroadcastLog(4, BroadcastLog.LagPolicy.SKIP_AHEAD);
+		var other = new Object();
+		log.append(ORIGIN, frame(3, 1));
+		log.append(other, frame(5, 2));
+		assertEquals(0, log.tail());
+		assertEquals(2, log.head());
+		var first = log.get(0);
+		assertEquals(3, first.size());
+		assertTrue(first.isFrom(ORIGIN));
+		assertFalse(first.isFrom(other));
+		assertEquals(frame(5, 2), log.get(1).frame());
+		assertThrows(IllegalArgumentException.class, () -> log.get(2));
+	}
+
+	@Tag("BroadcastLog")
+	@Test
+	public void FrameViewsShouldBeIndependent() {
+		var log = new BroadcastLog(4, BroadcastLog.LagPolicy.SKIP_AHEAD);
+		log.append(ORIGIN, frame(4, 7));
+		var entry = log.get(0);
+		entry.frame().position(4);
+		assertEquals(4, entry.frame().remaining());
+		assertEquals(4, entry.size());
+	}
+
+	@Tag("BroadcastLog")
+	@Test
+	public void RingShouldWrapAround() {
+		var log = new BroadcastLog(4, BroadcastLog.LagPolicy.SKIP_AHEAD);
+		for (var i = 0; i < 10; i++) {
+			log.append(ORIGIN, frame(i + 1, i));
+		}
+		assertEquals(10, log.head());
+		assertEquals(6, log.tail());
+		for (var sequence = 6; sequence < 10; sequence++) {
+			var entry = log.get(sequence);
+			assertNotNull(entry);
+			assertEquals(frame(sequence + 1, sequence), entry.frame());
+		}
+	}
+
+	@Tag("BroadcastLog")
+	@Test
+	public void OverwrittenEntriesShouldBeNull() {
+		var log = new BroadcastLog(4, BroadcastLog.LagPolicy.DISCONNECT);
+		var cursor = log.head();
+		for (var i = 0; i < 6; i++) {
+			log.append(ORIGIN, frame(2, i));
+		}
+		// a client still at its cursor has lost the messages overwritten by the last appends
+		assertNull(log.get(cursor));
+		assertNull(log.get(cursor + 1));
+		assertTrue(cursor < log.tail());
+		assertNotNull(log.get(log.tail()));
+		assertEquals(BroadcastLog.LagPolicy.DISCONNECT, log.policy());
+	}
+
+	@Tag("BroadcastLog")
+	@Test
+	public void BytesBetweenShouldSumTheEntries() {
+		var log = new BroadcastLog(8, BroadcastLog.LagPolicy.SKIP_AHEAD);
+		log.append(ORIGIN, frame(3, 0));
+		log.append(ORIGIN, frame(5, 1));
+		log.append(ORIGIN, frame(7, 2));
+		assertEquals(15, log.bytesBetween(0, 3));
+		assertEquals(12, log.bytesBetween(1, 3));
+		assertEquals(5, log.bytesBetween(1, 2));
+		assertEquals(0, log.bytesBetween(2, 2));
+		assertEquals(0, log.bytesBetween(3, 1));
+	}
+
+	@Tag("BroadcastLog")
+	@Test
+	public void BytesBetweenShouldNotCountOverwrittenEntries() {
+		var log = new BroadcastLog(4, BroadcastLog.LagPolicy.SKIP_AHEAD);
+		for (var i = 0; i < 7; i++) {
+			log.append(ORIGIN, frame(i + 1, i));
+		}
+		// only the entries 3 to 6 are left
+		assertEquals(4 + 5 + 6 + 7, log.bytesBetween(0, 7));
+		assertEquals(6 + 7, log.bytesBetween(5, 7));
+		assertEquals(4 + 5, log.bytesBetween(1, 5));
+		assertEquals(0, log.bytesBetween(0, 3));
+	}
+}
@@ -0,0 +1,283 @@
+package fr.upem.net.chatos.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import fr.upem.net.chatos.frame.ConnectionRequest;
+
+public class OutboundBudgetTest {
+	private static final int  BUDGET        = 100;
+	private static final int  FRAME_SIZE    = 30;
+	private static final long ONE_HOUR      = 3_600_000_000_000L;
+	private static final long GRACE         = 200_000_000L;
+	private static final int  SOCKET_BUFFER = 4_096;
+
+	/**
+	 * A logged in client of a server which is not launched : the test thread plays the part of its reactor
+	 * unless the reactor is started
+	 */
+	private static class Client implements AutoCloseable {
+		private final ChatOsServer  server;
+		private final Reactor       reactor;
+		private final ChatContext   context;
+		private final Selector      selector;
+		private final SocketChannel sc;
+		private final SocketChannel remote;
+
+		private Client(OutboundBudget.Policy policy, long gracePeriod) throws IOException {
+			server = new ChatOsServer(0, 1, BroadcastLog.LagPolicy.SKIP_AHEAD, new OutboundBudget(BUDGET, policy, gracePeriod));
+			// small socket buffers, so that a client which does not read is soon over budget
+			remote = SocketChannel.open().setOption(StandardSocketOptions.SO_RCVBUF, SOCKET_BUFFER);
+			try (var listener = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+				remote.connect(listener.getLocalAddress());
+				sc = listener.accept().setOption(StandardSocketOptions.SO_SNDBUF, SOCKET_BUFFER);
+			}
+			sc.configureBlocking(false);
+			selector = Selector.open();
+			var key = sc.register(selector, 0);
+			reactor = new Reactor(server, 0);
+			context = new ChatContext(server, reactor, key, "bob", server.getBufferPool().acquire());
+		}
+
+		/**
+		 * @brief append a message of another client to the broadcast log
+		 * @param value the value of the bytes of the frame
+		 */
+		private void broadcast(int value) {
+			broadcast(value, FRAME_SIZE);
+		}
+
+		/**
+		 * @brief append a message of another client to the broadcast log
+		 * @param value the value of the bytes of the frame
+		 * @param size the size of the frame
+		 */
+		private void broadcast(int value, int size) {
+			var frame = ByteBuffer.allocate(size);
+			while (frame.hasRemaining()) {
+				frame.put((byte) value);
+			}
+			server.getBroadcastLog().append(new Object(), frame.flip());
+			context.broadcastAvailable();
+		}
+
+		/**
+		 * @brief write what is waiting and read it on the other side
+		 * @param count the number of frames expected
+		 * @return the value of the bytes of each frame received
+		 */
+		private int[] received(int count) throws IOException {
+			context.doWrite();
+			var bb = ByteBuffer.allocate(count * FRAME_SIZE);
+			while (bb.hasRemaining()) {
+				if (remote.read(bb) == -1) {
+					throw new IOException("Connection closed");
+				}
+			}
+			var values = new int[count];
+			for (var i = 0; i < count; i++) {
+				values[i] = bb.get(i * FRAME_SIZE);
+			}
+			return values;
+		}
+
+		/**
+		 * @brief stop the reactor, wait for its thread and close the channels and the server
+		 */
+		@Override
+		public void close() throws IOException, InterruptedException {
+			try {
+				reactor.shutdown();
+				reactor.awaitTermination();
+			} finally {
+				try (selector; sc; remote) {
+					server.close();
+				}
+			}
+		}
+	}
+
+	@Tag("OutboundBudget")
+	@Test
+	public void DropOldestShouldKeepTheLastMessages() throws IOException, InterruptedException {
+		try (var client = new Client(OutboundBudget.Policy.DROP_OLDEST, ONE_HOUR)) {
+			for (var i = 0; i < 5; i++) {
+				client.broadcast(i);
+			}
+			assertEquals(2, client.context.droppedBroadcasts());
+			assertEquals(0, client.context.overBudgetCount());
+			var values = client.received(3);
+			assertEquals(2, values[0]);
+			assertEquals(3, values[1]);
+			assertEquals(4, values[2]);
+		}
+	}
+
+	@Tag("OutboundBudget")
+	@Test
+	public void DropNewestShouldKeepTheFirstMessages() throws IOException, InterruptedException {
+		try (var client = new Client(OutboundBudget.Policy.DROP_NEWEST, ONE_HOUR)) {
+			for (var i = 0; i < 5; i++) {
+				client.broadcast(i);
+			}
+			assertEquals(2, client.context.droppedBroadcasts());
+			assertEquals(0, client.context.overBudgetCount());
+			var values = client.received(3);
+			assertEquals(0, values[0]);
+			assertEquals(1, values[1]);
+			assertEquals(2, values[2]);
+		}
+	}
+
+	@Tag("OutboundBudget")
+	@Test
+	public void DropNewestShouldKeepTheMessagesFollowingTheDrop() throws IOException, InterruptedException {
+		try (var client = new Client(OutboundBudget.Policy.DROP_NEWEST, ONE_HOUR)) {
+			for (var i = 0; i < 4; i++) {
+				client.broadcast(i);
+			}
+			assertEquals(2, client.received(3)[2]);
+			client.broadcast(4);
+			assertEquals(1, client.context.droppedBroadcasts());
+			assertEquals(4, client.received(1)[0]);
+		}
+	}
+
+	@Tag("OutboundBudget")
+	@Test
+	public void DisconnectShouldLoseNothingDuringTheGracePeriod() throws IOException, InterruptedException {
+		try (var client = new Client(OutboundBudget.Policy.DISCONNECT, ONE_HOUR)) {
+			for (var i = 0; i < 5; i++) {
+				client.broadcast(i);
+			}
+			assertEquals(0, client.context.droppedBroadcasts());
+			assertEquals(1, client.context.overBudgetCount());
+			assertTrue(client.context.isOpen());
+			var values = client.received(5);
+			assertEquals(0, values[0]);
+			assertEquals(4, values[4]);
+		}
+	}
+
+	@Tag("OutboundBudget")
+	@Test
+	public void DisconnectShouldCloseAfterTheGracePeriod() throws IOException, InterruptedException {
+		try (var client = new Client(OutboundBudget.Policy.DISCONNECT, 0)) {
+			for (var i = 0; i < 3; i++) {
+				client.broadcast(i);
+			}
+			assertTrue(client.context.isOpen());
+			client.broadcast(3);
+			assertEquals(1, client.context.overBudgetCount());
+			// closed by the reactor at the end of its iteration
+			assertTrue(client.context.isOpen());
+			client.context.applyInterestOps();
+			assertFalse(client.context.isOpen());
+		}
+	}
+
+	@Tag("OutboundBudget")
+	@Test
+	public void DisconnectShouldCloseAtTheEndOfTheGracePeriodWithoutNewMessages() throws IOException, InterruptedException {
+		try (var client = new Client(OutboundBudget.Policy.DISCONNECT, GRACE)) {
+			client.reactor.start();
+			var start = System.nanoTime();
+			// the client does not read, most of the messages stay waiting once the socket buffers are full
+			client.reactor.execute(() -> {
+				for (var i = 0; i < 16; i++) {
+					client.broadcast(i, 64 * SOCKET_BUFFER);
+				}
+			});
+			while (client.context.isOpen() && System.nanoTime() - start < 50 * GRACE) {
+				Thread.sleep(10);
+			}
+			assertFalse(client.context.isOpen());
+			assertTrue(System.nanoTime() - start >= GRACE);
+			assertEquals(1, client.context.overBudgetCount());
+		}
+	}
+
+	@Tag("OutboundBudget")
+	@Test
+	public void DrainedClientShouldNotBeClosedAtTheEndOfTheGracePeriod() throws IOException, InterruptedException {
+		try (var client = new Client(OutboundBudget.Policy.DISCONNECT, GRACE)) {
+			client.reactor.start();
+			client.reactor.execute(() -> {
+				for (var i = 0; i < 4; i++) {
+					client.broadcast(i);
+				}
+				try {
+					client.context.doWrite();
+				} catch (IOException ioe) {
+					throw new UncheckedIOException(ioe);
+				}
+			});
+			var bb = ByteBuffer.allocate(4 * FRAME_SIZE);
+			while (bb.hasRemaining()) {
+				client.remote.read(bb);
+			}
+			Thread.sleep(3 * GRACE / 1_000_000);
+			assertTrue(client.context.isOpen());
+			assertEquals(1, client.context.overBudgetCount());
+		}
+	}
+
+	@Tag("OutboundBudget")
+	@Test
+	public void FramesReadOnceTheGracePeriodIsOverShouldNotBeDispatched() throws IOException, InterruptedException {
+		try (var client = new Client(OutboundBudget.Policy.DISCONNECT, 0)) {
+			// every ConnectionRequest is answered inline with an ErrorCode, the answers go over budget while reading
+			var request = new ConnectionRequest("bob").toByteBuffer(null).get();
+			var requests = ByteBuffer.allocate(BUDGET * request.remaining());
+			while (requests.hasRemaining()) {
+				requests.put(request.duplicate());
+			}
+			requests.flip();
+			while (requests.hasRemaining()) {
+				client.remote.write(requests);
+			}
+			client.reactor.start();
+			var failure = new AtomicReference<Throwable>();
+			var read = new CountDownLatch(1);
+			client.reactor.execute(() -> {
+				try {
+					client.context.doRead();
+				} catch (Throwable t) {
+					failure.set(t);
+				} finally {
+					read.countDown();
+				}
+			});
+			assertTrue(read.await(5, TimeUnit.SECONDS));
+			assertNull(failure.get());
+			var start = System.nanoTime();
+			while (client.context.isOpen() && System.nanoTime() - start < 50 * GRACE) {
+				Thread.sleep(10);
+			}
+			assertFalse(client.context.isOpen());
+			assertEquals(1, client.context.overBudgetCount());
+			// the reactor still runs the tasks of its other clients
+			var alive = new CountDownLatch(1);
+			client.reactor.execute(alive::countDown);
+			assertTrue(alive.await(5, TimeUnit.SECONDS));
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package fr.upem.net.chatos.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+public class OutboundQueueTest {
+
+	@Tag("OutboundQueue")
+	@Test
+	public void EmptyBuffersShouldBeIgnored() {
+		var out = new OutboundQueue();
+		out.add(ByteBuffer.allocate(0));
+		assertTrue(out.isEmpty());
+		out.add(ByteBuffer.allocate(3));
+		assertFalse(out.isEmpty());
+		assertEquals(3, out.size());
+	}
+
+	@Tag("OutboundQueue")
+	@Test
+	public void QueueShouldBeFullAfterAWholeGather() {
+		var out = new OutboundQueue();
+		for (var i = 0; i < OutboundQueue.MAX_GATHER - 1; i++) {
+			out.add(ByteBuffer.allocate(1));
+		}
+		assertFalse(out.isFull());
+		out.add(ByteBuffer.allocate(1));
+		assertTrue(out.isFull());
+		assertEquals(OutboundQueue.MAX_GATHER, out.size());
+	}
+
+	@Tag("OutboundQueue")
+	@Test
+	public void FlushShouldWriteEveryBufferInOrder() throws IOException {
+		try (var listener = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+				var remote = SocketChannel.open(listener.getLocalAddress());
+				var sc = listener.accept()) {
+			var out = new OutboundQueue();
+			var count = OutboundQueue.MAX_GATHER + 2;
+			for (var i = 0; i < count; i++) {
+				out.add(ByteBuffer.wrap(new byte[] {(byte) i, (byte) i}));
+			}
+			// a single write gathers at most MAX_GATHER buffers
+			assertEquals(2 * OutboundQueue.MAX_GATHER, out.flush(sc));
+			assertEquals(4, out.size());
+			assertEquals(4, out.flush(sc));
+			assertTrue(out.isEmpty());
+			assertEquals(0, out.size());
+			var bb = ByteBuffer.allocate(2 * count);
+			while (bb.hasRemaining()) {
+				remote.read(bb);
+			}
+			for (var i = 0; i < count; i++) {
+				assertEquals((byte) i, bb.get(2 * i));
+				assertEquals((byte) i, bb.get(2 * i + 1));
+			}
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package fr.upem.net.chatos.server;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+public class ReactorTest {
+
+	/**
+	 * @brief stop a reactor, wait for its thread and close its server
+	 * @param reactor the reactor
+	 * @param server the server
+	 */
+	private static void stop(Reactor reactor, ChatOsServer server) throws IOException, InterruptedException {
+		reactor.shutdown();
+		reactor.awaitTermination();
+		server.close();
+	}
+
+	/**
+	 * @brief check that the reactor still runs the tasks submitted
+	 * @param reactor the reactor
+	 * @return true if a new task is run
+	 */
+	private static boolean isAlive(Reactor reactor) throws InterruptedException {
+		var alive = new CountDownLatch(1);
+		reactor.execute(alive::countDown);
+		return alive.await(5, TimeUnit.SECONDS);
+	}
+
+	@Tag("Reactor")
+	@Test
+	public void FailingTaskShouldNotStopTheReactor() throws IOException, InterruptedException {
+		var server = new ChatOsServer(0, 1);
+		var reactor = new Reactor(server, 0);
+		reactor.start();
+		try {
+			reactor.execute(() -> {
+				throw new IllegalStateException("bug");
+			});
+			assertTrue(isAlive(reactor));
+		} finally {
+			stop(reactor, server);
+		}
+	}
+
+	@Tag("Reactor")
+	@Test
+	public void FailingContextShouldBeClosedWithoutStoppingTheReactor() throws IOException, InterruptedException {
+		var server = new ChatOsServer(0, 1);
+		var reactor = new Reactor(server, 0);
+		var closed = new CountDownLatch(1);
+		var context = new Context() {
+			@Override
+			public void doRead() {
+				throw new IllegalStateException("bug");
+			}
+
+			@Override
+			public void doWrite() {
+				// nothing to write
+			}
+
+			@Override
+			public void silentlyClose() {
+				closed.countDown();
+			}
+		};
+		reactor.start();
+		try (var listener = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+				var remote = SocketChannel.open(listener.getLocalAddress());
+				var sc = listener.accept()) {
+			sc.configureBlocking(false);
+			reactor.execute(() -> {
+				try {
+					reactor.register(sc, SelectionKey.OP_READ, context);
+				} catch (IOException ioe) {
+					throw new AssertionError(ioe);
+				}
+			});
+			remote.write(ByteBuffer.wrap(new byte[] {1}));
+			assertTrue(closed.await(5, TimeUnit.SECONDS));
+			assertTrue(isAlive(reactor));
+		} finally {
+			stop(reactor, server);
+		}
+	}
+}
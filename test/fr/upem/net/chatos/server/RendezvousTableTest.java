@@ -0,0 +1,136 @@
+package fr.upem.net.chatos.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+public class RendezvousTableTest {
+
+	/**
+	 * @brief find keys of the given home slots, the table must not be resized by the test
+	 * @param table the table
+	 * @param homes the home slot of each key
+	 * @return the keys, all different
+	 */
+	private static long[] keysOf(RendezvousTable<String> table, int... homes) {
+		var mask = table.capacity() - 1;
+		var keys = new long[homes.length];
+		var password = 0;
+		for (var i = 0; i < homes.length; i++) {
+			long key;
+			do {
+				key = RendezvousTable.key(1, 2, (short) password++);
+			} while ((RendezvousTable.hash(key) & mask) != homes[i]);
+			keys[i] = key;
+		}
+		return keys;
+	}
+
+	@Tag("RendezvousTable")
+	@Test
+	public void KeyShouldPackTheIdsAndThePassword() {
+		assertEquals(1L << 40 | 2L << 16 | 0xFFFF, RendezvousTable.key(1, 2, (short) -1));
+		assertFalse(RendezvousTable.key(1, 2, (short) 3) == RendezvousTable.key(2, 1, (short) 3));
+		assertThrows(IllegalArgumentException.class, () -> RendezvousTable.key(RendezvousTable.MAX_ID + 1, 0, (short) 0));
+		assertThrows(IllegalArgumentException.class, () -> RendezvousTable.key(0, -1, (short) 0));
+	}
+
+	@Tag("RendezvousTable")
+	@Test
+	public void PutIfAbsentShouldKeepTheFirstValue() {
+		var table = new RendezvousTable<String>();
+		var key = RendezvousTable.key(1, 2, (short) 3);
+		assertTrue(table.putIfAbsent(key, "a"));
+		assertFalse(table.putIfAbsent(key, "b"));
+		assertEquals("a", table.get(key));
+		assertEquals(1, table.size());
+		assertEquals("a", table.remove(key));
+		assertNull(table.remove(key));
+		assertEquals(0, table.size());
+	}
+
+	@Tag("RendezvousTable")
+	@Test
+	public void RemoveShouldShiftTheClusterBack() {
+		var table = new RendezvousTable<String>();
+		var keys = keysOf(table, 5, 5, 5);
+		table.putIfAbsent(keys[0], "a");
+		table.putIfAbsent(keys[1], "b");
+		table.putIfAbsent(keys[2], "c");
+		assertEquals("a", table.remove(keys[0]));
+		assertEquals("b", table.get(keys[1]));
+		assertEquals("c", table.get(keys[2]));
+		assertEquals("b", table.remove(keys[1]));
+		assertEquals("c", table.get(keys[2]));
+		assertEquals(1, table.size());
+	}
+
+	@Tag("RendezvousTable")
+	@Test
+	public void ProbeShouldSucceedAfterRemove() {
+		var table = new RendezvousTable<String>();
+		// a and b share slot 7, c (home 8) is pushed to slot 9, d stays at its home slot 10
+		var keys = keysOf(table, 7, 7, 8, 10);
+		table.putIfAbsent(keys[0], "a");
+		table.putIfAbsent(keys[1], "b");
+		table.putIfAbsent(keys[2], "c");
+		table.putIfAbsent(keys[3], "d");
+		assertEquals("b", table.remove(keys[1]));
+		assertNull(table.get(keys[1]));
+		assertEquals("a", table.get(keys[0]));
+		assertEquals("c", table.get(keys[2]));
+		assertEquals("d", table.get(keys[3]));
+		// the slot freed by the shift is reused
+		assertTrue(table.putIfAbsent(keys[1], "e"));
+		assertEquals("e", table.get(keys[1]));
+		assertEquals("c", table.remove(keys[2]));
+		assertEquals("e", table.get(keys[1]));
+		assertEquals("d", table.get(keys[3]));
+		assertEquals(3, table.size());
+	}
+
+	@Tag("RendezvousTable")
+	@Test
+	public void ClusterShouldWrapAround() {
+		var table = new RendezvousTable<String>();
+		var last = table.capacity() - 1;
+		// a at the last slot, b wraps to slot 0, c (home 0) is pushed to slot 1
+		var keys = keysOf(table, last, last, 0);
+		table.putIfAbsent(keys[0], "a");
+		table.putIfAbsent(keys[1], "b");
+		table.putIfAbsent(keys[2], "c");
+		assertEquals("a", table.remove(keys[0]));
+		assertEquals("b", table.get(keys[1]));
+		assertEquals("c", table.get(keys[2]));
+		assertEquals("b", table.remove(keys[1]));
+		assertEquals("c", table.get(keys[2]));
+		assertTrue(table.putIfAbsent(keys[0], "d"));
+		assertEquals("d", table.get(keys[0]));
+		assertEquals("c", table.get(keys[2]));
+	}
+
+	@Tag("RendezvousTable")
+	@Test
+	public void ResizeShouldKeepEveryEntry() {
+		var table = new RendezvousTable<String>();
+		var capacity = table.capacity();
+		var count = 4 * capacity;
+		for (var i = 0; i < count; i++) {
+			assertTrue(table.putIfAbsent(RendezvousTable.key(i, i + 1, (short) i), "v" + i));
+		}
+		assertEquals(count, table.size());
+		assertTrue(table.capacity() > capacity);
+		for (var i = 0; i < count; i += 2) {
+			assertEquals("v" + i, table.remove(RendezvousTable.key(i, i + 1, (short) i)));
+		}
+		for (var i = 1; i < count; i += 2) {
+			assertEquals("v" + i, table.get(RendezvousTable.key(i, i + 1, (short) i)));
+		}
+		assertEquals(count / 2, table.size());
+	}
+}
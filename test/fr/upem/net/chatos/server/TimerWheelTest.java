@@ -0,0 +1,169 @@
+package fr.upem.net.chatos.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+public class TimerWheelTest {
+	private static final int  SLOTS = 8;
+	private static final long TICK  = 10;
+
+	/**
+	 * Timeout counting its expirations
+	 */
+	private static class Counter extends TimerWheel.Timeout {
+		private int expirations;
+
+		@Override
+		void expired() {
+			expirations++;
+		}
+	}
+
+	@Tag("TimerWheel")
+	@Test
+	public void SlotsShouldBeAPowerOfTwo() {
+		assertThrows(IllegalArgumentException.class, () -> new TimerWheel(6, TICK, 0));
+		assertThrows(IllegalArgumentException.class, () -> new TimerWheel(SLOTS, 0, 0));
+	}
+
+	@Tag("TimerWheel")
+	@Test
+	public void TimeoutShouldExpireAtTheFirstTickAfterItsDeadline() {
+		var wheel = new TimerWheel(SLOTS, TICK, 0);
+		var timeout = new Counter();
+		wheel.schedule(timeout, 25, 0);
+		assertTrue(timeout.isScheduled());
+		assertEquals(0, wheel.advance(29));
+		assertEquals(1, wheel.advance(30));
+		assertEquals(1, timeout.expirations);
+		assertFalse(timeout.isScheduled());
+		assertEquals(0, wheel.size());
+	}
+
+	@Tag("TimerWheel")
+	@Test
+	public void SlotShouldRollOver() {
+		var wheel = new TimerWheel(SLOTS, TICK, 0);
+		var timeout = new Counter();
+		wheel.advance(65);
+		// tick 9 is in slot 1, after the end of the wheel
+		wheel.schedule(timeout, 25, 65);
+		assertEquals(0, wheel.advance(85));
+		assertEquals(1, wheel.advance(90));
+		assertEquals(1, timeout.expirations);
+	}
+
+	@Tag("TimerWheel")
+	@Test
+	public void TimeoutShouldWaitForItsRevolution() {
+		var wheel = new TimerWheel(SLOTS, TICK, 0);
+		var timeout = new Counter();
+		// tick 25 is in slot 1, the wheel goes through slot 1 at the ticks 1, 9 and 17 first
+		wheel.schedule(timeout, 250, 0);
+		for (var now = 0; now < 250; now += 5) {
+			assertEquals(0, wheel.advance(now));
+		}
+		assertEquals(1, wheel.size());
+		assertEquals(1, wheel.advance(250));
+		assertEquals(1, timeout.expirations);
+	}
+
+	@Tag("TimerWheel")
+	@Test
+	public void LongPauseShouldRunEveryTimeoutOnce() {
+		var wheel = new TimerWheel(SLOTS, TICK, 0);
+		var timeouts = new Counter[3 * SLOTS];
+		for (var i = 0; i < timeouts.length; i++) {
+			timeouts[i] = new Counter();
+			wheel.schedule(timeouts[i], i * TICK, 0);
+		}
+		assertEquals(timeouts.length, wheel.advance(10_000));
+		for (var timeout : timeouts) {
+			assertEquals(1, timeout.expirations);
+		}
+		assertEquals(0, wheel.size());
+	}
+
+	@Tag("TimerWheel")
+	@Test
+	public void CancelShouldUnlinkTheTimeout() {
+		var wheel = new TimerWheel(SLOTS, TICK, 0);
+		var first = new Counter();
+		var second = new Counter();
+		wheel.schedule(first, 20, 0);
+		wheel.schedule(second, 20, 0);
+		wheel.cancel(first);
+		wheel.cancel(first);
+		assertEquals(1, wheel.size());
+		assertEquals(1, wheel.advance(20));
+		assertEquals(0, first.expirations);
+		assertEquals(1, second.expirations);
+	}
+
+	@Tag("TimerWheel")
+	@Test
+	public void ScheduleShouldMoveAScheduledTimeout() {
+		var wheel = new TimerWheel(SLOTS, TICK, 0);
+		var timeout = new Counter();
+		wheel.schedule(timeout, 20, 0);
+		wheel.schedule(timeout, 50, 0);
+		assertEquals(1, wheel.size());
+		assertEquals(0, wheel.advance(40));
+		assertEquals(1, wheel.advance(50));
+	}
+
+	@Tag("TimerWheel")
+	@Test
+	public void TimeoutScheduledAgainShouldNotRunTwiceInAnAdvance() {
+		var wheel = new TimerWheel(SLOTS, TICK, 0);
+		var timeout = new TimerWheel.Timeout() {
+			private int expirations;
+
+			@Override
+			void expired() {
+				// a whole revolution later : the same slot, the wheel runs it at 10, 90 and 170
+				if (++expirations < 3) {
+					wheel.schedule(this, SLOTS * TICK, 10 + (expirations - 1) * SLOTS * TICK);
+				}
+			}
+		};
+		wheel.schedule(timeout, 10, 0);
+		assertEquals(1, wheel.advance(10));
+		assertEquals(1, wheel.advance(90));
+		assertEquals(1, wheel.advance(170));
+		assertEquals(0, wheel.advance(250));
+		assertEquals(3, timeout.expirations);
+	}
+
+	@Tag("TimerWheel")
+	@Test
+	public void FailingTimeoutShouldNotPreventTheOtherOnes() {
+		var wheel = new TimerWheel(SLOTS, TICK, 0);
+		var counter = new Counter();
+		wheel.schedule(new TimerWheel.Timeout() {
+			@Override
+			void expired() {
+				throw new IllegalStateException("bug");
+			}
+		}, 20, 0);
+		wheel.schedule(counter, 20, 0);
+		assertEquals(2, wheel.advance(20));
+		assertEquals(1, counter.expirations);
+		assertEquals(0, wheel.size());
+	}
+
+	@Tag("TimerWheel")
+	@Test
+	public void SelectTimeoutShouldReachTheNextTimeout() {
+		var wheel = new TimerWheel(SLOTS, 10_000_000L, 0);
+		assertEquals(0, wheel.selectTimeout(0));
+		wheel.schedule(new Counter(), 35_000_000L, 0);
+		assertEquals(40, wheel.selectTimeout(0));
+		assertEquals(15, wheel.selectTimeout(25_000_000L));
+	}
+}
@@ -13,6 +13,7 @@ import org.junit.jupiter.api.Test;
 import fr.upem.net.chatos.reader.ConnectionRequestReader;
 import fr.upem.net.chatos.reader.FrameVisitor;
 import fr.upem.net.chatos.reader.ErrorCodeReader;
+import fr.upem.net.chatos.reader.OpaqueMessageReader;
 import fr.upem.net.chatos.reader.SendMessageAllReader;
 import fr.upem.net.chatos.reader.SendPrivateMessageReader;
 import fr.upem.net.chatos.reader.TCPAbortReader;
@@ -96,6 +97,10 @@ public class ConnectionRequestReaderTest {
 			@Override
 			public void visit(TCPAcceptReader tcpAcceptReader, Void context) {
 			}
+
+			@Override
+			public void visit(OpaqueMessageReader opaqueMessageReader, Void context) {
+			}
 		};
 		
 		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
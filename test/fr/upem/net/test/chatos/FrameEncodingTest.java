@@ -0,0 +1,95 @@
+package fr.upem.net.test.chatos;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import fr.upem.net.chatos.frame.ErrorCode;
+import fr.upem.net.chatos.frame.MessageAll;
+import fr.upem.net.chatos.frame.PrivateMessage;
+import fr.upem.net.chatos.frame.TCPAsk;
+import fr.upem.net.chatos.reader.OpCodeReader;
+
+public class FrameEncodingTest {
+	private static final Charset UTF_8 = StandardCharsets.UTF_8;
+	private static final int BUFFER_SIZE = 4096;
+	private static final Logger logger = Logger.getLogger(FrameEncodingTest.class.getName());
+	
+	@Tag("Frame")
+	@Test
+	public void PrivateMessageShouldBeEncodedAsBefore() {
+		var sender = "abc";
+		var recipient = "déf";
+		var message = "salut 😀 à toi \uD800 !";
+		var expected = ByteBuffer.allocate(BUFFER_SIZE).put(OpCodeReader.SPM_CODE);
+		for (var s : new String[] {sender, recipient, message}) {
+			var bb = UTF_8.encode(s);
+			expected.putShort((short) bb.remaining()).put(bb);
+		}
+		expected.flip();
+		var frame = new PrivateMessage(sender, recipient, message);
+		assertEquals(expected.remaining(), frame.encodedSize());
+		var dst = ByteBuffer.allocate(BUFFER_SIZE).put((byte) 42);
+		frame.encodeInto(dst);
+		assertEquals(expected, dst.flip().position(1));
+		assertEquals(expected, frame.toByteBuffer(logger).get());
+	}
+	
+	@Tag("Frame")
+	@Test
+	public void TCPAskShouldBeEncodedAsBefore() {
+		var abc = UTF_8.encode("abc");
+		var expected = ByteBuffer.allocate(BUFFER_SIZE).put(OpCodeReader.TCPASK_CODE)
+				.putShort((short) 3).put(abc)
+				.putShort((short) 3).put(abc.flip())
+				.putShort((short) 12)
+				.flip();
+		assertEquals(expected, new TCPAsk("abc", "abc", (short) 12).toByteBuffer(logger).get());
+	}
+	
+	@Tag("Frame")
+	@Test
+	public void EncodeIntoShouldNotWriteWhenTooSmall() {
+		var frame = new MessageAll("abc", "salut");
+		var dst = ByteBuffer.allocate(frame.encodedSize() - 1);
+		assertThrows(BufferOverflowException.class, () -> frame.encodeInto(dst));
+		assertEquals(0, dst.position());
+	}
+	
+	@Tag("Frame")
+	@Test
+	public void TooLongStringShouldNotBeEncoded() {
+		var frame = new MessageAll("abc", "é".repeat(600));
+		assertEquals(-1, frame.encodedSize());
+		assertTrue(frame.toByteBuffer(logger).isEmpty());
+	}
+	
+	@Tag("Frame")
+	@Test
+	public void KnownErrorCodesShouldBeShared() {
+		var ok = ErrorCode.of(ErrorCode.OK);
+		assertTrue(ok == ErrorCode.of(ErrorCode.OK));
+		assertEquals(ByteBuffer.wrap(new byte[] {OpCodeReader.ERROR_PACKET_CODE, ErrorCode.OK}), ok.toByteBuffer(logger).get());
+		var dst = ByteBuffer.allocate(2);
+		ok.encodeInto(dst);
+		assertEquals(ok.toByteBuffer(logger).get(), dst.flip());
+	}
+	
+	@Tag("Frame")
+	@Test
+	public void EveryErrorCodeShouldBeNamed() {
+		assertEquals("Error : NOT_CONNECTED", ErrorCode.of(ErrorCode.NOT_CONNECTED).toString());
+		assertEquals("Error : ALREADY_CONNECTED", ErrorCode.of(ErrorCode.ALREADY_CONNECTED).toString());
+		assertEquals("Error : KEEPALIVE", ErrorCode.of(ErrorCode.KEEPALIVE).toString());
+		assertEquals("Error : UNKNOWN", ErrorCode.of((byte) 42).toString());
+	}
+}
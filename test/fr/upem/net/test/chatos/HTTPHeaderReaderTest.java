@@ -1,6 +1,8 @@
 package fr.upem.net.test.chatos;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
@@ -9,6 +11,7 @@ import java.nio.charset.StandardCharsets;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 
+import fr.upem.net.chatos.frame.HTTPHeader;
 import fr.upem.net.chatos.reader.HTTPHeaderReader;
 import fr.upem.net.chatos.reader.Reader.ProcessStatus;
 
@@ -82,4 +85,137 @@ class HTTPHeaderReaderTest {
 		assertEquals(ProcessStatus.DONE, CRLF.process(bb));
 	}
 	
+	@Tag("HTTPHeaderReader")
+	@Test
+	public void ShouldGetLongContentLength() {
+		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+		String s = "HTTP/1.0 200 OK\r\n"
+				+ "Content-Type: image/png\r\n"
+				+ "Content-Length: 5000000000\r\n";
+		bb.put(ASCII.encode(s));
+		var CRLF = new HTTPHeaderReader();
+		assertEquals(ProcessStatus.DONE, CRLF.process(bb));
+		assertEquals("image/png" , CRLF.get().getContent_type());
+		assertEquals(5_000_000_000L, CRLF.get().getContentLength());
+	}
+	
+	@Tag("HTTPHeaderReader")
+	@Test
+	public void ShouldGetContentEncoding() {
+		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+		String s = "HTTP/1.0 200 OK\r\n"
+				+ "Content-Type: text/plain\r\n"
+				+ "Content-Encoding: deflate\r\n"
+				+ "Transfer-Encoding: chunked\r\n";
+		bb.put(ASCII.encode(s));
+		var CRLF = new HTTPHeaderReader();
+		assertEquals(ProcessStatus.DONE, CRLF.process(bb));
+		assertEquals("deflate" , CRLF.get().getContent_encoding());
+		assertTrue(CRLF.get().isChunked());
+	}
+	
+	@Tag("HTTPHeaderReader")
+	@Test
+	public void ShouldNegotiateDeflateOnlyIfAccepted() {
+		assertEquals("deflate", HTTPHeader.negotiateEncoding("gzip, deflate;q=0.5"));
+		assertEquals("identity", HTTPHeader.negotiateEncoding("deflate;q=0"));
+		assertEquals("identity", HTTPHeader.negotiateEncoding("gzip"));
+	}
+	
+	@Tag("HTTPHeaderReader")
+	@Test
+	public void ShouldRejectNegativeContentLength() {
+		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+		String s = "HTTP/1.0 200 OK\r\n"
+				+ "Content-Type: text/plain\r\n"
+				+ "Content-Length: -5\r\n";
+		bb.put(ASCII.encode(s));
+		var CRLF = new HTTPHeaderReader();
+		assertEquals(ProcessStatus.ERROR, CRLF.process(bb));
+	}
+	
+	@Tag("HTTPHeaderReader")
+	@Test
+	public void ShouldRejectUnparsableContentLength() {
+		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+		String s = "HTTP/1.0 200 OK\r\n"
+				+ "Content-Type: text/plain\r\n"
+				+ "Content-Length: abc\r\n";
+		bb.put(ASCII.encode(s));
+		var CRLF = new HTTPHeaderReader();
+		assertEquals(ProcessStatus.ERROR, CRLF.process(bb));
+	}
+	
+	@Tag("HTTPHeaderReader")
+	@Test
+	public void ShouldRejectUnknownTransferEncoding() {
+		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+		String s = "HTTP/1.0 200 OK\r\n"
+				+ "Content-Type: text/plain\r\n"
+				+ "Transfer-Encoding: gzip\r\n";
+		bb.put(ASCII.encode(s));
+		var CRLF = new HTTPHeaderReader();
+		assertEquals(ProcessStatus.ERROR, CRLF.process(bb));
+		assertThrows(IllegalStateException.class, CRLF::get);
+	}
+	
+	@Tag("HTTPHeaderReader")
+	@Test
+	public void ShouldRejectUnknownContentEncoding() {
+		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+		String s = "HTTP/1.0 200 OK\r\n"
+				+ "Content-Type: text/plain\r\n"
+				+ "Content-Encoding: gzip\r\n"
+				+ "Content-Length: 60\r\n";
+		bb.put(ASCII.encode(s));
+		var CRLF = new HTTPHeaderReader();
+		assertEquals(ProcessStatus.ERROR, CRLF.process(bb));
+		assertThrows(IllegalStateException.class, CRLF::get);
+	}
+	
+	@Tag("HTTPHeaderReader")
+	@Test
+	public void ShouldGetETagAndContentEncodingInAnyOrder() {
+		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+		String s = "HTTP/1.0 206 PartialContent\r\n"
+				+ "Content-Type: text/plain\r\n"
+				+ "ETag: 4c4b40-18f3a2b1c00\r\n"
+				+ "Content-Encoding: deflate\r\n"
+				+ "Transfer-Encoding: chunked\r\n";
+		bb.put(ASCII.encode(s));
+		var CRLF = new HTTPHeaderReader();
+		assertEquals(ProcessStatus.DONE, CRLF.process(bb));
+		assertEquals("4c4b40-18f3a2b1c00" , CRLF.get().getETag());
+		assertEquals("deflate" , CRLF.get().getContent_encoding());
+	}
+	
+	@Tag("HTTPHeaderReader")
+	@Test
+	public void ShouldStayInErrorAfterAMalformedLine() {
+		var status = ASCII.encode("HTTP/1.0 200\r\n");
+		var CRLF = new HTTPHeaderReader();
+		assertEquals(ProcessStatus.ERROR, CRLF.process(ByteBuffer.allocate(BUFFER_SIZE).put(status)));
+		assertThrows(IllegalStateException.class, CRLF::get);
+		assertThrows(IllegalStateException.class, () -> CRLF.process(ByteBuffer.allocate(BUFFER_SIZE)));
+		var type = ASCII.encode("HTTP/1.0 200 OK\r\nContent-Type:\r\n");
+		var other = new HTTPHeaderReader();
+		assertEquals(ProcessStatus.ERROR, other.process(ByteBuffer.allocate(BUFFER_SIZE).put(type)));
+		assertThrows(IllegalStateException.class, other::get);
+		assertThrows(IllegalStateException.class, () -> other.process(ByteBuffer.allocate(BUFFER_SIZE)));
+	}
+	
+	@Tag("HTTPHeaderReader")
+	@Test
+	public void ShouldRejectMalformedETag() {
+		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+		String s = "HTTP/1.0 200 OK\r\n"
+				+ "Content-Type: text/plain\r\n"
+				+ "ETag: \"4c4b40\t18f3a2b1c00\"\r\n"
+				+ "Content-Length: 60\r\n";
+		bb.put(ASCII.encode(s));
+		var CRLF = new HTTPHeaderReader();
+		assertEquals(ProcessStatus.ERROR, CRLF.process(bb));
+		assertThrows(IllegalStateException.class, CRLF::get);
+	}
+	
 }
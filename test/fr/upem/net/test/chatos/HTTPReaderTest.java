@@ -2,9 +2,12 @@ package fr.upem.net.test.chatos;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.Deflater;
 
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
@@ -86,4 +89,162 @@ class HTTPReaderTest {
 		assertEquals(ProcessStatus.DONE, responce.process(bb));
 	}
 	
+	@Tag("HTTPReader")
+	@Test
+	public void ShouldStreamBinaryContentToFile() throws IOException {
+		var target = Files.createTempFile("chatos", ".bin");
+		try {
+			var body = new byte[3 * BUFFER_SIZE];
+			for (var i = 0; i < body.length; i++) {
+				body[i] = (byte) i;
+			}
+			var responce = new HTTPReader();
+			var progress = new long[1];
+			responce.streamTo(target, (received, total) -> progress[0] = received);
+			ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+			bb.put(ASCII.encode("HTTP/1.0 200 OK\r\n"
+					+ "Content-Type: application/octet-stream\r\n"
+					+ "Content-Length: " + body.length + "\r\n"));
+			var ps = responce.process(bb);
+			for (var offset = 0; offset < body.length; offset += BUFFER_SIZE / 2) {
+				assertEquals(ProcessStatus.REFILL, ps);
+				bb.put(body, offset, BUFFER_SIZE / 2);
+				ps = responce.process(bb);
+			}
+			assertEquals(ProcessStatus.DONE, ps);
+			assertEquals(body.length, progress[0]);
+			assertArrayEquals(body, Files.readAllBytes(target));
+		} finally {
+			Files.delete(target);
+		}
+	}
+	
+	@Tag("HTTPReader")
+	@Test
+	public void ShouldAppendPartialContentAfterOffset() throws IOException {
+		var target = Files.createTempFile("chatos", ".part");
+		try {
+			Files.write(target, ASCII.encode("aaaXXXX").array());
+			var responce = new HTTPReader();
+			var progress = new long[2];
+			responce.streamTo(target, 3, (received, total) -> { progress[0] = received; progress[1] = total; });
+			ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+			bb.put(ASCII.encode("HTTP/1.0 206 PartialContent\r\n"
+					+ "Content-Type: text/plain\r\n"
+					+ "Content-Length: 2\r\n"
+					+ "bb"));
+			assertEquals(ProcessStatus.DONE, responce.process(bb));
+			assertEquals(5, progress[0]);
+			assertEquals(5, progress[1]);
+			assertEquals("aaabb", Files.readString(target, ASCII));
+		} finally {
+			Files.delete(target);
+		}
+	}
+	
+	@Tag("HTTPReader")
+	@Test
+	public void ShouldGetChunkedContent() {
+		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+		String s = "HTTP/1.0 200 OK\r\n"
+				+ "Content-Type: text/plain\r\n"
+				+ "Transfer-Encoding: chunked\r\n"
+				+ "3\r\naaa\r\n"
+				+ "a;ext=1\r\nbbbbbbbbbb\r\n"
+				+ "0\r\n\r\n"
+				+ "DAUTRESTRUCS";
+		bb.put(ASCII.encode(s));
+		var responce = new HTTPReader();
+		assertEquals(ProcessStatus.DONE, responce.process(bb));
+		assertEquals("aaabbbbbbbbbb", responce.get().getContent());
+		bb.flip();
+		assertEquals("DAUTRESTRUCS", ASCII.decode(bb).toString());
+	}
+	
+	@Tag("HTTPReader")
+	@Test
+	public void ShouldStreamChunkedContentToFile() throws IOException {
+		var target = Files.createTempFile("chatos", ".bin");
+		try {
+			var responce = new HTTPReader();
+			var progress = new long[2];
+			responce.streamTo(target, (received, total) -> { progress[0] = received; progress[1] = total; });
+			ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+			bb.put(ASCII.encode("HTTP/1.0 200 OK\r\n"
+					+ "Content-Type: text/plain\r\n"
+					+ "Transfer-Encoding: chunked\r\n"
+					+ "4\r\naa"));
+			assertEquals(ProcessStatus.REFILL, responce.process(bb));
+			bb.put(ASCII.encode("aa\r"));
+			assertEquals(ProcessStatus.REFILL, responce.process(bb));
+			bb.put(ASCII.encode("\n2\r\nbb\r\n0\r\n"));
+			assertEquals(ProcessStatus.REFILL, responce.process(bb));
+			bb.put(ASCII.encode("\r\n"));
+			assertEquals(ProcessStatus.DONE, responce.process(bb));
+			assertEquals(6, progress[0]);
+			assertEquals(-1, progress[1]);
+			assertEquals("aaaabb", Files.readString(target, ASCII));
+		} finally {
+			Files.delete(target);
+		}
+	}
+	
+	@Tag("HTTPReader")
+	@Test
+	public void ShouldRejectInvalidChunkSize() {
+		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+		String s = "HTTP/1.0 200 OK\r\n"
+				+ "Content-Type: text/plain\r\n"
+				+ "Transfer-Encoding: chunked\r\n"
+				+ "zz\r\n";
+		bb.put(ASCII.encode(s));
+		var responce = new HTTPReader();
+		assertEquals(ProcessStatus.ERROR, responce.process(bb));
+	}
+	
+	@Tag("HTTPReader")
+	@Test
+	public void ShouldInflateDeflatedContentToFile() throws IOException {
+		var target = Files.createTempFile("chatos", ".txt");
+		try {
+			var body = "ChatOS log line\n".repeat(1_000).getBytes(ASCII);
+			var deflater = new Deflater();
+			deflater.setInput(body);
+			deflater.finish();
+			var deflated = new byte[body.length];
+			var length = deflater.deflate(deflated);
+			assertTrue(deflater.finished());
+			var responce = new HTTPReader();
+			var progress = new long[1];
+			responce.streamTo(target, (received, total) -> progress[0] = received);
+			ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+			bb.put(ASCII.encode("HTTP/1.0 200 OK\r\n"
+					+ "Content-Type: text/plain\r\n"
+					+ "Content-Encoding: deflate\r\n"
+					+ "Transfer-Encoding: chunked\r\n"
+					+ Integer.toHexString(length) + "\r\n"));
+			bb.put(deflated, 0, length);
+			bb.put(ASCII.encode("\r\n0\r\n\r\n"));
+			assertEquals(ProcessStatus.DONE, responce.process(bb));
+			assertEquals(body.length, progress[0]);
+			assertArrayEquals(body, Files.readAllBytes(target));
+		} finally {
+			Files.delete(target);
+		}
+	}
+	
+	@Tag("HTTPReader")
+	@Test
+	public void ShouldRejectTruncatedDeflatedContent() {
+		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+		String s = "HTTP/1.0 200 OK\r\n"
+				+ "Content-Type: text/plain\r\n"
+				+ "Content-Encoding: deflate\r\n"
+				+ "Content-Length: 2\r\n"
+				+ "\u0078\u009c";
+		bb.put(StandardCharsets.ISO_8859_1.encode(s));
+		var responce = new HTTPReader();
+		assertEquals(ProcessStatus.ERROR, responce.process(bb));
+	}
+	
 }
@@ -13,6 +13,8 @@ import fr.upem.net.chatos.reader.ConnectionRequestReader;
 import fr.upem.net.chatos.reader.FrameVisitor;
 import fr.upem.net.chatos.reader.ErrorCodeReader;
 import fr.upem.net.chatos.reader.OpCodeReader;
+import fr.upem.net.chatos.reader.OpCodeRegistry;
+import fr.upem.net.chatos.reader.OpaqueMessageReader;
 import fr.upem.net.chatos.reader.SendMessageAllReader;
 import fr.upem.net.chatos.reader.SendPrivateMessageReader;
 import fr.upem.net.chatos.reader.TCPAbortReader;
@@ -63,6 +65,10 @@ class OpCodeReaderTest {
 			@Override
 			public void visit(TCPAcceptReader tcpAcceptReader, Void context) {
 			}
+
+			@Override
+			public void visit(OpaqueMessageReader opaqueMessageReader, Void context) {
+			}
 		};
 		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
 		bb.put((byte)1)
@@ -110,6 +116,10 @@ class OpCodeReaderTest {
 			@Override
 			public void visit(TCPAcceptReader tcpAcceptReader, Void context) {
 			}
+
+			@Override
+			public void visit(OpaqueMessageReader opaqueMessageReader, Void context) {
+			}
 		};
 		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
 		bb.put((byte)2)
@@ -161,6 +171,10 @@ class OpCodeReaderTest {
 			@Override
 			public void visit(TCPAcceptReader tcpAcceptReader, Void context) {
 			}
+
+			@Override
+			public void visit(OpaqueMessageReader opaqueMessageReader, Void context) {
+			}
 		};
 		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
 		bb.put((byte)3)
@@ -210,6 +224,10 @@ class OpCodeReaderTest {
 			@Override
 			public void visit(TCPAcceptReader tcpAcceptReader, Void context) {
 			}
+
+			@Override
+			public void visit(OpaqueMessageReader opaqueMessageReader, Void context) {
+			}
 		};
 		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
 		bb.put((byte)6)
@@ -265,6 +283,10 @@ class OpCodeReaderTest {
 			@Override
 			public void visit(TCPAcceptReader tcpAcceptReader, Void context) {
 			}
+
+			@Override
+			public void visit(OpaqueMessageReader opaqueMessageReader, Void context) {
+			}
 		};
 		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
 		bb.put((byte)6);
@@ -309,6 +331,10 @@ class OpCodeReaderTest {
 			@Override
 			public void visit(TCPAcceptReader tcpAcceptReader, Void context) {
 			}
+
+			@Override
+			public void visit(OpaqueMessageReader opaqueMessageReader, Void context) {
+			}
 		};
 		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
 		bb.put((byte)6)
@@ -331,4 +357,19 @@ class OpCodeReaderTest {
 		var OCR = new OpCodeReader();
 		assertEquals(ProcessStatus.ERROR,OCR.process(bb));
 	}
+
+	@Tag("OpCodeReader")
+	@Test
+	public void OpCodeShouldUseRegisteredExtensions() {
+		assertEquals(ProcessStatus.ERROR, new OpCodeReader().process(ByteBuffer.allocate(BUFFER_SIZE).put((byte)42)));
+		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+		bb.put((byte)42);
+		bb.put((byte)1);
+		var registry = OpCodeRegistry.chatOs(false).register((byte)42, stringReader -> new ErrorCodeReader());
+		var OCR = new OpCodeReader(registry);
+		assertEquals(ProcessStatus.DONE, OCR.process(bb));
+		OCR.reset();
+		bb.put(OpCodeReader.CR_CODE).putShort((short)3).put(UTF_8.encode("abc"));
+		assertEquals(ProcessStatus.DONE, OCR.process(bb));
+	}
 }
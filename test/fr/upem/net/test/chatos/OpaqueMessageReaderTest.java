@@ -0,0 +1,129 @@
+package fr.upem.net.test.chatos;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import fr.upem.net.chatos.frame.PrivateMessage;
+import fr.upem.net.chatos.reader.OpCodeReader;
+import fr.upem.net.chatos.reader.OpaqueMessageReader;
+import fr.upem.net.chatos.reader.Reader.ProcessStatus;
+
+public class OpaqueMessageReaderTest {
+	private static final Charset UTF_8 = StandardCharsets.UTF_8;
+	private static final int BUFFER_SIZE = 1024;
+	
+	@Tag("OpaqueMessageReader")
+	@Test
+	public void OpaqueMessageReaderShouldReturnRefill() {
+		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+		bb.putShort((short)3)
+			.put(UTF_8.encode("abc"))
+			.putShort((short)5);
+		var OMR = new OpaqueMessageReader(OpCodeReader.SPM_CODE);
+		assertEquals(ProcessStatus.REFILL, OMR.process(bb));
+	}
+	
+	@Tag("OpaqueMessageReader")
+	@Test
+	public void OpaqueMessageReaderShouldKeepTheFrameUntouched() {
+		var expected = new PrivateMessage("abc", "déf", "salut à toi").toByteBuffer(null).get();
+		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+		bb.put(expected.duplicate().position(1));
+		var OMR = new OpaqueMessageReader(OpCodeReader.SPM_CODE);
+		assertEquals(ProcessStatus.DONE, OMR.process(bb));
+		var msg = OMR.get();
+		assertArrayEquals(expected.array(), msg.toByteBuffer(null).get().array());
+		assertEquals("déf", msg.getRecipient());
+		assertTrue(msg.isSentBy("abc".getBytes(UTF_8)));
+		assertFalse(msg.isSentBy("ab".getBytes(UTF_8)));
+	}
+	
+	@Tag("OpaqueMessageReader")
+	@Test
+	public void OpaqueMessageReaderShouldWorkByteByByte() {
+		var expected = new PrivateMessage("abc", "def", "salut").toByteBuffer(null).get();
+		var OMR = new OpaqueMessageReader(OpCodeReader.SPM_CODE);
+		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+		var ps = ProcessStatus.REFILL;
+		for (var i = 1; i < expected.limit(); i++) {
+			assertEquals(ProcessStatus.REFILL, ps);
+			bb.put(expected.get(i));
+			ps = OMR.process(bb);
+		}
+		assertEquals(ProcessStatus.DONE, ps);
+		assertArrayEquals(expected.array(), OMR.get().toByteBuffer(null).get().array());
+	}
+	
+	@Tag("OpaqueMessageReader")
+	@Test
+	public void OpaqueMessageReaderShouldNotReadAllTheBuffer() {
+		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+		var str = "ne doit pas etre lu";
+		bb.putShort((short)3)
+			.put(UTF_8.encode("abc"))
+			.putShort((short)5)
+			.put(UTF_8.encode("salut"))
+			.put(UTF_8.encode(str));
+		var OMR = new OpaqueMessageReader(OpCodeReader.SMA_CODE);
+		assertEquals(ProcessStatus.DONE, OMR.process(bb));
+		assertFalse(OMR.get().hasRecipient());
+		assertEquals(str, UTF_8.decode(bb.flip()).toString());
+	}
+	
+	@Tag("OpaqueMessageReader")
+	@Test
+	public void OpaqueMessageShouldSurviveTheNextFrame() {
+		var first = new PrivateMessage("abc", "def", "salut").toByteBuffer(null).get();
+		var second = new PrivateMessage("ghijkl", "mn", "au revoir").toByteBuffer(null).get();
+		var OMR = new OpaqueMessageReader(OpCodeReader.SPM_CODE);
+		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+		bb.put(first.duplicate().position(1));
+		assertEquals(ProcessStatus.DONE, OMR.process(bb));
+		var msg = OMR.get();
+		OMR.reset();
+		bb.put(second.duplicate().position(1));
+		assertEquals(ProcessStatus.DONE, OMR.process(bb));
+		assertArrayEquals(first.array(), msg.toByteBuffer(null).get().array());
+		assertArrayEquals(second.array(), OMR.get().toByteBuffer(null).get().array());
+	}
+	
+	@Tag("OpaqueMessageReader")
+	@Test
+	public void OpaqueMessageReaderShouldReturnErrorOnEmptyString() {
+		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+		bb.putShort((short)0);
+		var OMR = new OpaqueMessageReader(OpCodeReader.SMA_CODE);
+		assertEquals(ProcessStatus.ERROR, OMR.process(bb));
+	}
+	
+	@Tag("OpaqueMessageReader")
+	@Test
+	public void OpaqueMessageReaderShouldResetCorrectly() {
+		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
+		bb.putShort((short)3)
+			.put(UTF_8.encode("abc"))
+			.putShort((short)2)
+			.put(UTF_8.encode("bc"));
+		var OMR = new OpaqueMessageReader(OpCodeReader.SMA_CODE);
+		assertEquals(ProcessStatus.DONE,OMR.process(bb));
+		OMR.reset();
+		assertEquals(ProcessStatus.REFILL,OMR.process(bb));
+		assertThrows(IllegalStateException.class, ()->OMR.get());
+	}
+	
+	@Tag("OpaqueMessageReader")
+	@Test
+	public void OpaqueMessageReaderShouldRejectOtherOpCodes() {
+		assertThrows(IllegalArgumentException.class, ()->new OpaqueMessageReader(OpCodeReader.CR_CODE));
+	}
+}
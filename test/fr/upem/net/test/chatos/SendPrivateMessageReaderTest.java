@@ -14,6 +14,7 @@ import fr.upem.net.chatos.reader.ConnectionRequestReader;
 import fr.upem.net.chatos.reader.FrameVisitor;
 import fr.upem.net.chatos.reader.ErrorCodeReader;
 import fr.upem.net.chatos.reader.Reader.ProcessStatus;
+import fr.upem.net.chatos.reader.OpaqueMessageReader;
 import fr.upem.net.chatos.reader.SendMessageAllReader;
 import fr.upem.net.chatos.reader.SendPrivateMessageReader;
 import fr.upem.net.chatos.reader.TCPAbortReader;
@@ -107,6 +108,10 @@ public class SendPrivateMessageReaderTest {
 			@Override
 			public void visit(TCPAcceptReader tcpAcceptReader, Void context) {
 			}
+
+			@Override
+			public void visit(OpaqueMessageReader opaqueMessageReader, Void context) {
+			}
 		};
 		ByteBuffer bb = ByteBuffer.allocate(BUFFER_SIZE);
 		bb.putShort((short)3)